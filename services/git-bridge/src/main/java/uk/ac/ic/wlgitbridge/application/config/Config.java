@@ -9,8 +9,14 @@ import java.io.Reader;
 import java.util.Optional;
 import javax.annotation.Nullable;
 import uk.ac.ic.wlgitbridge.application.exception.ConfigFileException;
+import uk.ac.ic.wlgitbridge.bridge.db.cache.DBCacheConfig;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SqliteDBStore;
+import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLockConfig;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStoreConfig;
+import uk.ac.ic.wlgitbridge.bridge.resource.ResourceCacheConfig;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiConfig;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJobConfig;
+import uk.ac.ic.wlgitbridge.bridge.swap.job.ZstdConfig;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStoreConfig;
 import uk.ac.ic.wlgitbridge.snapshot.base.JSONSource;
 import uk.ac.ic.wlgitbridge.util.Instance;
@@ -35,7 +41,15 @@ public class Config implements JSONSource {
         config.repoStore,
         SwapStoreConfig.sanitisedCopy(config.swapStore),
         config.swapJob,
-        config.sqliteHeapLimitBytes);
+        config.sqliteHeapLimitBytes,
+        config.snapshotApi,
+        config.resourceCache,
+        config.projectLock,
+        config.sqliteCacheSizeKib,
+        config.sqliteMmapSizeBytes,
+        config.sqliteReaderConnections,
+        config.sqliteLastAccessedFlushIntervalSeconds,
+        config.dbCache);
   }
 
   private int port;
@@ -52,6 +66,15 @@ public class Config implements JSONSource {
   @Nullable private SwapStoreConfig swapStore;
   @Nullable private SwapJobConfig swapJob;
   private int sqliteHeapLimitBytes = 0;
+  @Nullable private SnapshotApiConfig snapshotApi;
+  @Nullable private ResourceCacheConfig resourceCache;
+  @Nullable private ProjectLockConfig projectLock;
+  private int sqliteCacheSizeKib = 0;
+  private long sqliteMmapSizeBytes = 0;
+  private int sqliteReaderConnections = SqliteDBStore.DEFAULT_READER_CONNECTIONS;
+  private int sqliteLastAccessedFlushIntervalSeconds =
+      SqliteDBStore.DEFAULT_LAST_ACCESSED_FLUSH_INTERVAL_SECONDS;
+  @Nullable private DBCacheConfig dbCache;
 
   public Config(String configFilePath) throws ConfigFileException, IOException {
     this(new FileReader(configFilePath));
@@ -75,7 +98,15 @@ public class Config implements JSONSource {
       RepoStoreConfig repoStore,
       SwapStoreConfig swapStore,
       SwapJobConfig swapJob,
-      int sqliteHeapLimitBytes) {
+      int sqliteHeapLimitBytes,
+      SnapshotApiConfig snapshotApi,
+      ResourceCacheConfig resourceCache,
+      ProjectLockConfig projectLock,
+      int sqliteCacheSizeKib,
+      long sqliteMmapSizeBytes,
+      int sqliteReaderConnections,
+      int sqliteLastAccessedFlushIntervalSeconds,
+      DBCacheConfig dbCache) {
     this.port = port;
     this.bindIp = bindIp;
     this.idleTimeout = idleTimeout;
@@ -90,6 +121,14 @@ public class Config implements JSONSource {
     this.swapStore = swapStore;
     this.swapJob = swapJob;
     this.sqliteHeapLimitBytes = sqliteHeapLimitBytes;
+    this.snapshotApi = snapshotApi;
+    this.resourceCache = resourceCache;
+    this.projectLock = projectLock;
+    this.sqliteCacheSizeKib = sqliteCacheSizeKib;
+    this.sqliteMmapSizeBytes = sqliteMmapSizeBytes;
+    this.sqliteReaderConnections = sqliteReaderConnections;
+    this.sqliteLastAccessedFlushIntervalSeconds = sqliteLastAccessedFlushIntervalSeconds;
+    this.dbCache = dbCache;
   }
 
   @Override
@@ -121,9 +160,30 @@ public class Config implements JSONSource {
     repoStore = new Gson().fromJson(configObject.get("repoStore"), RepoStoreConfig.class);
     swapStore = new Gson().fromJson(configObject.get("swapStore"), SwapStoreConfig.class);
     swapJob = new Gson().fromJson(configObject.get("swapJob"), SwapJobConfig.class);
+    if (swapJob != null) {
+      swapJob.getZstd().ifPresent(ZstdConfig::validate);
+    }
     if (configObject.has("sqliteHeapLimitBytes")) {
       sqliteHeapLimitBytes = getElement(configObject, "sqliteHeapLimitBytes").getAsInt();
     }
+    snapshotApi = new Gson().fromJson(configObject.get("snapshotApi"), SnapshotApiConfig.class);
+    resourceCache =
+        new Gson().fromJson(configObject.get("resourceCache"), ResourceCacheConfig.class);
+    projectLock = new Gson().fromJson(configObject.get("projectLock"), ProjectLockConfig.class);
+    if (configObject.has("sqliteCacheSizeKib")) {
+      sqliteCacheSizeKib = getElement(configObject, "sqliteCacheSizeKib").getAsInt();
+    }
+    if (configObject.has("sqliteMmapSizeBytes")) {
+      sqliteMmapSizeBytes = getElement(configObject, "sqliteMmapSizeBytes").getAsLong();
+    }
+    if (configObject.has("sqliteReaderConnections")) {
+      sqliteReaderConnections = getElement(configObject, "sqliteReaderConnections").getAsInt();
+    }
+    if (configObject.has("sqliteLastAccessedFlushIntervalSeconds")) {
+      sqliteLastAccessedFlushIntervalSeconds =
+          getElement(configObject, "sqliteLastAccessedFlushIntervalSeconds").getAsInt();
+    }
+    dbCache = new Gson().fromJson(configObject.get("dbCache"), DBCacheConfig.class);
   }
 
   public String getSanitisedString() {
@@ -150,6 +210,22 @@ public class Config implements JSONSource {
     return this.sqliteHeapLimitBytes;
   }
 
+  public int getSqliteCacheSizeKib() {
+    return sqliteCacheSizeKib;
+  }
+
+  public long getSqliteMmapSizeBytes() {
+    return sqliteMmapSizeBytes;
+  }
+
+  public int getSqliteReaderConnections() {
+    return sqliteReaderConnections;
+  }
+
+  public int getSqliteLastAccessedFlushIntervalSeconds() {
+    return sqliteLastAccessedFlushIntervalSeconds;
+  }
+
   public String[] getAllowedCorsOrigins() {
     return allowedCorsOrigins;
   }
@@ -186,6 +262,22 @@ public class Config implements JSONSource {
     return Optional.ofNullable(swapJob);
   }
 
+  public Optional<SnapshotApiConfig> getSnapshotApi() {
+    return Optional.ofNullable(snapshotApi);
+  }
+
+  public Optional<ResourceCacheConfig> getResourceCache() {
+    return Optional.ofNullable(resourceCache);
+  }
+
+  public Optional<ProjectLockConfig> getProjectLock() {
+    return Optional.ofNullable(projectLock);
+  }
+
+  public Optional<DBCacheConfig> getDbCache() {
+    return Optional.ofNullable(dbCache);
+  }
+
   private JsonElement getElement(JsonObject configObject, String name) {
     JsonElement element = configObject.get(name);
     if (element == null) {
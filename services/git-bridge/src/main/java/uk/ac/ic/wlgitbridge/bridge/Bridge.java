@@ -1,24 +1,39 @@
 package uk.ac.ic.wlgitbridge.bridge;
 
 import com.google.api.client.auth.oauth2.Credential;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import uk.ac.ic.wlgitbridge.application.config.Config;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.db.UnitOfWork;
 import uk.ac.ic.wlgitbridge.bridge.gc.GcJob;
 import uk.ac.ic.wlgitbridge.bridge.gc.GcJobImpl;
 import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockOperation;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
+import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLockConfig;
 import uk.ac.ic.wlgitbridge.bridge.repo.*;
+import uk.ac.ic.wlgitbridge.bridge.resource.AttachmentFetcher;
+import uk.ac.ic.wlgitbridge.bridge.resource.BlobCache;
 import uk.ac.ic.wlgitbridge.bridge.resource.ResourceCache;
+import uk.ac.ic.wlgitbridge.bridge.resource.ResourceCacheConfig;
 import uk.ac.ic.wlgitbridge.bridge.resource.UrlResourceCache;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApi;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiConfig;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiFacade;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotStream;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJob;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
 import uk.ac.ic.wlgitbridge.data.CandidateSnapshot;
@@ -27,6 +42,7 @@ import uk.ac.ic.wlgitbridge.data.ProjectLockImpl;
 import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RawTreeDiff;
 import uk.ac.ic.wlgitbridge.data.model.Snapshot;
 import uk.ac.ic.wlgitbridge.git.exception.FileLimitExceededException;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
@@ -34,8 +50,8 @@ import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
 import uk.ac.ic.wlgitbridge.snapshot.base.ForbiddenException;
 import uk.ac.ic.wlgitbridge.snapshot.base.MissingRepositoryException;
 import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
-import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotAttachment;
 import uk.ac.ic.wlgitbridge.snapshot.push.PostbackManager;
+import uk.ac.ic.wlgitbridge.snapshot.push.PostbackPoller;
 import uk.ac.ic.wlgitbridge.snapshot.push.PushResult;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.*;
 import uk.ac.ic.wlgitbridge.util.Log;
@@ -128,6 +144,17 @@ import uk.ac.ic.wlgitbridge.util.Log;
  */
 public class Bridge {
 
+  private static final Gauge coalescedSyncWaiters =
+      Gauge.build()
+          .name("coalesced_sync_waiters")
+          .help("Requests currently waiting for another request's sync of the same project")
+          .register();
+  private static final Counter coalescedSyncs =
+      Counter.build()
+          .name("coalesced_syncs_total")
+          .help("Requests that were served by another request's sync of the same project")
+          .register();
+
   private final Config config;
 
   private final ProjectLock lock;
@@ -139,9 +166,16 @@ public class Bridge {
   private final GcJob gcJob;
 
   private final SnapshotApiFacade snapshotAPI;
-  private final ResourceCache resourceCache;
+  private final AttachmentFetcher attachmentFetcher;
 
   private final PostbackManager postbackManager;
+  private final PostbackPoller postbackPoller;
+
+  private final ConcurrentMap<String, CompletableFuture<ProjectRepo>> inFlightSyncs =
+      new ConcurrentHashMap<>();
+
+  /* The candidate snapshot of each push in progress, whose files we serve. */
+  private final ConcurrentMap<String, CandidateSnapshot> pushCandidates = new ConcurrentHashMap<>();
 
   /*
    * Creates a Bridge from its configurable parts, which are the repo, db and
@@ -162,7 +196,16 @@ public class Bridge {
       SwapStore swapStore,
       SnapshotApi snapshotApi) {
     ProjectLock lock =
-        new ProjectLockImpl((int threads) -> Log.debug("Waiting for " + threads + " projects..."));
+        new ProjectLockImpl(
+            config
+                .getProjectLock()
+                .map(ProjectLockConfig::getMaxWaitSeconds)
+                .orElse(ProjectLockConfig.DEFAULT_MAX_WAIT_SECONDS),
+            config
+                .getProjectLock()
+                .map(ProjectLockConfig::getMaxQueueDepth)
+                .orElse(ProjectLockConfig.DEFAULT_MAX_QUEUE_DEPTH),
+            (int threads) -> Log.debug("Waiting for " + threads + " projects..."));
     return new Bridge(
         config,
         lock,
@@ -170,9 +213,18 @@ public class Bridge {
         dbStore,
         swapStore,
         SwapJob.fromConfig(config.getSwapJob(), lock, repoStore, dbStore, swapStore),
-        new GcJobImpl(repoStore, lock),
-        new SnapshotApiFacade(snapshotApi),
-        new UrlResourceCache(dbStore));
+        new GcJobImpl(repoStore, dbStore, lock),
+        new SnapshotApiFacade(
+            snapshotApi,
+            config
+                .getSnapshotApi()
+                .map(SnapshotApiConfig::getLookahead)
+                .orElse(SnapshotApiConfig.DEFAULT_LOOKAHEAD)),
+        new UrlResourceCache(
+            dbStore,
+            BlobCache.fromConfig(
+                config.getResourceCache(), new File(repoStore.getRootDirectory(), ".wlgb/blobs")),
+            new File(repoStore.getRootDirectory(), ".wlgb/spill")));
   }
 
   /*
@@ -204,10 +256,31 @@ public class Bridge {
     this.dbStore = dbStore;
     this.swapStore = swapStore;
     this.snapshotAPI = snapshotAPI;
-    this.resourceCache = resourceCache;
+    Optional<ResourceCacheConfig> resourceCacheConfig = config.getResourceCache();
+    this.attachmentFetcher =
+        new AttachmentFetcher(
+            resourceCache,
+            resourceCacheConfig
+                .map(ResourceCacheConfig::getMaxConcurrentFetches)
+                .orElse(ResourceCacheConfig.DEFAULT_MAX_CONCURRENT_FETCHES),
+            resourceCacheConfig
+                .map(ResourceCacheConfig::getMaxConcurrentFetchesPerProject)
+                .orElse(ResourceCacheConfig.DEFAULT_MAX_CONCURRENT_FETCHES_PER_PROJECT));
     this.swapJob = swapJob;
     this.gcJob = gcJob;
     postbackManager = new PostbackManager();
+    Optional<SnapshotApiConfig> snapshotApiConfig = config.getSnapshotApi();
+    postbackPoller =
+        new PostbackPoller(
+            snapshotAPI,
+            TimeUnit.SECONDS.toMillis(
+                snapshotApiConfig
+                    .map(SnapshotApiConfig::getPostbackGracePeriodSeconds)
+                    .orElse(SnapshotApiConfig.DEFAULT_POSTBACK_GRACE_PERIOD_SECONDS)),
+            TimeUnit.SECONDS.toMillis(
+                snapshotApiConfig
+                    .map(SnapshotApiConfig::getPostbackPollMaxIntervalSeconds)
+                    .orElse(SnapshotApiConfig.DEFAULT_POSTBACK_POLL_MAX_INTERVAL_SECONDS)));
     Runtime.getRuntime().addShutdownHook(new Thread(this::doShutdown));
     repoStore.purgeNonexistentProjects(dbStore.getProjectNames());
   }
@@ -229,6 +302,10 @@ public class Bridge {
     gcJob.stop();
     Log.info("Waiting for projects");
     lock.lockAll();
+    Log.info("Stopping DB");
+    dbStore.stop();
+    Log.info("Stopping SwapStore");
+    swapStore.stop();
     Log.info("Bye");
   }
 
@@ -268,7 +345,7 @@ public class Bridge {
         continue;
       }
       String projName = f.getName();
-      try (LockGuard __ = lock.lockGuard(projName)) {
+      try (LockGuard __ = lock.lockGuard(projName, LockOperation.SWAP)) {
         File dotGit = new File(f, ".git");
         if (!dotGit.exists()) {
           Log.warn("Project: {} has no .git", projName);
@@ -289,8 +366,18 @@ public class Bridge {
   /*
    * Synchronises the given repository with Overleaf.
    *
-   * It acquires the project lock and calls
-   * {@link #getUpdatedRepoCritical(Optional, String, GetDocResult)}.
+   * Every caller checks that the project exists (and that it may see it)
+   * with its own credentials. If the project is on disk and already at the
+   * latest version, that is checked and the repository returned under the
+   * shared project lock, so fetches that find nothing new don't wait for
+   * each other. Otherwise, concurrent syncs of the same
+   * project are coalesced: the first caller becomes the leader, acquires the
+   * project lock and calls
+   * {@link #getUpdatedRepoCritical(Optional, String, GetDocResult)}, while
+   * any other caller waits for the leader's sync instead of queueing on the
+   * lock and fetching the same snapshots again. If the leader's sync did not
+   * reach the version the caller saw, or failed on the leader's credentials,
+   * the caller syncs the project itself once it gets the lock.
    * @param oauth2 The oauth2 to use
    * @param projectName The name of the project
    * @throws IOException
@@ -298,17 +385,120 @@ public class Bridge {
    */
   public ProjectRepo getUpdatedRepo(Optional<Credential> oauth2, String projectName)
       throws IOException, GitUserException, CannotAcquireLockException {
-    try (LockGuard __ = lock.lockGuard(projectName)) {
-      Optional<GetDocResult> maybeDoc = snapshotAPI.getDoc(oauth2, projectName);
-      if (!maybeDoc.isPresent()) {
-        throw new RepositoryNotFoundException(projectName);
-      }
-      GetDocResult doc = maybeDoc.get();
+    Optional<GetDocResult> maybeDoc = snapshotAPI.getDoc(oauth2, projectName);
+    if (!maybeDoc.isPresent()) {
+      throw new RepositoryNotFoundException(projectName);
+    }
+    GetDocResult doc = maybeDoc.get();
+    Optional<ProjectRepo> upToDate = getRepoIfUpToDate(projectName, doc);
+    if (upToDate.isPresent()) {
+      return upToDate.get();
+    }
+    CompletableFuture<ProjectRepo> sync = new CompletableFuture<>();
+    CompletableFuture<ProjectRepo> inFlight = inFlightSyncs.putIfAbsent(projectName, sync);
+    if (inFlight == null) {
+      return leadSync(oauth2, projectName, doc, sync);
+    }
+    upToDate = waitForSync(projectName, doc, inFlight);
+    if (upToDate.isPresent()) {
+      return upToDate.get();
+    }
+    try (LockGuard __ = lock.lockGuard(projectName, LockOperation.FETCH)) {
       Log.debug("[{}] Updating repository", projectName);
       return getUpdatedRepoCritical(oauth2, projectName, doc);
     }
   }
 
+  private ProjectRepo leadSync(
+      Optional<Credential> oauth2,
+      String projectName,
+      GetDocResult doc,
+      CompletableFuture<ProjectRepo> sync)
+      throws IOException, GitUserException, CannotAcquireLockException {
+    try (LockGuard __ = lock.lockGuard(projectName, LockOperation.FETCH)) {
+      Log.debug("[{}] Updating repository", projectName);
+      ProjectRepo repo = getUpdatedRepoCritical(oauth2, projectName, doc);
+      sync.complete(repo);
+      return repo;
+    } catch (Throwable t) {
+      sync.completeExceptionally(t);
+      throw t;
+    } finally {
+      inFlightSyncs.remove(projectName, sync);
+    }
+  }
+
+  /*
+   * Returns the repository if it is present and nothing has changed on
+   * Overleaf since it was last synced, holding only the shared lock.
+   *
+   * A latest version of 0 is never up to date, as projects that were
+   * imported without changes are at version 0 before their first sync too
+   * (see {@link SnapshotApiFacade#getSnapshots(Optional, String, int)}).
+   */
+  private Optional<ProjectRepo> getRepoIfUpToDate(String projectName, GetDocResult doc)
+      throws IOException, GitUserException, CannotAcquireLockException {
+    if (doc.getVersionID() == 0) {
+      return Optional.empty();
+    }
+    return getRepoIfSyncedTo(projectName, doc.getVersionID());
+  }
+
+  /*
+   * Returns the repository if it is present and has been synced to at least
+   * the given version, holding only the shared lock.
+   */
+  private Optional<ProjectRepo> getRepoIfSyncedTo(String projectName, int versionId)
+      throws IOException, GitUserException, CannotAcquireLockException {
+    try (LockGuard __ = lock.sharedLockGuard(projectName, LockOperation.FETCH)) {
+      if (dbStore.getLatestVersionForProject(projectName) < versionId
+          || dbStore.getProjectState(projectName) != ProjectState.PRESENT) {
+        return Optional.empty();
+      }
+      Log.debug("[{}] Repository is up to date", projectName);
+      ProjectRepo repo = repoStore.getExistingRepo(projectName);
+      dbStore.setLastAccessedTime(projectName, Timestamp.valueOf(LocalDateTime.now()));
+      return Optional.of(repo);
+    }
+  }
+
+  /*
+   * Called by {@link #getUpdatedRepo(Optional, String)} when another request
+   * is syncing the project, or about to.
+   *
+   * Waits for that sync and rethrows its exception if it failed, unless it
+   * was a {@link GitUserException}: those may be down to the leader's
+   * credentials, so the caller retries with its own. On success,
+   * the repository is opened again under the shared lock, as every request
+   * closes the JGit repository it was given once it is done with it; if the
+   * project has been swapped out in the meantime, or is still behind the
+   * version this request saw, the caller has to sync it itself.
+   */
+  private Optional<ProjectRepo> waitForSync(
+      String projectName, GetDocResult doc, CompletableFuture<ProjectRepo> inFlight)
+      throws IOException, GitUserException, CannotAcquireLockException {
+    Log.debug("[{}] Waiting for in-flight sync", projectName);
+    coalescedSyncs.inc();
+    coalescedSyncWaiters.inc();
+    try {
+      inFlight.join();
+    } catch (CompletionException e) {
+      try {
+        throw e.getCause();
+      } catch (GitUserException cause) {
+        Log.debug("[{}] In-flight sync failed for its user: {}", projectName, cause);
+        return Optional.empty();
+      } catch (IOException | CannotAcquireLockException | RuntimeException | Error cause) {
+        throw cause;
+      } catch (Throwable __) {
+        throw e;
+      }
+    } finally {
+      coalescedSyncWaiters.dec();
+    }
+    return getRepoIfSyncedTo(projectName, doc.getVersionID());
+  }
+
   /*
    * Synchronises the given repository with Overleaf.
    *
@@ -357,19 +547,23 @@ public class Bridge {
     return repo;
   }
 
+  /*
+   * Takes the shared lock of a project, so that it isn't changed or swapped
+   * out while a fetch is being served from its repository.
+   */
+  public LockGuard sharedLockGuard(String projectName) throws CannotAcquireLockException {
+    return lock.sharedLockGuard(projectName, LockOperation.FETCH);
+  }
+
   /*
    * The public call to push a project.
    *
-   * It acquires the lock and calls {@link #pushCritical(
-   *      Optional,
-   *      String,
-   *      RawDirectory,
-   *      RawDirectory
-   * )}, catching exceptions, logging, and rethrowing them.
+   * It acquires the lock and calls
+   * {@link #pushCritical(Optional, String, RawTreeDiff)}, catching
+   * exceptions, logging, and rethrowing them.
    * @param oauth2 The oauth2 to use for the snapshot API
    * @param projectName The name of the project to push to
-   * @param directoryContents The new contents of the project
-   * @param oldDirectoryContents The old contents of the project
+   * @param diff The pushed tree compared with the current one
    * @param hostname
    * @throws SnapshotPostException
    * @throws IOException
@@ -378,11 +572,7 @@ public class Bridge {
    * @throws GitUserException
    */
   public void push(
-      Optional<Credential> oauth2,
-      String projectName,
-      RawDirectory directoryContents,
-      RawDirectory oldDirectoryContents,
-      String hostname)
+      Optional<Credential> oauth2, String projectName, RawTreeDiff diff, String hostname)
       throws SnapshotPostException,
           IOException,
           MissingRepositoryException,
@@ -390,9 +580,9 @@ public class Bridge {
           GitUserException,
           CannotAcquireLockException {
     Log.debug("[{}] pushing to Overleaf", projectName);
-    try (LockGuard __ = lock.lockGuard(projectName)) {
+    try (LockGuard __ = lock.lockGuard(projectName, LockOperation.PUSH)) {
       Log.debug("[{}] got project lock", projectName);
-      pushCritical(oauth2, projectName, directoryContents, oldDirectoryContents);
+      pushCritical(oauth2, projectName, diff);
     } catch (SevereSnapshotPostException e) {
       Log.warn("[" + projectName + "] Failed to put to Overleaf", e);
       throw e;
@@ -419,13 +609,12 @@ public class Bridge {
    * We start off by creating a postback key, which is given in the url when
    * the Overleaf app tries to access the atts.
    *
-   * Then creates a {@link CandidateSnapshot} from the old and new project
-   * contents. The
+   * Then creates a {@link CandidateSnapshot} from the diff between the old
+   * and new trees. The
    * {@link CandidateSnapshot} is created using
-   * {@link #createCandidateSnapshot(String, RawDirectory, RawDirectory)},
-   * which creates the snapshot object and writes the push files to the
-   * atts directory, which is served by the {@link PostbackHandler}.
-   * The files are deleted at the end of a try-with-resources block.
+   * {@link #createCandidateSnapshot(String, RawTreeDiff)}, and its changed
+   * files are served by the {@link FileHandler} from the pushed repository
+   * (see {@link #getPushedFile(String, String)}) until the push is over.
    *
    * Then 3 things are used to make the push request to the snapshot API:
    * 1. The oauth2
@@ -449,19 +638,14 @@ public class Bridge {
    *
    * @param oauth2
    * @param projectName
-   * @param directoryContents
-   * @param oldDirectoryContents
+   * @param diff
    * @throws IOException
    * @throws MissingRepositoryException
    * @throws ForbiddenException
    * @throws SnapshotPostException
    * @throws GitUserException
    */
-  private void pushCritical(
-      Optional<Credential> oauth2,
-      String projectName,
-      RawDirectory directoryContents,
-      RawDirectory oldDirectoryContents)
+  private void pushCritical(Optional<Credential> oauth2, String projectName, RawTreeDiff diff)
       throws IOException,
           MissingRepositoryException,
           ForbiddenException,
@@ -470,38 +654,47 @@ public class Bridge {
     Optional<Long> maxFileNum = config.getRepoStore().flatMap(RepoStoreConfig::getMaxFileNum);
     if (maxFileNum.isPresent()) {
       long maxFileNum_ = maxFileNum.get();
-      if (directoryContents.getFileTable().size() > maxFileNum_) {
-        Log.warn(
-            "[{}] Too many files: {}/{}",
-            projectName,
-            directoryContents.getFileTable().size(),
-            maxFileNum_);
-        throw new FileLimitExceededException(directoryContents.getFileTable().size(), maxFileNum_);
+      if (diff.getFiles().size() > maxFileNum_) {
+        Log.warn("[{}] Too many files: {}/{}", projectName, diff.getFiles().size(), maxFileNum_);
+        throw new FileLimitExceededException(diff.getFiles().size(), maxFileNum_);
       }
     }
     Log.debug(
-        "[{}] Pushing files ({} new, {} old)",
+        "[{}] Pushing files ({} files, {} changed, {} deleted)",
         projectName,
-        directoryContents.getFileTable().size(),
-        oldDirectoryContents.getFileTable().size());
+        diff.getFiles().size(),
+        diff.getChangedCount(),
+        diff.getDeleted().size());
     String postbackKey = postbackManager.makeKeyForProject(projectName);
     Log.debug("[{}] Created postback key: {}", projectName, postbackKey);
-    try (CandidateSnapshot candidate =
-        createCandidateSnapshot(projectName, directoryContents, oldDirectoryContents); ) {
+    CandidateSnapshot candidate = createCandidateSnapshot(projectName, diff);
+    pushCandidates.put(projectName, candidate);
+    try {
       Log.debug("[{}] Candidate snapshot created: {}", projectName, candidate);
       PushResult result = snapshotAPI.push(oauth2, candidate, postbackKey);
       if (result.wasSuccessful()) {
         Log.debug("[{}] Push to Overleaf successful", projectName);
         Log.debug("[{}] Waiting for postback...", projectName);
+        postbackPoller.watch(
+            oauth2,
+            projectName,
+            candidate.getCurrentVersion(),
+            postbackManager.getPostbackPromise(projectName),
+            version ->
+                candidate.isContentOf(
+                    version, url -> dbStore.getPathForURLInProject(projectName, url)));
         int versionID = postbackManager.waitForVersionIdOrThrow(projectName);
         Log.debug("[{}] Got version ID for push: {}", projectName, versionID);
         approveSnapshot(versionID, candidate);
         Log.debug("[{}] Approved version ID: {}", projectName, versionID);
         dbStore.setLastAccessedTime(projectName, Timestamp.valueOf(LocalDateTime.now()));
+        updateDiskBytes(projectName);
       } else {
         Log.warn("[{}] Went out of date while waiting for push", projectName);
         throw new OutOfDateException();
       }
+    } finally {
+      pushCandidates.remove(projectName, candidate);
     }
   }
 
@@ -524,12 +717,31 @@ public class Bridge {
     postbackManager.checkPostbackKey(projectName, postbackKey);
   }
 
+  /*
+   * A public call that should originate from the {@link FileHandler}, after
+   * checking the postback key.
+   *
+   * Returns the changed file with the given identifier from the push in
+   * progress for the project. The file is a blob in the pushed repository,
+   * so it can be streamed from there without being staged on disk.
+   * @param projectName The name of the project being pushed to
+   * @param identifier The unique identifier given in the file's url
+   * @return the file, or empty if there is no such push or file
+   */
+  public Optional<RawFile> getPushedFile(String projectName, String identifier) {
+    CandidateSnapshot candidate = pushCandidates.get(projectName);
+    if (candidate == null) {
+      return Optional.empty();
+    }
+    return candidate.getChangedFile(identifier);
+  }
+
   /*
    * A public call that originates from the postback thread
    * {@link PostbackContents#processPostback()}, i.e. once the Overleaf app
    * has fetched all the atts and has committed the push and is happy, it
    * calls back here, fulfilling the promise that the push
-   * {@link #push(Optional, String, RawDirectory, RawDirectory, String)}
+   * {@link #push(Optional, String, RawTreeDiff, String)}
    * is waiting on.
    *
    * The Overleaf app will have invented a new version for the push, which is
@@ -587,7 +799,15 @@ public class Bridge {
    * Does the actual work of getting the snapshots for a project from the
    * snapshot API and committing them to a repo.
    *
-   * If any snapshots were found, sets the latest version for the project.
+   * Snapshots are streamed from the snapshot API and committed one at a
+   * time, so only a bounded number of them are held in memory.
+   *
+   * The url index and version updates of the whole sync are committed to
+   * the db store together, once the snapshots have been committed to the
+   * repo. They are committed even if fetching a later snapshot fails, so
+   * the latest version stays in step with the commits already in the repo
+   * and the next sync carries on from there instead of committing those
+   * versions again.
    *
    * @param oauth2
    * @param repo
@@ -598,17 +818,24 @@ public class Bridge {
       throws IOException, GitUserException {
     String projectName = repo.getProjectName();
     int latestVersionId = dbStore.getLatestVersionForProject(projectName);
-    Deque<Snapshot> snapshots = snapshotAPI.getSnapshots(oauth2, projectName, latestVersionId);
-
-    makeCommitsFromSnapshots(repo, snapshots);
-
-    // TODO: in case crashes around here, add an
-    // "updating_from_commit" column to the DB as a way to rollback the
-    // any failed partial updates before re-trying
-    // Also need to consider the empty state (a new git init'd repo being
-    // the rollback target)
-    if (!snapshots.isEmpty()) {
-      dbStore.setLatestVersionForProject(projectName, snapshots.getLast().getVersionID());
+    Optional<Integer> committedVersionId;
+    try (UnitOfWork update = dbStore.beginUpdate(projectName);
+        SnapshotStream snapshots = snapshotAPI.getSnapshots(oauth2, projectName, latestVersionId)) {
+      try {
+        committedVersionId = makeCommitsFromSnapshots(repo, snapshots);
+      } catch (IOException | GitUserException | RuntimeException | Error e) {
+        /* Keep the versions already committed, without hiding why the sync failed */
+        try {
+          update.commit();
+        } catch (RuntimeException commitFailure) {
+          e.addSuppressed(commitFailure);
+        }
+        throw e;
+      }
+      update.commit();
+    }
+    if (committedVersionId.isPresent()) {
+      updateDiskBytes(projectName);
     }
   }
 
@@ -618,18 +845,25 @@ public class Bridge {
    * Performs the actual Git commits on the disk.
    *
    * Each commit adds files to the db store
-   * ({@link ResourceCache#get(String, String, String, Map, Map, Optional)},
-   * and then removes any files that were deleted.
+   * ({@link ResourceCache#get(ProjectRepo, String, String, Map, Map, Optional)},
+   * and then removes any files that were deleted. The attachments of a
+   * snapshot are fetched concurrently by the {@link AttachmentFetcher}.
+   *
+   * The latest version of the project is set after each commit, and each
+   * snapshot is dropped as soon as it has been committed.
    * @param repo The repository to commit to
    * @param snapshots The snapshots to commit
+   * @return The version ID of the last snapshot committed, if any
    * @throws IOException If an IOException occurred
    * @throws SizeLimitExceededException If one of the files was too big.
    */
-  private void makeCommitsFromSnapshots(ProjectRepo repo, Collection<Snapshot> snapshots)
+  private Optional<Integer> makeCommitsFromSnapshots(ProjectRepo repo, SnapshotStream snapshots)
       throws IOException, GitUserException {
     String name = repo.getProjectName();
     Optional<Long> maxSize = config.getRepoStore().flatMap(RepoStoreConfig::getMaxFileSize);
-    for (Snapshot snapshot : snapshots) {
+    Optional<Integer> committedVersionId = Optional.empty();
+    while (snapshots.hasNext()) {
+      Snapshot snapshot = snapshots.next();
       RawDirectory directory = repo.getDirectory();
       Map<String, RawFile> fileTable = directory.getFileTable();
       List<RawFile> files = new ArrayList<>();
@@ -644,66 +878,58 @@ public class Bridge {
           }
         }
       }
-      Map<String, byte[]> fetchedUrls = new HashMap<>();
-      for (SnapshotAttachment snapshotAttachment : snapshot.getAtts()) {
-        files.add(
-            resourceCache.get(
-                name,
-                snapshotAttachment.getUrl(),
-                snapshotAttachment.getPath(),
-                fileTable,
-                fetchedUrls,
-                maxSize));
-      }
+      Map<String, RawFile> fetchedUrls = new ConcurrentHashMap<>();
+      files.addAll(
+          attachmentFetcher.fetch(repo, snapshot.getAtts(), fileTable, fetchedUrls, maxSize));
       Log.debug("[{}] Committing version ID: {}", name, snapshot.getVersionID());
       Collection<String> missingFiles =
-          repo.commitAndGetMissing(
-              new GitDirectoryContents(files, repoStore.getRootDirectory(), name, snapshot));
+          repo.commitAndGetMissing(new GitDirectoryContents(files, snapshot));
       dbStore.deleteFilesForProject(name, missingFiles.toArray(new String[missingFiles.size()]));
+      dbStore.setLatestVersionForProject(name, snapshot.getVersionID());
+      committedVersionId = Optional.of(snapshot.getVersionID());
     }
+    return committedVersionId;
   }
 
   /*
    * Called by
-   * {@link #pushCritical(Optional, String, RawDirectory, RawDirectory)}.
-   *
-   * This call consists of 2 things: Creating the candidate snapshot,
-   * and writing the atts to the atts directory.
+   * {@link #pushCritical(Optional, String, RawTreeDiff)}.
    *
-   * The candidate snapshot RAIIs away those atts (use try-with-resources).
+   * Creates the candidate snapshot at the latest version we know of.
    * @param projectName The name of the project
-   * @param directoryContents The new directory contents
-   * @param oldDirectoryContents The old directory contents
+   * @param diff The pushed tree compared with the current one
    * @return The {@link CandidateSnapshot} created
-   * @throws IOException If an I/O exception occurred on writing
    */
-  private CandidateSnapshot createCandidateSnapshot(
-      String projectName, RawDirectory directoryContents, RawDirectory oldDirectoryContents)
-      throws IOException {
-    CandidateSnapshot candidateSnapshot =
-        new CandidateSnapshot(
-            projectName,
-            dbStore.getLatestVersionForProject(projectName),
-            directoryContents,
-            oldDirectoryContents);
-    candidateSnapshot.writeServletFiles(repoStore.getRootDirectory());
-    return candidateSnapshot;
+  private CandidateSnapshot createCandidateSnapshot(String projectName, RawTreeDiff diff) {
+    return new CandidateSnapshot(
+        projectName, dbStore.getLatestVersionForProject(projectName), diff);
   }
 
   /*
    * Called by
-   * {@link #pushCritical(Optional, String, RawDirectory, RawDirectory)}.
+   * {@link #pushCritical(Optional, String, RawTreeDiff)}.
    *
    * This method approves a push by setting the latest version and removing
-   * any deleted files from the db store (files were already added by the
-   * resources cache).
+   * any deleted files from the db store in one transaction (files were
+   * already added by the resources cache).
    * @param versionID
    * @param candidateSnapshot
    */
   private void approveSnapshot(int versionID, CandidateSnapshot candidateSnapshot) {
+    String projectName = candidateSnapshot.getProjectName();
     List<String> deleted = candidateSnapshot.getDeleted();
-    dbStore.setLatestVersionForProject(candidateSnapshot.getProjectName(), versionID);
-    dbStore.deleteFilesForProject(
-        candidateSnapshot.getProjectName(), deleted.toArray(new String[deleted.size()]));
+    try (UnitOfWork update = dbStore.beginUpdate(projectName)) {
+      dbStore.setLatestVersionForProject(projectName, versionID);
+      dbStore.deleteFilesForProject(projectName, deleted.toArray(new String[deleted.size()]));
+      update.commit();
+    }
+  }
+
+  /*
+   * Records the size of a project on disk, which the swap job uses to pick
+   * projects to evict, after its repo has grown.
+   */
+  private void updateDiskBytes(String projectName) {
+    dbStore.setDiskBytesForProject(projectName, repoStore.projectSize(projectName));
   }
 }
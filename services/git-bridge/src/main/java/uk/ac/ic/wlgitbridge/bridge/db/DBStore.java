@@ -1,7 +1,9 @@
 package uk.ac.ic.wlgitbridge.bridge.db;
 
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 
 /*
  * Created by winston on 20/08/2016.
@@ -18,12 +20,39 @@ public interface DBStore {
 
   void addURLIndexForProject(String projectName, String url, String path);
 
+  /*
+   * Adds url index entries for many files at once.
+   * @param pathsForUrls the path of each file, keyed by its url
+   */
+  void addURLIndexesForProject(String projectName, Map<String, String> pathsForUrls);
+
   void deleteFilesForProject(String project, String... files);
 
   String getPathForURLInProject(String projectName, String url);
 
   String getOldestUnswappedProject();
 
+  /*
+   * Returns the least recently accessed projects that are on disk, oldest
+   * first, apart from those held back after failing to swap.
+   * @param offset how many of them to skip
+   * @param limit the most projects to return
+   */
+  List<SwapCandidate> getSwapCandidates(int offset, int limit);
+
+  /*
+   * Holds the project back from swapping after a failed swap, for the given
+   * backoff, doubled for each failure in a row before this one. A successful
+   * swap clears the failures.
+   */
+  void recordSwapFailure(String projectName, Duration backoff);
+
+  /*
+   * Records the size of the project on disk, for the swap job to choose
+   * what to evict. Swapping the project sets it to 0.
+   */
+  void setDiskBytesForProject(String projectName, long diskBytes);
+
   void swap(String projectName, String compressionMethod);
 
   void restore(String projectName);
@@ -45,4 +74,26 @@ public interface DBStore {
    * Delete the metadata associated with the given project.
    */
   void deleteProject(String projectName);
+
+  /*
+   * Starts a unit of work for the given project. Until it is committed or
+   * closed, the project's url index and latest version updates are held
+   * back, and queries about the project see them as if they had been made.
+   *
+   * Only one unit of work may be open for a project at a time, which holding
+   * the project's lock ensures.
+   */
+  UnitOfWork beginUpdate(String projectName);
+
+  /*
+   * Writes out any updates that are buffered in memory, such as last
+   * accessed times.
+   */
+  void flush();
+
+  /*
+   * Writes out any buffered updates and stops the store's background work,
+   * on shutdown.
+   */
+  void stop();
 }
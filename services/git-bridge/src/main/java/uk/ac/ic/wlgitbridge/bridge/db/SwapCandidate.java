@@ -0,0 +1,35 @@
+package uk.ac.ic.wlgitbridge.bridge.db;
+
+/*
+ * A project on disk that the swap job may evict.
+ */
+public class SwapCandidate {
+
+  private final String projectName;
+  private final long diskBytes;
+  private final boolean restored;
+
+  public SwapCandidate(String projectName, long diskBytes, boolean restored) {
+    this.projectName = projectName;
+    this.diskBytes = diskBytes;
+    this.restored = restored;
+  }
+
+  public String getProjectName() {
+    return projectName;
+  }
+
+  /* The size of the project on disk when it was last measured, or 0 if it never was. */
+  public long getDiskBytes() {
+    return diskBytes;
+  }
+
+  /* Whether the project came back from the swap store, rather than being cloned here. */
+  public boolean wasRestored() {
+    return restored;
+  }
+
+  public SwapCandidate withDiskBytes(long diskBytes) {
+    return new SwapCandidate(projectName, diskBytes, restored);
+  }
+}
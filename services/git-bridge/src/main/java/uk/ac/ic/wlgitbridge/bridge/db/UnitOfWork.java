@@ -0,0 +1,22 @@
+package uk.ac.ic.wlgitbridge.bridge.db;
+
+/*
+ * The updates to a project's url index and latest version made between
+ * {@link DBStore#beginUpdate(String)} and {@link #commit()}, which are
+ * written out together in one transaction.
+ *
+ * Closing a unit of work that wasn't committed throws its updates away, so
+ * it is meant to be used in a try-with-resources block:
+ *
+ *   try (UnitOfWork update = dbStore.beginUpdate(projectName)) {
+ *     ...
+ *     update.commit();
+ *   }
+ */
+public interface UnitOfWork extends AutoCloseable {
+
+  void commit();
+
+  @Override
+  void close();
+}
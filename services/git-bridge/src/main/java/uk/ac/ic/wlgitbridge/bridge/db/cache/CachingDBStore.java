@@ -0,0 +1,380 @@
+package uk.ac.ic.wlgitbridge.bridge.db.cache;
+
+import com.google.common.base.Preconditions;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
+import uk.ac.ic.wlgitbridge.bridge.db.UnitOfWork;
+
+/*
+ * A {@link DBStore} that keeps the project rows and url indexes of recently
+ * used projects in memory, in front of another {@link DBStore}.
+ *
+ * This node is the only writer of the database, so nothing is expired:
+ * every write goes to the store and then to the cached project. A
+ * project's latest version and state, and the path of each url (or that it
+ * has none), are read from the store the first time they are asked for. A
+ * read that overlapped a write to the same project isn't kept, as it may
+ * have missed the write.
+ *
+ * At most {@code maxProjects} projects and {@code maxURLIndexEntries} urls
+ * are cached, and the least recently used projects are dropped to stay
+ * under both.
+ *
+ * The writes of a {@link UnitOfWork} are cached as they are made, so if it
+ * is closed without being committed, its project is dropped.
+ */
+public class CachingDBStore implements DBStore {
+
+  private static final Counter requests =
+      Counter.build()
+          .name("db_cache_requests_total")
+          .help("Lookups in the db store cache, by what was looked up and whether it was cached")
+          .labelNames("lookup", "result")
+          .register();
+  private static final Gauge cachedProjects =
+      Gauge.build().name("db_cache_projects").help("Projects in the db store cache").register();
+  private static final Gauge cachedURLIndexEntries =
+      Gauge.build()
+          .name("db_cache_url_index_entries")
+          .help("Url index entries in the db store cache")
+          .register();
+
+  private final DBStore store;
+  private final int maxProjects;
+  private final int maxURLIndexEntries;
+
+  /* Least recently used first. Guarded by this, as are the projects in it. */
+  private final LinkedHashMap<String, CachedProject> projects;
+  private int urlIndexEntries;
+
+  public CachingDBStore(DBStore store, int maxProjects, int maxURLIndexEntries) {
+    Preconditions.checkArgument(maxProjects > 0, "maxProjects must be positive: %s", maxProjects);
+    this.store = store;
+    this.maxProjects = maxProjects;
+    this.maxURLIndexEntries = maxURLIndexEntries;
+    projects = new LinkedHashMap<>(16, 0.75f, true);
+    urlIndexEntries = 0;
+  }
+
+  public static DBStore fromConfig(Optional<DBCacheConfig> config, DBStore store) {
+    int maxProjects =
+        config.map(DBCacheConfig::getMaxProjects).orElse(DBCacheConfig.DEFAULT_MAX_PROJECTS);
+    if (maxProjects <= 0) {
+      return store;
+    }
+    return new CachingDBStore(
+        store,
+        maxProjects,
+        config
+            .map(DBCacheConfig::getMaxURLIndexEntries)
+            .orElse(DBCacheConfig.DEFAULT_MAX_URL_INDEX_ENTRIES));
+  }
+
+  @Override
+  public int getNumProjects() {
+    return store.getNumProjects();
+  }
+
+  @Override
+  public List<String> getProjectNames() {
+    return store.getProjectNames();
+  }
+
+  @Override
+  public void setLatestVersionForProject(String project, int versionID) {
+    store.setLatestVersionForProject(project, versionID);
+    synchronized (this) {
+      CachedProject cached = getOrCreate(project);
+      cached.writes++;
+      cached.latestVersion = versionID;
+      cached.state = ProjectState.PRESENT;
+    }
+  }
+
+  @Override
+  public int getLatestVersionForProject(String project) {
+    return read(
+        project,
+        "latest_version",
+        cached -> Optional.ofNullable(cached.latestVersion),
+        () -> store.getLatestVersionForProject(project),
+        (cached, versionID) -> cached.latestVersion = versionID);
+  }
+
+  @Override
+  public void addURLIndexForProject(String projectName, String url, String path) {
+    store.addURLIndexForProject(projectName, url, path);
+    updateURLIndex(projectName, cached -> cached.addURLIndex(url, path));
+  }
+
+  @Override
+  public void addURLIndexesForProject(String projectName, Map<String, String> pathsForUrls) {
+    store.addURLIndexesForProject(projectName, pathsForUrls);
+    updateURLIndex(projectName, cached -> pathsForUrls.forEach(cached::addURLIndex));
+  }
+
+  @Override
+  public void deleteFilesForProject(String project, String... files) {
+    store.deleteFilesForProject(project, files);
+    updateURLIndex(project, cached -> cached.deleteFiles(files));
+  }
+
+  @Override
+  public String getPathForURLInProject(String projectName, String url) {
+    return read(
+            projectName,
+            "url_path",
+            cached -> Optional.ofNullable(cached.pathsForUrls.get(url)),
+            () -> Optional.ofNullable(store.getPathForURLInProject(projectName, url)),
+            (cached, path) -> cached.setPath(url, path))
+        .orElse(null);
+  }
+
+  @Override
+  public String getOldestUnswappedProject() {
+    return store.getOldestUnswappedProject();
+  }
+
+  @Override
+  public List<SwapCandidate> getSwapCandidates(int offset, int limit) {
+    return store.getSwapCandidates(offset, limit);
+  }
+
+  @Override
+  public void recordSwapFailure(String projectName, Duration backoff) {
+    store.recordSwapFailure(projectName, backoff);
+  }
+
+  @Override
+  public void setDiskBytesForProject(String projectName, long diskBytes) {
+    store.setDiskBytesForProject(projectName, diskBytes);
+  }
+
+  @Override
+  public void swap(String projectName, String compressionMethod) {
+    store.swap(projectName, compressionMethod);
+    updateState(projectName, ProjectState.SWAPPED);
+  }
+
+  @Override
+  public void restore(String projectName) {
+    store.restore(projectName);
+    updateState(projectName, ProjectState.PRESENT);
+  }
+
+  @Override
+  public String getSwapCompression(String projectName) {
+    return store.getSwapCompression(projectName);
+  }
+
+  @Override
+  public int getNumUnswappedProjects() {
+    return store.getNumUnswappedProjects();
+  }
+
+  @Override
+  public ProjectState getProjectState(String projectName) {
+    return read(
+        projectName,
+        "project_state",
+        cached -> Optional.ofNullable(cached.state),
+        () -> store.getProjectState(projectName),
+        (cached, state) -> cached.state = state);
+  }
+
+  @Override
+  public void setLastAccessedTime(String projectName, Timestamp time) {
+    store.setLastAccessedTime(projectName, time);
+    updateState(projectName, time == null ? ProjectState.SWAPPED : ProjectState.PRESENT);
+  }
+
+  @Override
+  public void deleteProject(String projectName) {
+    store.deleteProject(projectName);
+    drop(projectName);
+  }
+
+  @Override
+  public UnitOfWork beginUpdate(String projectName) {
+    UnitOfWork update = store.beginUpdate(projectName);
+    return new UnitOfWork() {
+      private boolean committed = false;
+
+      @Override
+      public void commit() {
+        update.commit();
+        committed = true;
+      }
+
+      @Override
+      public void close() {
+        try {
+          update.close();
+        } finally {
+          if (!committed) {
+            drop(projectName);
+          }
+        }
+      }
+    };
+  }
+
+  @Override
+  public void flush() {
+    store.flush();
+  }
+
+  @Override
+  public void stop() {
+    store.stop();
+  }
+
+  /*
+   * Returns the cached value if there is one. Otherwise, loads it from the
+   * store, and caches it unless the project was written to or dropped in the
+   * meantime.
+   */
+  private <T> T read(
+      String projectName,
+      String lookup,
+      Function<CachedProject, Optional<T>> getCached,
+      Supplier<T> load,
+      BiConsumer<CachedProject, T> setCached) {
+    CachedProject cached;
+    long writes;
+    synchronized (this) {
+      cached = getOrCreate(projectName);
+      Optional<T> value = getCached.apply(cached);
+      if (value.isPresent()) {
+        requests.labels(lookup, "hit").inc();
+        return value.get();
+      }
+      writes = cached.writes;
+    }
+    requests.labels(lookup, "miss").inc();
+    T value = load.get();
+    synchronized (this) {
+      if (projects.get(projectName) == cached && cached.writes == writes) {
+        int urls = cached.pathsForUrls.size();
+        setCached.accept(cached, value);
+        urlIndexEntries += cached.pathsForUrls.size() - urls;
+        evict();
+      }
+    }
+    return value;
+  }
+
+  /*
+   * Swapping, restoring and setting the last accessed time only change the
+   * state of a project that is in the store.
+   */
+  private synchronized void updateState(String projectName, ProjectState state) {
+    CachedProject cached = projects.get(projectName);
+    if (cached == null) {
+      return;
+    }
+    cached.writes++;
+    if (cached.state != null && cached.state != ProjectState.NOT_PRESENT) {
+      cached.state = state;
+    }
+  }
+
+  /* Url index writes only change the urls that are cached. */
+  private synchronized void updateURLIndex(String projectName, Consumer<CachedProject> update) {
+    CachedProject cached = projects.get(projectName);
+    if (cached == null) {
+      return;
+    }
+    cached.writes++;
+    int urls = cached.pathsForUrls.size();
+    update.accept(cached);
+    urlIndexEntries += cached.pathsForUrls.size() - urls;
+    evict();
+  }
+
+  private synchronized void drop(String projectName) {
+    CachedProject cached = projects.remove(projectName);
+    if (cached != null) {
+      urlIndexEntries -= cached.pathsForUrls.size();
+      updateGauges();
+    }
+  }
+
+  private CachedProject getOrCreate(String projectName) {
+    CachedProject cached = projects.get(projectName);
+    if (cached == null) {
+      cached = new CachedProject();
+      projects.put(projectName, cached);
+      evict();
+    }
+    return cached;
+  }
+
+  private void evict() {
+    Iterator<CachedProject> it = projects.values().iterator();
+    while ((projects.size() > maxProjects || urlIndexEntries > maxURLIndexEntries)
+        && it.hasNext()) {
+      urlIndexEntries -= it.next().pathsForUrls.size();
+      it.remove();
+    }
+    updateGauges();
+  }
+
+  private void updateGauges() {
+    cachedProjects.set(projects.size());
+    cachedURLIndexEntries.set(urlIndexEntries);
+  }
+
+  /* Whatever is null or missing here hasn't been read from the store yet. */
+  private static class CachedProject {
+
+    private Integer latestVersion;
+    private ProjectState state;
+
+    /* The path of each url, or empty if the url isn't in the url index. */
+    private final Map<String, Optional<String>> pathsForUrls = new HashMap<>();
+    private final Map<String, String> urlsForPaths = new HashMap<>();
+
+    /* Counts the writes to the project, so that reads can tell they overlapped one. */
+    private long writes = 0;
+
+    void setPath(String url, Optional<String> path) {
+      pathsForUrls.put(url, path);
+      path.ifPresent(p -> urlsForPaths.put(p, url));
+    }
+
+    /* Paths are unique in the url index, so this takes the path from any other url. */
+    void addURLIndex(String url, String path) {
+      deleteFiles(path);
+      Optional<String> oldPath = pathsForUrls.put(url, Optional.of(path));
+      if (oldPath != null) {
+        oldPath.ifPresent(urlsForPaths::remove);
+      }
+      urlsForPaths.put(path, url);
+    }
+
+    void deleteFiles(String... paths) {
+      for (String path : paths) {
+        String url = urlsForPaths.remove(path);
+        if (url != null) {
+          pathsForUrls.put(url, Optional.empty());
+        }
+      }
+    }
+  }
+}
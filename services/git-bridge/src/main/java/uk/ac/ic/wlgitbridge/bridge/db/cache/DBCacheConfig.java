@@ -0,0 +1,31 @@
+package uk.ac.ic.wlgitbridge.bridge.db.cache;
+
+import javax.annotation.Nullable;
+
+/*
+ * Settings for the in-memory cache in front of the db store.
+ */
+public class DBCacheConfig {
+
+  public static final int DEFAULT_MAX_PROJECTS = 10000;
+  public static final int DEFAULT_MAX_URL_INDEX_ENTRIES = 100000;
+
+  /* Projects whose rows and url indexes are cached. 0 disables the cache. */
+  @Nullable private final Integer maxProjects;
+
+  /* Url index entries cached across all projects. */
+  @Nullable private final Integer maxURLIndexEntries;
+
+  public DBCacheConfig(Integer maxProjects, Integer maxURLIndexEntries) {
+    this.maxProjects = maxProjects;
+    this.maxURLIndexEntries = maxURLIndexEntries;
+  }
+
+  public int getMaxProjects() {
+    return maxProjects == null ? DEFAULT_MAX_PROJECTS : maxProjects;
+  }
+
+  public int getMaxURLIndexEntries() {
+    return maxURLIndexEntries == null ? DEFAULT_MAX_URL_INDEX_ENTRIES : maxURLIndexEntries;
+  }
+}
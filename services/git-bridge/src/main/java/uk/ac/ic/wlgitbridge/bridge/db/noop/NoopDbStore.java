@@ -1,9 +1,14 @@
 package uk.ac.ic.wlgitbridge.bridge.db.noop;
 
 import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
+import uk.ac.ic.wlgitbridge.bridge.db.UnitOfWork;
 
 public class NoopDbStore implements DBStore {
 
@@ -28,6 +33,9 @@ public class NoopDbStore implements DBStore {
   @Override
   public void addURLIndexForProject(String projectName, String url, String path) {}
 
+  @Override
+  public void addURLIndexesForProject(String projectName, Map<String, String> pathsForUrls) {}
+
   @Override
   public void deleteFilesForProject(String project, String... files) {}
 
@@ -41,6 +49,17 @@ public class NoopDbStore implements DBStore {
     return null;
   }
 
+  @Override
+  public List<SwapCandidate> getSwapCandidates(int offset, int limit) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public void recordSwapFailure(String projectName, Duration backoff) {}
+
+  @Override
+  public void setDiskBytesForProject(String projectName, long diskBytes) {}
+
   @Override
   public int getNumUnswappedProjects() {
     return 0;
@@ -67,4 +86,21 @@ public class NoopDbStore implements DBStore {
 
   @Override
   public void deleteProject(String projectName) {}
+
+  @Override
+  public UnitOfWork beginUpdate(String projectName) {
+    return new UnitOfWork() {
+      @Override
+      public void commit() {}
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  @Override
+  public void flush() {}
+
+  @Override
+  public void stop() {}
 }
@@ -8,6 +8,12 @@ import java.sql.SQLException;
  */
 public interface SQLUpdate {
 
+  /*
+   * The most ? parameters a statement may have in SQLite versions before
+   * 3.32. Updates with a parameter per row are split to stay under it.
+   */
+  int MAX_PARAMETERS = 999;
+
   String getSQL();
 
   default void addParametersToStatement(PreparedStatement statement) throws SQLException {}
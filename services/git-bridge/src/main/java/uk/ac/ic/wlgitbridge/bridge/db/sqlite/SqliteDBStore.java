@@ -3,37 +3,136 @@ package uk.ac.ic.wlgitbridge.bridge.db.sqlite;
 import com.google.common.base.Preconditions;
 import java.io.File;
 import java.sql.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.sqlite.SQLiteConfig;
 import uk.ac.ic.wlgitbridge.bridge.db.DBInitException;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
+import uk.ac.ic.wlgitbridge.bridge.db.UnitOfWork;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.query.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.create.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.delete.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert.*;
+import uk.ac.ic.wlgitbridge.util.Log;
 
 /*
  * Created by Winston on 17/11/14.
+ *
+ * The database is in WAL mode, with a single connection for all updates and
+ * a small pool of read-only connections for queries, so that queries don't
+ * wait for each other or for updates. Each connection keeps the statements
+ * it has prepared (see {@link StatementCache}).
+ *
+ * Last accessed times are set on every clone, fetch and push, but only
+ * matter to the swap job. Unless the flush interval is 0, they are kept in
+ * memory, where repeated updates to a project collapse into one, and
+ * written out together in one transaction every interval, on
+ * {@link #flush()}, and before the oldest project is looked up. Swapping,
+ * restoring or deleting a project drops its pending time, as they set
+ * last_accessed themselves.
+ *
+ * The updates made in a {@link UnitOfWork} are kept in memory, in a form
+ * that queries about the project can be answered from, and written out in
+ * one transaction on commit. Updates with a row per file are split into
+ * statements that stay under SQLite's parameter limit.
  */
 public class SqliteDBStore implements DBStore {
 
-  private final Connection connection;
+  public static final int DEFAULT_READER_CONNECTIONS = 4;
+  public static final int DEFAULT_LAST_ACCESSED_FLUSH_INTERVAL_SECONDS = 60;
+
+  /*
+   * Guarded by writeLock rather than a monitor, as a virtual thread blocked in
+   * SQLite while holding a monitor would pin its carrier thread.
+   */
+  private final StatementCache writer;
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final BlockingQueue<StatementCache> readers;
   private int heapLimitBytes = 0;
+  private final int cacheSizeKib;
+  private final long mmapSizeBytes;
+  private final Map<String, Timestamp> pendingLastAccessed;
+  private final boolean bufferLastAccessed;
+  private final Map<String, PendingUpdate> openUpdates;
+  private final Optional<ScheduledExecutorService> flusher;
 
   public SqliteDBStore(File dbFile) {
     this(dbFile, 0);
   }
 
   public SqliteDBStore(File dbFile, int heapLimitBytes) {
+    this(dbFile, heapLimitBytes, 0, 0, DEFAULT_READER_CONNECTIONS, 0);
+  }
+
+  /*
+   * @param cacheSizeKib the page cache size of each connection, or 0 for the
+   * SQLite default
+   * @param mmapSizeBytes how much of the database each connection may map
+   * into memory, or 0 for the SQLite default
+   * @param lastAccessedFlushIntervalMs how often buffered last accessed times
+   * are written out, or 0 to write them straight away
+   */
+  public SqliteDBStore(
+      File dbFile,
+      int heapLimitBytes,
+      int cacheSizeKib,
+      long mmapSizeBytes,
+      int readerConnections,
+      long lastAccessedFlushIntervalMs) {
+    Preconditions.checkArgument(
+        readerConnections > 0, "readerConnections must be positive: %s", readerConnections);
     this.heapLimitBytes = heapLimitBytes;
+    this.cacheSizeKib = cacheSizeKib;
+    this.mmapSizeBytes = mmapSizeBytes;
+    pendingLastAccessed = new ConcurrentHashMap<>();
+    bufferLastAccessed = lastAccessedFlushIntervalMs > 0;
+    openUpdates = new ConcurrentHashMap<>();
     try {
-      connection = openConnectionTo(dbFile);
+      writer = new StatementCache(openConnectionTo(dbFile, false));
       createTables();
+      readers = new ArrayBlockingQueue<>(readerConnections);
+      for (int i = 0; i < readerConnections; i++) {
+        readers.add(new StatementCache(openConnectionTo(dbFile, true)));
+      }
     } catch (Throwable t) {
       throw new DBInitException(t);
     }
+    if (bufferLastAccessed) {
+      ScheduledExecutorService flusher =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread t = new Thread(r, "last-accessed-flusher");
+                t.setDaemon(true);
+                return t;
+              });
+      flusher.scheduleWithFixedDelay(
+          this::flushQuietly,
+          lastAccessedFlushIntervalMs,
+          lastAccessedFlushIntervalMs,
+          TimeUnit.MILLISECONDS);
+      this.flusher = Optional.of(flusher);
+    } else {
+      this.flusher = Optional.empty();
+    }
   }
 
   @Override
@@ -48,34 +147,86 @@ public class SqliteDBStore implements DBStore {
 
   @Override
   public void setLatestVersionForProject(String projectName, int versionID) {
+    PendingUpdate pending = openUpdates.get(projectName);
+    if (pending != null) {
+      pending.setLatestVersion(versionID);
+      return;
+    }
     update(new SetProjectSQLUpdate(projectName, versionID));
   }
 
   @Override
   public int getLatestVersionForProject(String projectName) {
+    PendingUpdate pending = openUpdates.get(projectName);
+    Integer latestVersion = pending == null ? null : pending.getLatestVersion();
+    if (latestVersion != null) {
+      return latestVersion;
+    }
     return query(new GetLatestVersionForProjectSQLQuery(projectName));
   }
 
   @Override
   public void addURLIndexForProject(String projectName, String url, String path) {
+    PendingUpdate pending = openUpdates.get(projectName);
+    if (pending != null) {
+      pending.addURLIndex(url, path);
+      return;
+    }
     update(new AddURLIndexSQLUpdate(projectName, url, path));
   }
 
+  @Override
+  public void addURLIndexesForProject(String projectName, Map<String, String> pathsForUrls) {
+    PendingUpdate pending = openUpdates.get(projectName);
+    if (pending != null) {
+      pathsForUrls.forEach(pending::addURLIndex);
+      return;
+    }
+    transaction(AddURLIndexesSQLUpdate.chunked(projectName, pathsForUrls));
+  }
+
   @Override
   public void deleteFilesForProject(String projectName, String... paths) {
-    update(new DeleteFilesForProjectSQLUpdate(projectName, paths));
+    PendingUpdate pending = openUpdates.get(projectName);
+    if (pending != null) {
+      pending.deleteFiles(paths);
+      return;
+    }
+    transaction(DeleteFilesForProjectSQLUpdate.chunked(projectName, paths));
   }
 
   @Override
   public String getPathForURLInProject(String projectName, String url) {
-    return query(new GetPathForURLInProjectSQLQuery(projectName, url));
+    PendingUpdate pending = openUpdates.get(projectName);
+    if (pending != null && pending.hasURL(url)) {
+      return pending.getPathForURL(url, null);
+    }
+    String path = query(new GetPathForURLInProjectSQLQuery(projectName, url));
+    return pending == null ? path : pending.getPathForURL(url, path);
   }
 
   @Override
   public String getOldestUnswappedProject() {
+    flush();
     return query(new GetOldestProjectName());
   }
 
+  @Override
+  public List<SwapCandidate> getSwapCandidates(int offset, int limit) {
+    flush();
+    return query(new GetSwapCandidates(System.currentTimeMillis(), offset, limit));
+  }
+
+  @Override
+  public void recordSwapFailure(String projectName, Duration backoff) {
+    update(new UpdateSwapFailure(projectName, System.currentTimeMillis(), backoff.toMillis()));
+  }
+
+  @Override
+  public void setDiskBytesForProject(String projectName, long diskBytes) {
+    update(new UpdateDiskBytes(projectName, diskBytes));
+  }
+
   @Override
   public int getNumUnswappedProjects() {
     return query(new GetNumUnswappedProjects());
@@ -88,17 +239,39 @@ public class SqliteDBStore implements DBStore {
 
   @Override
   public void setLastAccessedTime(String projectName, Timestamp lastAccessed) {
-    update(new SetProjectLastAccessedTime(projectName, lastAccessed));
+    if (bufferLastAccessed && lastAccessed != null) {
+      pendingLastAccessed.put(projectName, lastAccessed);
+      return;
+    }
+    writeLock.lock();
+    try {
+      pendingLastAccessed.remove(projectName);
+      update(new SetProjectLastAccessedTime(projectName, lastAccessed));
+    } finally {
+      writeLock.unlock();
+    }
   }
 
   @Override
   public void swap(String projectName, String compressionMethod) {
-    update(new UpdateSwap(projectName, compressionMethod));
+    writeLock.lock();
+    try {
+      pendingLastAccessed.remove(projectName);
+      update(new UpdateSwap(projectName, compressionMethod));
+    } finally {
+      writeLock.unlock();
+    }
   }
 
   @Override
   public void restore(String projectName) {
-    update(new UpdateRestore(projectName));
+    writeLock.lock();
+    try {
+      pendingLastAccessed.remove(projectName);
+      update(new UpdateRestore(projectName));
+    } finally {
+      writeLock.unlock();
+    }
   }
 
   @Override
@@ -108,11 +281,71 @@ public class SqliteDBStore implements DBStore {
 
   @Override
   public void deleteProject(String projectName) {
-    update(new DeleteAllFilesInProjectSQLUpdate(projectName));
-    update(new DeleteProjectSQLUpdate(projectName));
+    writeLock.lock();
+    try {
+      pendingLastAccessed.remove(projectName);
+      update(new DeleteAllFilesInProjectSQLUpdate(projectName));
+      update(new DeleteProjectSQLUpdate(projectName));
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public UnitOfWork beginUpdate(String projectName) {
+    PendingUpdate update = new PendingUpdate(projectName);
+    Preconditions.checkState(
+        openUpdates.putIfAbsent(projectName, update) == null,
+        "project %s already has a unit of work open",
+        projectName);
+    return update;
+  }
+
+  @Override
+  public void flush() {
+    writeLock.lock();
+    try {
+      if (pendingLastAccessed.isEmpty()) {
+        return;
+      }
+      Map<String, Timestamp> flushed = new HashMap<>(pendingLastAccessed);
+      try {
+        doTransaction(
+            flushed.entrySet().stream()
+                .map(e -> new SetProjectLastAccessedTime(e.getKey(), e.getValue()))
+                .collect(Collectors.toList()));
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+      /* Keep any times that were set again while flushing */
+      flushed.forEach((k, v) -> pendingLastAccessed.remove(k, v));
+    } finally {
+      writeLock.unlock();
+    }
   }
 
-  private Connection openConnectionTo(File dbFile) {
+  @Override
+  public void stop() {
+    if (flusher.isPresent()) {
+      flusher.get().shutdown();
+      try {
+        flusher.get().awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flush();
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      Log.warn("Failed to flush last accessed times", e);
+    }
+  }
+
+  private Connection openConnectionTo(File dbFile, boolean readOnly) {
     File parentDir = dbFile.getParentFile();
     if (!parentDir.exists() && !parentDir.mkdirs()) {
       throw new DBInitException(
@@ -126,12 +359,35 @@ public class SqliteDBStore implements DBStore {
       throw new DBInitException(e);
     }
     try {
-      return DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+      SQLiteConfig config = new SQLiteConfig();
+      config.setReadOnly(readOnly);
+      Connection connection =
+          DriverManager.getConnection(
+              "jdbc:sqlite:" + dbFile.getAbsolutePath(), config.toProperties());
+      if (cacheSizeKib > 0) {
+        pragma(connection, new SetCacheSizePragma(cacheSizeKib));
+      }
+      if (mmapSizeBytes > 0) {
+        pragma(connection, new SetMmapSizePragma(mmapSizeBytes));
+      }
+      return connection;
     } catch (SQLException e) {
       throw new DBInitException("Unable to connect to DB", e);
     }
   }
 
+  /*
+   * Pragmas that return their new value can't be run as updates. A pragma
+   * that fails only costs performance, so this just logs.
+   */
+  private static void pragma(Connection connection, SQLUpdate pragma) {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(pragma.getSQL());
+    } catch (SQLException e) {
+      Log.warn("Failed to run " + pragma.getSQL(), e);
+    }
+  }
+
   private void createTables() {
     /* Migrations */
     /* We need to eat exceptions from here */
@@ -139,6 +395,7 @@ public class SqliteDBStore implements DBStore {
       doUpdate(new SetSoftHeapLimitPragma(this.heapLimitBytes));
     } catch (SQLException ignore) {
     }
+    pragma(writer.getConnection(), new SetJournalModeWalPragma());
     try {
       doUpdate(new ProjectsAddLastAccessed());
     } catch (SQLException ignore) {
@@ -155,6 +412,18 @@ public class SqliteDBStore implements DBStore {
       doUpdate(new ProjectsAddSwapCompression());
     } catch (SQLException ignore) {
     }
+    try {
+      doUpdate(new ProjectsAddSwapFailures());
+    } catch (SQLException ignore) {
+    }
+    try {
+      doUpdate(new ProjectsAddSwapRetryAfter());
+    } catch (SQLException ignore) {
+    }
+    try {
+      doUpdate(new ProjectsAddDiskBytes());
+    } catch (SQLException ignore) {
+    }
 
     /* Create tables (if they don't exist) */
     Stream.of(
@@ -166,10 +435,13 @@ public class SqliteDBStore implements DBStore {
 
     /* In the case of needing to change the schema, we need to check that
     migrations didn't just fail */
-    Preconditions.checkState(query(new LastAccessedColumnExists()));
-    Preconditions.checkState(query(new SwapTimeColumnExists()));
-    Preconditions.checkState(query(new RestoreTimeColumnExists()));
-    Preconditions.checkState(query(new SwapCompressionColumnExists()));
+    Preconditions.checkState(queryWriter(new LastAccessedColumnExists()));
+    Preconditions.checkState(queryWriter(new SwapTimeColumnExists()));
+    Preconditions.checkState(queryWriter(new RestoreTimeColumnExists()));
+    Preconditions.checkState(queryWriter(new SwapCompressionColumnExists()));
+    Preconditions.checkState(queryWriter(new SwapFailuresColumnExists()));
+    Preconditions.checkState(queryWriter(new SwapRetryAfterColumnExists()));
+    Preconditions.checkState(queryWriter(new DiskBytesColumnExists()));
   }
 
   private void update(SQLUpdate update) {
@@ -180,48 +452,196 @@ public class SqliteDBStore implements DBStore {
     }
   }
 
+  private void transaction(List<? extends SQLUpdate> updates) {
+    try {
+      doTransaction(updates);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   private <T> T query(SQLQuery<T> query) {
+    StatementCache reader;
     try {
-      return doQuery(query);
+      reader = readers.take();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    try {
+      return doQuery(reader, query);
     } catch (SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      readers.add(reader);
+    }
+  }
+
+  /* For queries made before the readers are open. */
+  private <T> T queryWriter(SQLQuery<T> query) {
+    writeLock.lock();
+    try {
+      try {
+        return doQuery(writer, query);
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+    } finally {
+      writeLock.unlock();
     }
   }
 
   private void doUpdate(SQLUpdate update) throws SQLException {
-    PreparedStatement statement = null;
+    writeLock.lock();
     try {
-      statement = connection.prepareStatement(update.getSQL());
+      PreparedStatement statement = writer.prepare(update.getSQL());
       update.addParametersToStatement(statement);
       statement.executeUpdate();
-    } catch (SQLException e) {
-      throw e;
     } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /*
+   * Runs the updates in order, in one transaction. Consecutive updates that
+   * share their SQL are sent as one batch.
+   */
+  private void doTransaction(List<? extends SQLUpdate> updates) throws SQLException {
+    if (updates.isEmpty()) {
+      return;
+    }
+    writeLock.lock();
+    try {
+      Connection connection = writer.getConnection();
+      connection.setAutoCommit(false);
       try {
-        statement.close();
-      } catch (Throwable t) {
-        throw new SQLException(t);
+        String sql = null;
+        PreparedStatement statement = null;
+        for (SQLUpdate update : updates) {
+          if (!update.getSQL().equals(sql)) {
+            if (statement != null) {
+              statement.executeBatch();
+            }
+            sql = update.getSQL();
+            statement = writer.prepare(sql);
+          }
+          update.addParametersToStatement(statement);
+          statement.addBatch();
+        }
+        statement.executeBatch();
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
       }
+    } finally {
+      writeLock.unlock();
     }
   }
 
-  private <T> T doQuery(SQLQuery<T> query) throws SQLException {
-    PreparedStatement statement = null;
-    ResultSet results = null;
-    try {
-      statement = connection.prepareStatement(query.getSQL());
-      query.addParametersToStatement(statement);
-      results = statement.executeQuery();
+  private static <T> T doQuery(StatementCache connection, SQLQuery<T> query) throws SQLException {
+    PreparedStatement statement = connection.prepare(query.getSQL());
+    query.addParametersToStatement(statement);
+    try (ResultSet results = statement.executeQuery()) {
       return query.processResultSet(results);
-    } catch (SQLException e) {
-      throw e;
-    } finally {
-      if (statement != null) {
-        statement.close();
+    }
+  }
+
+  /*
+   * A unit of work's updates, as they would leave the url index. A file
+   * whose path was deleted or given to another url no longer has the url it
+   * has in the database.
+   */
+  private class PendingUpdate implements UnitOfWork {
+
+    private final String projectName;
+
+    /* Guarded by this. */
+    private Integer latestVersion;
+    private final Map<String, String> pathsForUrls;
+    private final Map<String, String> urlsForPaths;
+    private final Set<String> deletedPaths;
+
+    PendingUpdate(String projectName) {
+      this.projectName = projectName;
+      latestVersion = null;
+      pathsForUrls = new LinkedHashMap<>();
+      urlsForPaths = new HashMap<>();
+      deletedPaths = new LinkedHashSet<>();
+    }
+
+    synchronized void setLatestVersion(int versionID) {
+      latestVersion = versionID;
+    }
+
+    synchronized Integer getLatestVersion() {
+      return latestVersion;
+    }
+
+    /* Paths are unique in the url index, so this replaces the path's old url. */
+    synchronized void addURLIndex(String url, String path) {
+      String oldPath = pathsForUrls.put(url, path);
+      if (oldPath != null) {
+        urlsForPaths.remove(oldPath);
+      }
+      String oldUrl = urlsForPaths.put(path, url);
+      if (oldUrl != null && !oldUrl.equals(url)) {
+        pathsForUrls.remove(oldUrl);
       }
-      if (results != null) {
-        results.close();
+    }
+
+    synchronized void deleteFiles(String... paths) {
+      for (String path : paths) {
+        String url = urlsForPaths.remove(path);
+        if (url != null) {
+          pathsForUrls.remove(url);
+        }
+        deletedPaths.add(path);
       }
     }
+
+    synchronized boolean hasURL(String url) {
+      return pathsForUrls.containsKey(url);
+    }
+
+    /* @param storedPath the url's path in the database, or null */
+    synchronized String getPathForURL(String url, String storedPath) {
+      String path = pathsForUrls.get(url);
+      if (path != null) {
+        return path;
+      }
+      if (storedPath == null
+          || deletedPaths.contains(storedPath)
+          || urlsForPaths.containsKey(storedPath)) {
+        return null;
+      }
+      return storedPath;
+    }
+
+    /*
+     * The deletes go before the inserts, as a path that was deleted and then
+     * added again must end up in the url index.
+     */
+    @Override
+    public void commit() {
+      List<SQLUpdate> updates = new ArrayList<>();
+      synchronized (this) {
+        if (latestVersion != null) {
+          updates.add(new SetProjectSQLUpdate(projectName, latestVersion));
+        }
+        updates.addAll(
+            DeleteFilesForProjectSQLUpdate.chunked(
+                projectName, deletedPaths.toArray(new String[deletedPaths.size()])));
+        updates.addAll(AddURLIndexesSQLUpdate.chunked(projectName, pathsForUrls));
+      }
+      transaction(updates);
+      openUpdates.remove(projectName, this);
+    }
+
+    @Override
+    public void close() {
+      openUpdates.remove(projectName, this);
+    }
   }
 }
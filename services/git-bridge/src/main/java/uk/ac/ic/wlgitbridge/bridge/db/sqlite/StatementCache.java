@@ -0,0 +1,59 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import uk.ac.ic.wlgitbridge.util.Log;
+
+/*
+ * A connection together with the statements prepared on it, so that the SQL
+ * of each {@link SQLQuery} and {@link SQLUpdate} is only compiled once. The
+ * {@link #MAX_STATEMENTS} most recently used statements are kept; statements
+ * whose SQL depends on their arguments are evicted as they go out of use.
+ *
+ * Not thread-safe: only one thread may use it at a time.
+ */
+class StatementCache {
+
+  private static final int MAX_STATEMENTS = 64;
+
+  private final Connection connection;
+  private final LinkedHashMap<String, PreparedStatement> statements;
+
+  StatementCache(Connection connection) {
+    this.connection = connection;
+    statements =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= MAX_STATEMENTS) {
+              return false;
+            }
+            try {
+              eldest.getValue().close();
+            } catch (SQLException e) {
+              Log.warn("Failed to close statement", e);
+            }
+            return true;
+          }
+        };
+  }
+
+  Connection getConnection() {
+    return connection;
+  }
+
+  /* Returns the statement for the SQL, with its parameters cleared. */
+  PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement statement = statements.get(sql);
+    if (statement == null) {
+      statement = connection.prepareStatement(sql);
+      statements.put(sql, statement);
+    } else {
+      statement.clearParameters();
+    }
+    return statement;
+  }
+}
@@ -10,9 +10,11 @@ import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
 public class GetOldestProjectName implements SQLQuery<String> {
 
   private static final String GET_OLDEST_PROJECT_NAME =
-      "SELECT `name`, MIN(`last_accessed`)\n"
-          + "    FROM `projects` \n"
-          + "    WHERE `last_accessed` IS NOT NULL;";
+      "SELECT `name`\n"
+          + "    FROM `projects`\n"
+          + "    WHERE `last_accessed` IS NOT NULL\n"
+          + "    ORDER BY `last_accessed`\n"
+          + "    LIMIT 1;";
 
   @Override
   public String getSQL() {
@@ -0,0 +1,60 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+/*
+ * The least recently accessed projects on disk, oldest first, leaving out
+ * those that failed to swap until their retry time. The order comes from
+ * the last_accessed index.
+ */
+public class GetSwapCandidates implements SQLQuery<List<SwapCandidate>> {
+
+  private static final String GET_SWAP_CANDIDATES =
+      "SELECT `name`, `disk_bytes`, `restore_time` IS NOT NULL AS `restored`\n"
+          + "    FROM `projects`\n"
+          + "    WHERE `last_accessed` IS NOT NULL\n"
+          + "    AND (`swap_retry_after` IS NULL OR `swap_retry_after` <= ?)\n"
+          + "    ORDER BY `last_accessed`\n"
+          + "    LIMIT ? OFFSET ?";
+
+  private final long nowMillis;
+  private final int offset;
+  private final int limit;
+
+  public GetSwapCandidates(long nowMillis, int offset, int limit) {
+    this.nowMillis = nowMillis;
+    this.offset = offset;
+    this.limit = limit;
+  }
+
+  @Override
+  public String getSQL() {
+    return GET_SWAP_CANDIDATES;
+  }
+
+  @Override
+  public List<SwapCandidate> processResultSet(ResultSet resultSet) throws SQLException {
+    List<SwapCandidate> candidates = new ArrayList<>();
+    while (resultSet.next()) {
+      candidates.add(
+          new SwapCandidate(
+              resultSet.getString("name"),
+              resultSet.getLong("disk_bytes"),
+              resultSet.getBoolean("restored")));
+    }
+    return candidates;
+  }
+
+  @Override
+  public void addParametersToStatement(PreparedStatement statement) throws SQLException {
+    statement.setLong(1, nowMillis);
+    statement.setInt(2, limit);
+    statement.setInt(3, offset);
+  }
+}
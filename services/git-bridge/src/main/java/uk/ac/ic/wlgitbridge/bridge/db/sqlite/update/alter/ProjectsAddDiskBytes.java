@@ -0,0 +1,13 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class ProjectsAddDiskBytes implements SQLUpdate {
+  private static final String PROJECTS_ADD_DISK_BYTES =
+      "ALTER TABLE `projects`\n" + "ADD COLUMN `disk_bytes` INTEGER NOT NULL DEFAULT 0;\n";
+
+  @Override
+  public String getSQL() {
+    return PROJECTS_ADD_DISK_BYTES;
+  }
+}
@@ -0,0 +1,13 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class ProjectsAddSwapFailures implements SQLUpdate {
+  private static final String PROJECTS_ADD_SWAP_FAILURES =
+      "ALTER TABLE `projects`\n" + "ADD COLUMN `swap_failures` INT NOT NULL DEFAULT 0;\n";
+
+  @Override
+  public String getSQL() {
+    return PROJECTS_ADD_SWAP_FAILURES;
+  }
+}
@@ -0,0 +1,13 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class ProjectsAddSwapRetryAfter implements SQLUpdate {
+  private static final String PROJECTS_ADD_SWAP_RETRY_AFTER =
+      "ALTER TABLE `projects`\n" + "ADD COLUMN `swap_retry_after` INTEGER NULL;\n";
+
+  @Override
+  public String getSQL() {
+    return PROJECTS_ADD_SWAP_RETRY_AFTER;
+  }
+}
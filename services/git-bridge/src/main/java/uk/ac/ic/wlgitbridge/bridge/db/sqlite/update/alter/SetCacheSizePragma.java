@@ -0,0 +1,17 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class SetCacheSizePragma implements SQLUpdate {
+  private final int cacheSizeKib;
+
+  public SetCacheSizePragma(int cacheSizeKib) {
+    this.cacheSizeKib = cacheSizeKib;
+  }
+
+  /* A negative cache_size is a size in KiB rather than a number of pages. */
+  @Override
+  public String getSQL() {
+    return "PRAGMA cache_size=-" + this.cacheSizeKib + ";";
+  }
+}
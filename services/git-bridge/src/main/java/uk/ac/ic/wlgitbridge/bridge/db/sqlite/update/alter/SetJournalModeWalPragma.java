@@ -0,0 +1,16 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+/*
+ * Write-ahead logging lets the reader connections run alongside the writer.
+ * The mode is stored in the database file, so this only has to be run once,
+ * by the writer.
+ */
+public class SetJournalModeWalPragma implements SQLUpdate {
+
+  @Override
+  public String getSQL() {
+    return "PRAGMA journal_mode=WAL;";
+  }
+}
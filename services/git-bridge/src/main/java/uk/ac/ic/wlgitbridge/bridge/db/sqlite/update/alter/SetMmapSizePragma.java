@@ -0,0 +1,16 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class SetMmapSizePragma implements SQLUpdate {
+  private final long mmapSizeBytes;
+
+  public SetMmapSizePragma(long mmapSizeBytes) {
+    this.mmapSizeBytes = mmapSizeBytes;
+  }
+
+  @Override
+  public String getSQL() {
+    return "PRAGMA mmap_size=" + this.mmapSizeBytes + ";";
+  }
+}
@@ -15,6 +15,9 @@ public class CreateProjectsTableSQLUpdate implements SQLUpdate {
           + "    `swap_time` DATETIME NULL,\n"
           + "    `restore_time` DATETIME NULL,\n"
           + "    `swap_compression` VARCHAR NULL,\n"
+          + "    `swap_failures` INT NOT NULL DEFAULT 0,\n"
+          + "    `swap_retry_after` INTEGER NULL,\n"
+          + "    `disk_bytes` INTEGER NOT NULL DEFAULT 0,\n"
           + "    PRIMARY KEY (`name`)\n"
           + ")";
 
@@ -2,6 +2,9 @@ package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.delete;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
 
 /*
@@ -20,6 +23,18 @@ public class DeleteFilesForProjectSQLUpdate implements SQLUpdate {
     this.paths = paths;
   }
 
+  /* Splits the paths so that each update stays under the parameter limit. */
+  public static List<DeleteFilesForProjectSQLUpdate> chunked(String projectName, String... paths) {
+    int chunkSize = MAX_PARAMETERS - 1;
+    List<DeleteFilesForProjectSQLUpdate> updates = new ArrayList<>();
+    for (int i = 0; i < paths.length; i += chunkSize) {
+      updates.add(
+          new DeleteFilesForProjectSQLUpdate(
+              projectName, Arrays.copyOfRange(paths, i, Math.min(i + chunkSize, paths.length))));
+    }
+    return updates;
+  }
+
   @Override
   public String getSQL() {
     StringBuilder sb = new StringBuilder(DELETE_URL_INDEXES_FOR_PROJECT_NAME);
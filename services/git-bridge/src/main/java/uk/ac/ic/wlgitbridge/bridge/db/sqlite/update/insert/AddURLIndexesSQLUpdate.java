@@ -0,0 +1,68 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+/*
+ * Adds many url index entries for a project in one statement.
+ */
+public class AddURLIndexesSQLUpdate implements SQLUpdate {
+
+  private static final String ADD_URL_INDEXES =
+      "INSERT OR REPLACE INTO `url_index_store`("
+          + "`project_name`, "
+          + "`url`, "
+          + "`path`"
+          + ") VALUES ";
+
+  private static final int PARAMETERS_PER_ROW = 3;
+
+  private final String projectName;
+  private final List<Map.Entry<String, String>> pathsForUrls;
+
+  public AddURLIndexesSQLUpdate(String projectName, List<Map.Entry<String, String>> pathsForUrls) {
+    this.projectName = projectName;
+    this.pathsForUrls = pathsForUrls;
+  }
+
+  /* Splits the entries so that each update stays under the parameter limit. */
+  public static List<AddURLIndexesSQLUpdate> chunked(
+      String projectName, Map<String, String> pathsForUrls) {
+    int chunkSize = MAX_PARAMETERS / PARAMETERS_PER_ROW;
+    List<Map.Entry<String, String>> entries = new ArrayList<>(pathsForUrls.entrySet());
+    List<AddURLIndexesSQLUpdate> updates = new ArrayList<>();
+    for (int i = 0; i < entries.size(); i += chunkSize) {
+      updates.add(
+          new AddURLIndexesSQLUpdate(
+              projectName, entries.subList(i, Math.min(i + chunkSize, entries.size()))));
+    }
+    return updates;
+  }
+
+  @Override
+  public String getSQL() {
+    StringBuilder sb = new StringBuilder(ADD_URL_INDEXES);
+    for (int i = 0; i < pathsForUrls.size(); i++) {
+      sb.append("(?, ?, ?)");
+      if (i < pathsForUrls.size() - 1) {
+        sb.append(", ");
+      }
+    }
+    sb.append(";\n");
+    return sb.toString();
+  }
+
+  @Override
+  public void addParametersToStatement(PreparedStatement statement) throws SQLException {
+    int i = 1;
+    for (Map.Entry<String, String> entry : pathsForUrls) {
+      statement.setString(i++, projectName);
+      statement.setString(i++, entry.getKey());
+      statement.setString(i++, entry.getValue());
+    }
+  }
+}
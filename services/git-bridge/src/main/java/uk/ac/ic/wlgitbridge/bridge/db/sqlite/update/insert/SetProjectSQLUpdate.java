@@ -9,10 +9,14 @@ import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
  */
 public class SetProjectSQLUpdate implements SQLUpdate {
 
+  /* An upsert, so that the project's other columns are kept. */
   private static final String SET_PROJECT =
-      "INSERT OR REPLACE "
+      "INSERT "
           + "INTO `projects`(`name`, `version_id`, `last_accessed`) "
-          + "VALUES (?, ?, DATETIME('now'));\n";
+          + "VALUES (?, ?, DATETIME('now')) "
+          + "ON CONFLICT(`name`) DO UPDATE "
+          + "SET `version_id` = excluded.`version_id`, "
+          + "`last_accessed` = excluded.`last_accessed`;\n";
 
   private final String projectName;
   private final int versionID;
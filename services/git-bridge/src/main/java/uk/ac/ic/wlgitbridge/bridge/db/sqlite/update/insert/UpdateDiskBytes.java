@@ -0,0 +1,30 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class UpdateDiskBytes implements SQLUpdate {
+
+  private static final String UPDATE_DISK_BYTES =
+      "UPDATE `projects`\n" + "SET `disk_bytes` = ?\n" + "WHERE `name` = ?;\n";
+
+  private final String projectName;
+  private final long diskBytes;
+
+  public UpdateDiskBytes(String projectName, long diskBytes) {
+    this.projectName = projectName;
+    this.diskBytes = diskBytes;
+  }
+
+  @Override
+  public String getSQL() {
+    return UPDATE_DISK_BYTES;
+  }
+
+  @Override
+  public void addParametersToStatement(PreparedStatement statement) throws SQLException {
+    statement.setLong(1, diskBytes);
+    statement.setString(2, projectName);
+  }
+}
@@ -12,7 +12,10 @@ public class UpdateSwap implements SQLUpdate {
           + "SET `last_accessed` = NULL,\n"
           + "    `swap_time` = ?,\n"
           + "    `restore_time` = NULL,\n"
-          + "    `swap_compression` = ?\n"
+          + "    `swap_compression` = ?,\n"
+          + "    `swap_failures` = 0,\n"
+          + "    `swap_retry_after` = NULL,\n"
+          + "    `disk_bytes` = 0\n"
           + "WHERE `name` = ?;\n";
 
   private final String projectName;
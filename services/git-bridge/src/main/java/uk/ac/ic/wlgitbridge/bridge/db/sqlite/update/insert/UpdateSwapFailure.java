@@ -0,0 +1,41 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+/*
+ * Counts a failed swap, and holds the project back from swapping for the
+ * backoff, doubled for each failure in a row before this one (up to 64
+ * times). swap_retry_after is in milliseconds since the epoch.
+ */
+public class UpdateSwapFailure implements SQLUpdate {
+
+  private static final String UPDATE_SWAP_FAILURE =
+      "UPDATE `projects`\n"
+          + "SET `swap_failures` = `swap_failures` + 1,\n"
+          + "    `swap_retry_after` = ? + (? << MIN(`swap_failures`, 6))\n"
+          + "WHERE `name` = ?;\n";
+
+  private final String projectName;
+  private final long nowMillis;
+  private final long backoffMillis;
+
+  public UpdateSwapFailure(String projectName, long nowMillis, long backoffMillis) {
+    this.projectName = projectName;
+    this.nowMillis = nowMillis;
+    this.backoffMillis = backoffMillis;
+  }
+
+  @Override
+  public String getSQL() {
+    return UPDATE_SWAP_FAILURE;
+  }
+
+  @Override
+  public void addParametersToStatement(PreparedStatement statement) throws SQLException {
+    statement.setLong(1, nowMillis);
+    statement.setLong(2, backoffMillis);
+    statement.setString(3, projectName);
+  }
+}
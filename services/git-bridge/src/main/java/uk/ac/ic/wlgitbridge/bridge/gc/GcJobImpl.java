@@ -8,7 +8,9 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockOperation;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
@@ -19,10 +21,14 @@ import uk.ac.ic.wlgitbridge.util.TimerUtils;
 /*
  * Implementation of {@link GcJob} using its own Timer and a synchronized
  * queue.
+ *
+ * The size of each project on disk is recorded in the db store after it is
+ * GCed, for the swap job.
  */
 public class GcJobImpl implements GcJob {
 
   private final RepoStore repoStore;
+  private final DBStore dbStore;
   private final ProjectLock locks;
 
   private final long intervalMs;
@@ -40,8 +46,9 @@ public class GcJobImpl implements GcJob {
   private final Lock jobWaitersLock;
   private final List<CompletableFuture<Void>> jobWaiters;
 
-  public GcJobImpl(RepoStore repoStore, ProjectLock locks, long intervalMs) {
+  public GcJobImpl(RepoStore repoStore, DBStore dbStore, ProjectLock locks, long intervalMs) {
     this.repoStore = repoStore;
+    this.dbStore = dbStore;
     this.locks = locks;
     this.intervalMs = intervalMs;
     timer = new Timer();
@@ -52,8 +59,8 @@ public class GcJobImpl implements GcJob {
     jobWaiters = new ArrayList<>();
   }
 
-  public GcJobImpl(RepoStore repoStore, ProjectLock locks) {
-    this(repoStore, locks, TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS));
+  public GcJobImpl(RepoStore repoStore, DBStore dbStore, ProjectLock locks) {
+    this(repoStore, dbStore, locks, TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS));
   }
 
   @Override
@@ -106,11 +113,12 @@ public class GcJobImpl implements GcJob {
     for (Iterator<String> it = gcQueue.iterator(); it.hasNext(); it.remove(), ++numGcs) {
       String proj = it.next();
       Log.debug("[{}] Running GC job on project", proj);
-      try (LockGuard __ = locks.lockGuard(proj)) {
+      try (LockGuard __ = locks.lockGuard(proj, LockOperation.GC)) {
         try {
           ProjectRepo repo = repoStore.getExistingRepo(proj);
           repo.runGC();
           repo.deleteIncomingPacks();
+          dbStore.setDiskBytesForProject(proj, repoStore.projectSize(proj));
         } catch (IOException e) {
           Log.warn("[{}] Failed to GC project", proj);
         }
@@ -0,0 +1,15 @@
+package uk.ac.ic.wlgitbridge.bridge.lock;
+
+/*
+ * What a project lock is taken for. Only used to label the lock metrics.
+ */
+public enum LockOperation {
+  FETCH,
+  PUSH,
+  SWAP,
+  GC;
+
+  public String getLabel() {
+    return name().toLowerCase();
+  }
+}
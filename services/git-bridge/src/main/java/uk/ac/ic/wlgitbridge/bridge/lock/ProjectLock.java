@@ -7,18 +7,38 @@ import uk.ac.ic.wlgitbridge.data.CannotAcquireLockException;
  *
  * The locks should be re-entrant. For example, we are usually holding the lock
  * when a project must be restored, which tries to acquire the lock again.
+ *
+ * Each project has a shared and an exclusive mode. Anything that only reads
+ * the repository, like serving a fetch of a project that is already up to
+ * date, takes the shared lock, so fetches don't queue behind each other.
+ * Anything that changes it (commits, pushes, swapping, GC) takes the
+ * exclusive lock. A thread holding the exclusive lock may also take the
+ * shared one, but not the other way round.
  */
 public interface ProjectLock {
 
   void lockAll();
 
-  void lockForProject(String projectName) throws CannotAcquireLockException;
+  void lockForProject(String projectName, LockOperation operation)
+      throws CannotAcquireLockException;
 
   void unlockForProject(String projectName);
 
+  void lockForProjectShared(String projectName, LockOperation operation)
+      throws CannotAcquireLockException;
+
+  void unlockForProjectShared(String projectName);
+
   /* RAII hahaha */
-  default LockGuard lockGuard(String projectName) throws CannotAcquireLockException {
-    lockForProject(projectName);
+  default LockGuard lockGuard(String projectName, LockOperation operation)
+      throws CannotAcquireLockException {
+    lockForProject(projectName, operation);
     return () -> unlockForProject(projectName);
   }
+
+  default LockGuard sharedLockGuard(String projectName, LockOperation operation)
+      throws CannotAcquireLockException {
+    lockForProjectShared(projectName, operation);
+    return () -> unlockForProjectShared(projectName);
+  }
 }
@@ -0,0 +1,31 @@
+package uk.ac.ic.wlgitbridge.bridge.lock;
+
+import javax.annotation.Nullable;
+
+/*
+ * Settings for the per-project lock queues.
+ */
+public class ProjectLockConfig {
+
+  public static final int DEFAULT_MAX_WAIT_SECONDS = 30;
+  public static final int DEFAULT_MAX_QUEUE_DEPTH = 16;
+
+  /* How long a request waits in the queue for a project before giving up. */
+  @Nullable private final Integer maxWaitSeconds;
+
+  /* Requests waiting for a project beyond which new ones are turned away. */
+  @Nullable private final Integer maxQueueDepth;
+
+  public ProjectLockConfig(Integer maxWaitSeconds, Integer maxQueueDepth) {
+    this.maxWaitSeconds = maxWaitSeconds;
+    this.maxQueueDepth = maxQueueDepth;
+  }
+
+  public int getMaxWaitSeconds() {
+    return maxWaitSeconds == null ? DEFAULT_MAX_WAIT_SECONDS : maxWaitSeconds;
+  }
+
+  public int getMaxQueueDepth() {
+    return maxQueueDepth == null ? DEFAULT_MAX_QUEUE_DEPTH : maxQueueDepth;
+  }
+}
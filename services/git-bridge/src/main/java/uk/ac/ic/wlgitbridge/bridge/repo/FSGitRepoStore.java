@@ -6,6 +6,7 @@ import com.google.api.client.repackaged.com.google.common.base.Preconditions;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -91,6 +92,11 @@ public class FSGitRepoStore implements RepoStore {
     return fsSizer.apply(rootDirectory);
   }
 
+  @Override
+  public long projectSize(String projectName) {
+    return FileUtils.sizeOfDirectory(getDirForProject(projectName));
+  }
+
   @Override
   public InputStream bzip2Project(String projectName, long[] sizePtr) throws IOException {
     Project.checkValidProjectName(projectName);
@@ -105,6 +111,28 @@ public class FSGitRepoStore implements RepoStore {
     return Tar.gzip.zip(getDotGitForProject(projectName), sizePtr);
   }
 
+  @Override
+  public void bzip2ProjectTo(String projectName, OutputStream out) throws IOException {
+    Project.checkValidProjectName(projectName);
+    Log.debug("[{}] bzip2 project", projectName);
+    Tar.bz2.zipTo(getDotGitForProject(projectName), out);
+  }
+
+  @Override
+  public void gzipProjectTo(String projectName, OutputStream out) throws IOException {
+    Project.checkValidProjectName(projectName);
+    Log.debug("[{}] gzip project", projectName);
+    Tar.gzip.zipTo(getDotGitForProject(projectName), out);
+  }
+
+  @Override
+  public void zstdProjectTo(String projectName, OutputStream out, int level, int workers)
+      throws IOException {
+    Project.checkValidProjectName(projectName);
+    Log.debug("[{}] zstd project at level {}", projectName, level);
+    Tar.zstd.zipTo(getDotGitForProject(projectName), out, level, workers);
+  }
+
   @Override
   public void gcProject(String projectName) throws IOException {
     Project.checkValidProjectName(projectName);
@@ -142,6 +170,18 @@ public class FSGitRepoStore implements RepoStore {
     Tar.gzip.unzip(dataStream, getDirForProject(projectName));
   }
 
+  @Override
+  public void untarProject(String projectName, InputStream tar) throws IOException {
+    Preconditions.checkArgument(
+        Project.isValidProjectName(projectName), "[%s] invalid project name: ", projectName);
+    Preconditions.checkState(
+        getDirForProject(projectName).mkdirs(),
+        "[%s] directories for " + "evicted project already exist",
+        projectName);
+    Log.debug("[{}] untar project", projectName);
+    Tar.untar(tar, getDirForProject(projectName));
+  }
+
   private File getDirForProject(String projectName) {
     Project.checkValidProjectName(projectName);
     return Paths.get(rootDirectory.getAbsolutePath()).resolve(projectName).toFile();
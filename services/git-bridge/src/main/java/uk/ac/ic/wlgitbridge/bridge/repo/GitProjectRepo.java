@@ -3,6 +3,7 @@ package uk.ac.ic.wlgitbridge.bridge.repo;
 import com.google.common.base.Preconditions;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
@@ -14,17 +15,30 @@ import org.apache.commons.io.IOUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import uk.ac.ic.wlgitbridge.data.filestore.GitBlobFile;
 import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RawTreeDiff;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 import uk.ac.ic.wlgitbridge.git.util.RepositoryObjectTreeWalker;
+import uk.ac.ic.wlgitbridge.git.util.RepositoryTreeDiffWalker;
 import uk.ac.ic.wlgitbridge.util.Log;
 import uk.ac.ic.wlgitbridge.util.Project;
-import uk.ac.ic.wlgitbridge.util.Util;
 
 /*
  * Class representing a Git repository.
@@ -101,13 +115,18 @@ public class GitProjectRepo implements ProjectRepo {
     return new RepositoryObjectTreeWalker(repository.get()).getDirectoryContents(Optional.empty());
   }
 
+  @Override
+  public RawTreeDiff getDiff(Optional<ObjectId> oldCommitId) throws IOException, GitUserException {
+    Preconditions.checkState(repository.isPresent());
+    ObjectId head = repository.get().resolve(Constants.HEAD);
+    Preconditions.checkState(head != null, "project has no commits");
+    return new RepositoryTreeDiffWalker(repository.get(), oldCommitId, head)
+        .getDiff(Optional.empty());
+  }
+
   @Override
   public Collection<String> commitAndGetMissing(GitDirectoryContents contents) throws IOException {
-    try {
-      return doCommitAndGetMissing(contents);
-    } catch (GitAPIException e) {
-      throw new IOException(e);
-    }
+    return doCommitAndGetMissing(contents);
   }
 
   @Override
@@ -181,10 +200,15 @@ public class GitProjectRepo implements ProjectRepo {
     return getJGitRepository().getDirectory().getParentFile();
   }
 
+  /*
+   * Commits never write the working tree, so files that have since left the
+   * project are no longer in the index either; cleaning removes them.
+   */
   public void resetHard() throws IOException {
     Git git = new Git(getJGitRepository());
     try {
       git.reset().setMode(ResetCommand.ResetType.HARD).call();
+      git.clean().setCleanDirectories(true).setIgnore(false).call();
     } catch (GitAPIException e) {
       throw new IOException(e);
     }
@@ -211,36 +235,115 @@ public class GitProjectRepo implements ProjectRepo {
     return new FileRepositoryBuilder().setWorkTree(repoDir).build();
   }
 
+  /*
+   * Writes the snapshot straight into the object database: every file is
+   * inserted as a blob, the tree is built from the index and the commit is
+   * added on top of HEAD. The working tree is never touched, but the index
+   * is written back so that it matches the new commit; git gc keeps
+   * everything the index refers to.
+   *
+   * Files are missing if they were in the parent commit but are not in the
+   * new one, which we get by walking the parent tree.
+   */
   private Collection<String> doCommitAndGetMissing(GitDirectoryContents contents)
-      throws IOException, GitAPIException {
+      throws IOException {
     Preconditions.checkState(repository.isPresent());
     Repository repo = getJGitRepository();
-    resetHard();
     String name = getProjectName();
-    Log.debug("[{}] Writing commit", name);
-    contents.write();
-    Git git = new Git(getJGitRepository());
-    Log.debug("[{}] Getting missing files", name);
-    Set<String> missingFiles = git.status().call().getMissing();
-    for (String missing : missingFiles) {
-      Log.debug("[{}] Git rm {}", name, missing);
-      git.rm().setCached(true).addFilepattern(missing).call();
+    Map<String, RawFile> files = new LinkedHashMap<>();
+    for (RawFile file : contents.getFiles()) {
+      files.put(file.getPath(), file);
+    }
+    ObjectId parentId = repo.resolve(Constants.HEAD);
+    DirCache index = repo.lockDirCache();
+    try (ObjectInserter inserter = repo.newObjectInserter();
+        RevWalk walk = new RevWalk(repo)) {
+      Log.debug("[{}] Inserting {} blobs", name, files.size());
+      DirCacheBuilder builder = index.builder();
+      for (RawFile file : files.values()) {
+        DirCacheEntry entry = new DirCacheEntry(file.getPath());
+        entry.setFileMode(FileMode.REGULAR_FILE);
+        entry.setLength(file.size());
+        entry.setObjectId(insertBlob(repo, inserter, file));
+        builder.add(entry);
+      }
+      builder.finish();
+      ObjectId treeId = index.writeTree(inserter);
+
+      Log.debug("[{}] Writing commit", name);
+      CommitBuilder commit = new CommitBuilder();
+      commit.setTreeId(treeId);
+      if (parentId != null) {
+        commit.setParentId(parentId);
+      }
+      commit.setAuthor(
+          new PersonIdent(
+              contents.getUserName(),
+              contents.getUserEmail(),
+              contents.getWhen(),
+              TimeZone.getDefault()));
+      commit.setCommitter(new PersonIdent(repo));
+      commit.setMessage(contents.getCommitMessage());
+      ObjectId commitId = inserter.insert(commit);
+      inserter.flush();
+
+      /*
+       * The index is written before HEAD moves, so that a failure to write it
+       * leaves HEAD where the db store expects it to be.
+       */
+      index.write();
+      if (!index.commit()) {
+        throw new IOException("Failed to write the index for " + name);
+      }
+      RefUpdate update = repo.updateRef(Constants.HEAD);
+      update.setNewObjectId(commitId);
+      update.setExpectedOldObjectId(parentId == null ? ObjectId.zeroId() : parentId);
+      update.setRefLogMessage("commit: " + contents.getCommitMessage(), false);
+      RefUpdate.Result result = update.update(walk);
+      switch (result) {
+        case NEW:
+        case FAST_FORWARD:
+        case FORCED:
+          break;
+        default:
+          throw new IOException("Failed to update HEAD for " + name + ": " + result);
+      }
+
+      Log.debug("[{}] Getting missing files", name);
+      Set<String> missingFiles = new HashSet<>();
+      if (parentId != null) {
+        try (TreeWalk treeWalk = new TreeWalk(repo)) {
+          treeWalk.addTree(walk.parseCommit(parentId).getTree());
+          treeWalk.setRecursive(true);
+          while (treeWalk.next()) {
+            String path = treeWalk.getPathString();
+            if (!files.containsKey(path)) {
+              missingFiles.add(path);
+            }
+          }
+        }
+      }
+      return missingFiles;
+    } finally {
+      index.unlock();
+    }
+  }
+
+  /*
+   * Attachments are usually already in the object database, so only files
+   * whose blob is missing are inserted, and those are streamed rather than
+   * read into memory.
+   */
+  private static ObjectId insertBlob(Repository repo, ObjectInserter inserter, RawFile file)
+      throws IOException {
+    if (file instanceof GitBlobFile) {
+      ObjectId blobId = ((GitBlobFile) file).getBlobId();
+      if (repo.getObjectDatabase().has(blobId)) {
+        return blobId;
+      }
+    }
+    try (InputStream in = file.openStream()) {
+      return inserter.insert(Constants.OBJ_BLOB, file.size(), in);
     }
-    Log.debug("[{}] Calling Git add", name);
-    git.add().setWorkingTreeIterator(new NoGitignoreIterator(repo)).addFilepattern(".").call();
-    Log.debug("[{}] Calling Git commit", name);
-    git.commit()
-        .setAuthor(
-            new PersonIdent(
-                contents.getUserName(),
-                contents.getUserEmail(),
-                contents.getWhen(),
-                TimeZone.getDefault()))
-        .setMessage(contents.getCommitMessage())
-        .call();
-    Log.debug(
-        "[{}] Deleting files in directory: {}", name, contents.getDirectory().getAbsolutePath());
-    Util.deleteInDirectoryApartFrom(contents.getDirectory(), ".git");
-    return missingFiles;
   }
 }
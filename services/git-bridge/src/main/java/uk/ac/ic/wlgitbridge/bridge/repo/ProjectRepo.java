@@ -3,9 +3,12 @@ package uk.ac.ic.wlgitbridge.bridge.repo;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Optional;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.data.filestore.RawTreeDiff;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 
 /*
@@ -21,6 +24,13 @@ public interface ProjectRepo {
 
   RawDirectory getDirectory() throws IOException, GitUserException;
 
+  /*
+   * Compares this repo's tree with the tree of the given commit, by blob id.
+   * @param oldCommitId the commit to compare against, or empty if there is
+   *                    none
+   */
+  RawTreeDiff getDiff(Optional<ObjectId> oldCommitId) throws IOException, GitUserException;
+
   Collection<String> commitAndGetMissing(GitDirectoryContents gitDirectoryContents)
       throws IOException, GitUserException;
 
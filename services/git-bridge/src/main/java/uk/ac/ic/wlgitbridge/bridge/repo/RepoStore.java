@@ -3,6 +3,7 @@ package uk.ac.ic.wlgitbridge.bridge.repo;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
@@ -29,6 +30,9 @@ public interface RepoStore {
 
   long totalSize();
 
+  /* The total size of the given project's files. */
+  long projectSize(String projectName);
+
   /*
    * Tars and bzip2s the .git directory of the given project. Throws an
    * IOException if the project doesn't exist. The returned stream is a copy
@@ -51,6 +55,29 @@ public interface RepoStore {
     return gzipProject(projectName, null);
   }
 
+  /*
+   * Tars and bzip2s the .git directory of the given project straight into
+   * out, which is not closed. Throws an IOException if the project doesn't
+   * exist.
+   */
+  void bzip2ProjectTo(String projectName, OutputStream out) throws IOException;
+
+  /*
+   * Tars and gzips the .git directory of the given project straight into
+   * out, which is not closed. Throws an IOException if the project doesn't
+   * exist.
+   */
+  void gzipProjectTo(String projectName, OutputStream out) throws IOException;
+
+  /*
+   * Tars and zstds the .git directory of the given project straight into
+   * out, which is not closed. Throws an IOException if the project doesn't
+   * exist. The level is from 1 to 19, and workers is the number of threads
+   * to compress with, or 0 to compress on the calling thread.
+   */
+  void zstdProjectTo(String projectName, OutputStream out, int level, int workers)
+      throws IOException;
+
   void gcProject(String projectName) throws IOException;
 
   /*
@@ -79,4 +106,14 @@ public interface RepoStore {
    * @param dataStream the data stream containing the gzip contents.
    */
   void ungzipProject(String projectName, InputStream dataStream) throws IOException;
+
+  /*
+   * Untars the given, uncompressed, data stream into a .git directory for
+   * projectName.
+   * Creates the project's git directory.
+   * If projectName already exists, throws an IOException.
+   * @param projectName the name of the project, e.g. abc123
+   * @param tar the data stream containing the tar.
+   */
+  void untarProject(String projectName, InputStream tar) throws IOException;
 }
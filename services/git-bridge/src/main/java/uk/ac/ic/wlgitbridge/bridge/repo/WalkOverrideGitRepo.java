@@ -8,13 +8,16 @@ import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.data.filestore.RawTreeDiff;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 import uk.ac.ic.wlgitbridge.git.util.RepositoryObjectTreeWalker;
+import uk.ac.ic.wlgitbridge.git.util.RepositoryTreeDiffWalker;
 
 /*
  * This class takes a GitProjectRepo and delegates all calls to it.
  *
- * The purpose is to insert a file size check in {@link #getDirectory()}.
+ * The purpose is to insert a file size check in {@link #getDirectory()} and
+ * {@link #getDiff(Optional)}.
  *
  * We delegate instead of subclass because we can't override the static
  * constructors in {@link GitProjectRepo}.
@@ -61,6 +64,13 @@ public class WalkOverrideGitRepo implements ProjectRepo {
     return walker.getDirectoryContents(maxFileSize);
   }
 
+  @Override
+  public RawTreeDiff getDiff(Optional<ObjectId> oldCommitId) throws IOException, GitUserException {
+    Repository repo = gitRepo.getJGitRepository();
+    ObjectId newCommitId = commitId.isPresent() ? commitId.get() : repo.resolve("HEAD");
+    return new RepositoryTreeDiffWalker(repo, oldCommitId, newCommitId).getDiff(maxFileSize);
+  }
+
   @Override
   public Collection<String> commitAndGetMissing(GitDirectoryContents gitDirectoryContents)
       throws GitUserException, IOException {
@@ -0,0 +1,129 @@
+package uk.ac.ic.wlgitbridge.bridge.resource;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotAttachment;
+
+/*
+ * Gets the attachments of a snapshot from a {@link ResourceCache}
+ * concurrently.
+ *
+ * All fetches run on one pool shared by every project, whose size is the
+ * global cap. Within a single call, at most {@code maxPerProject} fetches are
+ * in flight; since a project is only synced by one request at a time, this
+ * is the cap per project.
+ *
+ * The files are returned in the order of the attachments. If any fetch
+ * fails, no more are started, the ones in flight are waited for, and the
+ * exception of the first failed attachment (in snapshot order) is thrown,
+ * as if they had been fetched one by one.
+ */
+public class AttachmentFetcher {
+
+  private final ResourceCache resourceCache;
+  private final ExecutorService executor;
+  private final int maxPerProject;
+
+  public AttachmentFetcher(ResourceCache resourceCache, int maxGlobal, int maxPerProject) {
+    Preconditions.checkArgument(maxGlobal > 0, "maxGlobal must be positive: %s", maxGlobal);
+    Preconditions.checkArgument(
+        maxPerProject > 0, "maxPerProject must be positive: %s", maxPerProject);
+    this.resourceCache = resourceCache;
+    this.maxPerProject = maxPerProject;
+    AtomicInteger threadCount = new AtomicInteger();
+    executor =
+        Executors.newFixedThreadPool(
+            maxGlobal,
+            r -> {
+              Thread t = new Thread(r, "attachment-fetcher-" + threadCount.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+  }
+
+  /*
+   * @param fetchedUrls shared between the fetches, so must be thread-safe
+   * @see ResourceCache#get(ProjectRepo, String, String, Map, Map, Optional)
+   */
+  public List<RawFile> fetch(
+      ProjectRepo repo,
+      List<SnapshotAttachment> attachments,
+      Map<String, RawFile> fileTable,
+      Map<String, RawFile> fetchedUrls,
+      Optional<Long> maxFileSize)
+      throws IOException, SizeLimitExceededException {
+    Semaphore window = new Semaphore(maxPerProject);
+    AtomicBoolean failed = new AtomicBoolean(false);
+    List<Future<RawFile>> fetches = new ArrayList<>(attachments.size());
+    try {
+      for (SnapshotAttachment attachment : attachments) {
+        window.acquire();
+        if (failed.get()) {
+          window.release();
+          break;
+        }
+        fetches.add(
+            executor.submit(
+                () -> {
+                  try {
+                    return resourceCache.get(
+                        repo,
+                        attachment.getUrl(),
+                        attachment.getPath(),
+                        fileTable,
+                        fetchedUrls,
+                        maxFileSize);
+                  } catch (Throwable t) {
+                    failed.set(true);
+                    throw t;
+                  } finally {
+                    window.release();
+                  }
+                }));
+      }
+      window.acquire(maxPerProject);
+    } catch (InterruptedException e) {
+      fetches.forEach(fetch -> fetch.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    List<RawFile> files = new ArrayList<>(fetches.size());
+    for (Future<RawFile> fetch : fetches) {
+      files.add(getResult(fetch));
+    }
+    return files;
+  }
+
+  /* Only called once every fetch has finished, so never blocks. */
+  private static RawFile getResult(Future<RawFile> fetch)
+      throws IOException, SizeLimitExceededException {
+    try {
+      return fetch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      try {
+        throw e.getCause();
+      } catch (IOException | SizeLimitExceededException | RuntimeException | Error cause) {
+        throw cause;
+      } catch (Throwable __) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package uk.ac.ic.wlgitbridge.bridge.resource;
+
+import java.io.File;
+import java.util.Optional;
+import org.eclipse.jgit.lib.ObjectId;
+
+/*
+ * A node-wide store of attachment contents, keyed by git blob id.
+ *
+ * Many projects (copies, templates, shared figure libraries) point at the
+ * same history blobs, so a blob downloaded for one project can be used for
+ * any other project on this node without downloading it again.
+ */
+public interface BlobCache {
+
+  /*
+   * Returns the file holding the given blob, if it is in the cache.
+   *
+   * The file may be evicted at any time, so it should be opened straight
+   * away, and a missing file treated as a miss.
+   */
+  Optional<File> get(ObjectId blobId);
+
+  /*
+   * Adds the given file, whose contents must hash to the blob id, to the
+   * cache. The file is moved into the cache or deleted.
+   */
+  void put(ObjectId blobId, File file);
+
+  static BlobCache fromConfig(Optional<ResourceCacheConfig> config, File directory) {
+    long maxBytes =
+        config
+            .map(ResourceCacheConfig::getBlobCacheMaxBytes)
+            .orElse(ResourceCacheConfig.DEFAULT_BLOB_CACHE_MAX_BYTES);
+    if (maxBytes <= 0) {
+      return new NoopBlobCache();
+    }
+    return new DiskBlobCache(directory, maxBytes);
+  }
+}
@@ -0,0 +1,162 @@
+package uk.ac.ic.wlgitbridge.bridge.resource;
+
+import com.google.common.base.Preconditions;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import uk.ac.ic.wlgitbridge.util.Log;
+
+/*
+ * A {@link BlobCache} that keeps blobs as files under a directory, using the
+ * same fan-out as loose git objects (ab/cdef...).
+ *
+ * The total size of the cache is kept under {@code maxBytes} by evicting the
+ * least recently used blobs. The LRU order lives in memory; it is rebuilt
+ * from the files' modification times on startup, which are bumped on every
+ * hit for that purpose.
+ *
+ * Files are moved to a temporary directory on the same filesystem first and
+ * then renamed into place, so a blob file is either complete or absent.
+ */
+public class DiskBlobCache implements BlobCache {
+
+  private static final Counter hits =
+      Counter.build().name("blob_cache_hits_total").help("Blob cache hits").register();
+  private static final Counter misses =
+      Counter.build().name("blob_cache_misses_total").help("Blob cache misses").register();
+  private static final Counter bytesSaved =
+      Counter.build()
+          .name("blob_cache_bytes_saved_total")
+          .help("Bytes served from the blob cache instead of being downloaded")
+          .register();
+  private static final Counter evictions =
+      Counter.build().name("blob_cache_evictions_total").help("Blobs evicted").register();
+  private static final Gauge sizeBytes =
+      Gauge.build().name("blob_cache_size_bytes").help("Size of the blob cache").register();
+
+  private final File directory;
+  private final File tmpDirectory;
+  private final long maxBytes;
+
+  /* Blob id to size, least recently used first. Guarded by this. */
+  private final LinkedHashMap<ObjectId, Long> blobs;
+  private long totalBytes;
+
+  public DiskBlobCache(File directory, long maxBytes) {
+    Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive: %s", maxBytes);
+    this.directory = directory;
+    this.tmpDirectory = new File(directory, "tmp");
+    this.maxBytes = maxBytes;
+    blobs = new LinkedHashMap<>(16, 0.75f, true);
+    totalBytes = 0;
+    try {
+      FileUtils.deleteDirectory(tmpDirectory);
+      Files.createDirectories(tmpDirectory.toPath());
+      loadIndex();
+    } catch (IOException e) {
+      Log.warn("Failed to load blob cache at " + directory, e);
+    }
+    evict();
+  }
+
+  @Override
+  public Optional<File> get(ObjectId blobId) {
+    Long size;
+    synchronized (this) {
+      size = blobs.get(blobId);
+    }
+    if (size == null) {
+      misses.inc();
+      return Optional.empty();
+    }
+    File file = fileFor(blobId);
+    file.setLastModified(System.currentTimeMillis());
+    hits.inc();
+    bytesSaved.inc(size);
+    return Optional.of(file);
+  }
+
+  @Override
+  public void put(ObjectId blobId, File file) {
+    try {
+      long size = file.length();
+      synchronized (this) {
+        if (size > maxBytes || blobs.containsKey(blobId)) {
+          Files.delete(file.toPath());
+          return;
+        }
+      }
+      Path tmp = Files.createTempFile(tmpDirectory.toPath(), blobId.name(), null);
+      Files.move(file.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+      File target = fileFor(blobId);
+      synchronized (this) {
+        Files.createDirectories(target.getParentFile().toPath());
+        Files.move(tmp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        if (blobs.put(blobId, size) == null) {
+          totalBytes += size;
+        }
+        evict();
+      }
+    } catch (IOException e) {
+      Log.warn("Failed to add blob " + blobId.name() + " to cache", e);
+      file.delete();
+    }
+  }
+
+  private File fileFor(ObjectId blobId) {
+    String name = blobId.name();
+    return new File(new File(directory, name.substring(0, 2)), name.substring(2));
+  }
+
+  private void loadIndex() throws IOException {
+    List<File> files = new ArrayList<>();
+    File[] fanOut = directory.listFiles((dir, name) -> name.length() == 2);
+    if (fanOut == null) {
+      return;
+    }
+    for (File dir : fanOut) {
+      try (Stream<Path> entries = Files.list(dir.toPath())) {
+        entries.map(Path::toFile).forEach(files::add);
+      }
+    }
+    files.sort(Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      String name = file.getParentFile().getName() + file.getName();
+      if (!ObjectId.isId(name)) {
+        continue;
+      }
+      blobs.put(ObjectId.fromString(name), file.length());
+      totalBytes += file.length();
+    }
+    Log.info("Loaded {} blobs ({} bytes) into blob cache", blobs.size(), totalBytes);
+  }
+
+  private synchronized void evict() {
+    Iterator<Map.Entry<ObjectId, Long>> it = blobs.entrySet().iterator();
+    while (totalBytes > maxBytes && it.hasNext()) {
+      Map.Entry<ObjectId, Long> lru = it.next();
+      File file = fileFor(lru.getKey());
+      if (!file.delete() && file.exists()) {
+        Log.warn("Failed to evict blob {} from cache", lru.getKey().name());
+      }
+      it.remove();
+      totalBytes -= lru.getValue();
+      evictions.inc();
+    }
+    sizeBytes.set(totalBytes);
+  }
+}
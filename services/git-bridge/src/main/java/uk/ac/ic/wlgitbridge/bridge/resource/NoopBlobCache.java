@@ -0,0 +1,18 @@
+package uk.ac.ic.wlgitbridge.bridge.resource;
+
+import java.io.File;
+import java.util.Optional;
+import org.eclipse.jgit.lib.ObjectId;
+
+public class NoopBlobCache implements BlobCache {
+
+  @Override
+  public Optional<File> get(ObjectId blobId) {
+    return Optional.empty();
+  }
+
+  @Override
+  public void put(ObjectId blobId, File file) {
+    file.delete();
+  }
+}
@@ -3,6 +3,7 @@ package uk.ac.ic.wlgitbridge.bridge.resource;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Optional;
+import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
 
@@ -12,11 +13,11 @@ import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
 public interface ResourceCache {
 
   RawFile get(
-      String projectName,
+      ProjectRepo repo,
       String url,
       String newPath,
       Map<String, RawFile> fileTable,
-      Map<String, byte[]> fetchedUrls,
+      Map<String, RawFile> fetchedUrls,
       Optional<Long> maxFileSize)
       throws IOException, SizeLimitExceededException;
 }
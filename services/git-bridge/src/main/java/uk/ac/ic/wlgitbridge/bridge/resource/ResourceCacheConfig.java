@@ -0,0 +1,45 @@
+package uk.ac.ic.wlgitbridge.bridge.resource;
+
+import javax.annotation.Nullable;
+
+/*
+ * Settings for fetching attachments.
+ */
+public class ResourceCacheConfig {
+
+  public static final long DEFAULT_BLOB_CACHE_MAX_BYTES = 1L << 30;
+  public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 32;
+  public static final int DEFAULT_MAX_CONCURRENT_FETCHES_PER_PROJECT = 8;
+
+  /* Size cap of the node-wide blob cache. 0 disables it. */
+  @Nullable private final Long blobCacheMaxBytes;
+
+  /* Attachment downloads in flight across all projects. */
+  @Nullable private final Integer maxConcurrentFetches;
+
+  /* Attachment downloads in flight for a single project. */
+  @Nullable private final Integer maxConcurrentFetchesPerProject;
+
+  public ResourceCacheConfig(
+      Long blobCacheMaxBytes,
+      Integer maxConcurrentFetches,
+      Integer maxConcurrentFetchesPerProject) {
+    this.blobCacheMaxBytes = blobCacheMaxBytes;
+    this.maxConcurrentFetches = maxConcurrentFetches;
+    this.maxConcurrentFetchesPerProject = maxConcurrentFetchesPerProject;
+  }
+
+  public long getBlobCacheMaxBytes() {
+    return blobCacheMaxBytes == null ? DEFAULT_BLOB_CACHE_MAX_BYTES : blobCacheMaxBytes;
+  }
+
+  public int getMaxConcurrentFetches() {
+    return maxConcurrentFetches == null ? DEFAULT_MAX_CONCURRENT_FETCHES : maxConcurrentFetches;
+  }
+
+  public int getMaxConcurrentFetchesPerProject() {
+    return maxConcurrentFetchesPerProject == null
+        ? DEFAULT_MAX_CONCURRENT_FETCHES_PER_PROJECT
+        : maxConcurrentFetchesPerProject;
+  }
+}
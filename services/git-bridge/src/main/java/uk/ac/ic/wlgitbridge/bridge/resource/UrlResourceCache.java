@@ -2,14 +2,28 @@ package uk.ac.ic.wlgitbridge.bridge.resource;
 
 import static org.asynchttpclient.Dsl.*;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
+import uk.ac.ic.wlgitbridge.data.filestore.GitBlobFile;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
-import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
 import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
 import uk.ac.ic.wlgitbridge.io.http.ning.NingHttpClient;
 import uk.ac.ic.wlgitbridge.io.http.ning.NingHttpClientFacade;
@@ -21,41 +35,59 @@ import uk.ac.ic.wlgitbridge.util.Log;
  */
 public class UrlResourceCache implements ResourceCache {
 
+  private static final Pattern BLOB_URL = Pattern.compile("/blobs/([0-9a-f]{40})(?:[?#]|$)");
+
   private final DBStore dbStore;
 
   private final NingHttpClientFacade http;
 
-  UrlResourceCache(DBStore dbStore, NingHttpClientFacade http) {
+  private final BlobCache blobCache;
+
+  private final File spillDirectory;
+
+  UrlResourceCache(
+      DBStore dbStore, NingHttpClientFacade http, BlobCache blobCache, File spillDirectory) {
     this.dbStore = dbStore;
     this.http = http;
+    this.blobCache = blobCache;
+    this.spillDirectory = spillDirectory;
+  }
+
+  UrlResourceCache(DBStore dbStore, NingHttpClientFacade http) {
+    this(dbStore, http, new NoopBlobCache(), FileUtils.getTempDirectory());
+  }
+
+  public UrlResourceCache(DBStore dbStore, BlobCache blobCache, File spillDirectory) {
+    this(dbStore, new NingHttpClient(asyncHttpClient()), blobCache, spillDirectory);
   }
 
   public UrlResourceCache(DBStore dbStore) {
-    this(dbStore, new NingHttpClient(asyncHttpClient()));
+    this(dbStore, new NoopBlobCache(), FileUtils.getTempDirectory());
   }
 
   @Override
   public RawFile get(
-      String projectName,
+      ProjectRepo repo,
       String url,
       String newPath,
       Map<String, RawFile> fileTable,
-      Map<String, byte[]> fetchedUrls,
+      Map<String, RawFile> fetchedUrls,
       Optional<Long> maxFileSize)
       throws IOException, SizeLimitExceededException {
+    String projectName = repo.getProjectName();
     String path = dbStore.getPathForURLInProject(projectName, getCacheKeyFromUrl(url));
-    byte[] contents;
+    RawFile file;
     if (path == null) {
       path = newPath;
-      contents = fetch(projectName, url, path, maxFileSize);
-      fetchedUrls.put(url, contents);
+      file = load(repo, url, path, maxFileSize);
+      fetchedUrls.put(url, file);
     } else {
       Log.debug("Found (" + projectName + "): " + url);
       Log.debug("At (" + projectName + "): " + path);
-      contents = fetchedUrls.get(url);
-      if (contents == null) {
-        RawFile rawFile = fileTable.get(path);
-        if (rawFile == null) {
+      file = fetchedUrls.get(url);
+      if (file == null) {
+        file = fileTable.get(path);
+        if (file == null) {
           Log.warn(
               "File "
                   + path
@@ -63,60 +95,165 @@ public class UrlResourceCache implements ResourceCache {
                   + "or the git tree, yet path was not null. "
                   + "File url is: "
                   + url);
-          contents = fetch(projectName, url, path, maxFileSize);
-        } else {
-          contents = rawFile.getContents();
+          file = load(repo, url, path, maxFileSize);
         }
       }
     }
-    return new RepositoryFile(newPath, contents);
+    return file.withPath(newPath);
+  }
+
+  /*
+   * Gets the contents of the given url into the project's object database,
+   * and adds it to the url index.
+   *
+   * History blob urls contain the git blob id of the file, so if the blob is
+   * already in the project's object database (e.g. the file was renamed, or
+   * the url index was lost) it is used as is instead of being downloaded
+   * again. Failing that, it may be in the node-wide {@link BlobCache}
+   * because another project uses the same blob.
+   */
+  private RawFile load(ProjectRepo repo, String url, String path, Optional<Long> maxFileSize)
+      throws IOException, SizeLimitExceededException {
+    String projectName = repo.getProjectName();
+    Optional<ObjectId> blobId = getBlobIdFromUrl(url);
+    Optional<RawFile> blob = readBlob(repo, blobId, path, maxFileSize);
+    if (!blob.isPresent() && blobId.isPresent()) {
+      blob = readCachedBlob(repo, blobId.get(), path, maxFileSize);
+    }
+    RawFile file;
+    if (blob.isPresent()) {
+      file = blob.get();
+    } else {
+      file = fetch(repo, url, path, maxFileSize);
+    }
+    dbStore.addURLIndexForProject(projectName, getCacheKeyFromUrl(url), path);
+    return file;
+  }
+
+  private Optional<RawFile> readBlob(
+      ProjectRepo repo, Optional<ObjectId> blobId, String path, Optional<Long> maxFileSize)
+      throws IOException, SizeLimitExceededException {
+    if (!blobId.isPresent()) {
+      return Optional.empty();
+    }
+    Repository repository = repo.getJGitRepository();
+    if (!repository.getObjectDatabase().has(blobId.get())) {
+      return Optional.empty();
+    }
+    long size;
+    try (ObjectReader reader = repository.newObjectReader()) {
+      size = reader.getObjectSize(blobId.get(), Constants.OBJ_BLOB);
+    }
+    checkSize(size, path, maxFileSize);
+    Log.debug("[{}] Found blob {} in repository", repo.getProjectName(), blobId.get().name());
+    return Optional.of(new GitBlobFile(path, repository, blobId.get(), size));
+  }
+
+  private Optional<RawFile> readCachedBlob(
+      ProjectRepo repo, ObjectId blobId, String path, Optional<Long> maxFileSize)
+      throws IOException, SizeLimitExceededException {
+    Optional<File> cached = blobCache.get(blobId);
+    if (!cached.isPresent()) {
+      return Optional.empty();
+    }
+    FileInputStream in;
+    try {
+      in = new FileInputStream(cached.get());
+    } catch (FileNotFoundException e) {
+      Log.debug("Blob {} was evicted from the cache before it was read", blobId.name());
+      return Optional.empty();
+    }
+    try (in) {
+      long size = in.getChannel().size();
+      checkSize(size, path, maxFileSize);
+      return Optional.of(insert(repo, path, size, in));
+    }
   }
 
-  private byte[] fetch(
-      String projectName, final String url, String path, Optional<Long> maxFileSize)
-      throws FailedConnectionException, SizeLimitExceededException {
-    byte[] contents;
-    Log.debug("GET -> " + url);
+  /*
+   * Downloads the given url into a spill file, checking the size as it
+   * arrives, then streams the spill file into the project's object database.
+   * The spill file is handed to the blob cache afterwards if the url is a
+   * history blob url, so the contents are never held in memory.
+   */
+  private RawFile fetch(ProjectRepo repo, final String url, String path, Optional<Long> maxFileSize)
+      throws IOException, SizeLimitExceededException {
+    String projectName = repo.getProjectName();
+    Files.createDirectories(spillDirectory.toPath());
+    File spillFile = Files.createTempFile(spillDirectory.toPath(), "att", null).toFile();
     try {
-      contents =
-          http.get(
-              url,
-              hs -> {
-                List<String> contentLengths = hs.getAll("Content-Length");
-                if (!maxFileSize.isPresent()) {
-                  return true;
-                }
-                if (contentLengths.isEmpty()) {
+      long size;
+      Log.debug("GET -> " + url);
+      try {
+        size =
+            http.getToFile(
+                url,
+                spillFile,
+                hs -> {
+                  List<String> contentLengths = hs.getAll("Content-Length");
+                  if (!maxFileSize.isPresent()) {
+                    return true;
+                  }
+                  if (contentLengths.isEmpty()) {
+                    return true;
+                  }
+                  long contentLength = Long.parseLong(contentLengths.get(0));
+                  long maxFileSize_ = maxFileSize.get();
+                  if (contentLength <= maxFileSize_) {
+                    return true;
+                  }
+                  throw new SizeLimitExceededException(
+                      Optional.of(path), contentLength, maxFileSize_);
+                },
+                received -> {
+                  checkSize(received, path, maxFileSize);
                   return true;
-                }
-                long contentLength = Long.parseLong(contentLengths.get(0));
-                long maxFileSize_ = maxFileSize.get();
-                if (contentLength <= maxFileSize_) {
-                  return true;
-                }
-                throw new SizeLimitExceededException(
-                    Optional.of(path), contentLength, maxFileSize_);
-              });
-    } catch (ExecutionException e) {
-      Throwable cause = e.getCause();
-      if (cause instanceof SizeLimitExceededException) {
-        throw (SizeLimitExceededException) cause;
+                });
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof SizeLimitExceededException) {
+          throw (SizeLimitExceededException) cause;
+        }
+        Log.warn(
+            "ExecutionException when fetching project: "
+                + projectName
+                + ", url: "
+                + url
+                + ", path: "
+                + path,
+            e);
+        throw new FailedConnectionException();
+      }
+      checkSize(size, path, maxFileSize);
+      GitBlobFile file;
+      try (InputStream in = new FileInputStream(spillFile)) {
+        file = insert(repo, path, size, in);
       }
-      Log.warn(
-          "ExecutionException when fetching project: "
-              + projectName
-              + ", url: "
-              + url
-              + ", path: "
-              + path,
-          e);
-      throw new FailedConnectionException();
+      if (getBlobIdFromUrl(url).isPresent()) {
+        blobCache.put(file.getBlobId(), spillFile);
+      }
+      return file;
+    } finally {
+      Files.deleteIfExists(spillFile.toPath());
     }
-    if (maxFileSize.isPresent() && contents.length > maxFileSize.get()) {
-      throw new SizeLimitExceededException(Optional.of(path), contents.length, maxFileSize.get());
+  }
+
+  private static GitBlobFile insert(ProjectRepo repo, String path, long size, InputStream in)
+      throws IOException {
+    Repository repository = repo.getJGitRepository();
+    ObjectId blobId;
+    try (ObjectInserter inserter = repository.newObjectInserter()) {
+      blobId = inserter.insert(Constants.OBJ_BLOB, size, in);
+      inserter.flush();
+    }
+    return new GitBlobFile(path, repository, blobId, size);
+  }
+
+  private static void checkSize(long size, String path, Optional<Long> maxFileSize)
+      throws SizeLimitExceededException {
+    if (maxFileSize.isPresent() && size > maxFileSize.get()) {
+      throw new SizeLimitExceededException(Optional.of(path), size, maxFileSize.get());
     }
-    dbStore.addURLIndexForProject(projectName, getCacheKeyFromUrl(url), path);
-    return contents;
   }
 
   /*
@@ -136,4 +273,17 @@ public class UrlResourceCache implements ResourceCache {
     // https://history.overleaf.com/api/projects/:project_id/blobs/:hash?token=:token&_path=:path
     return url.replaceAll("token=[^&]*", "token=REMOVED");
   }
+
+  /*
+   * Extract the git blob id from a history blob URL, if it is one.
+   *
+   * See {@link #getCacheKeyFromUrl(String)} for the format of the URL.
+   */
+  static Optional<ObjectId> getBlobIdFromUrl(String url) {
+    Matcher matcher = BLOB_URL.matcher(url);
+    if (!matcher.find()) {
+      return Optional.empty();
+    }
+    return Optional.of(ObjectId.fromString(matcher.group(1)));
+  }
 }
@@ -0,0 +1,50 @@
+package uk.ac.ic.wlgitbridge.bridge.snapshot;
+
+import javax.annotation.Nullable;
+
+/*
+ * Settings for talking to the snapshot API.
+ */
+public class SnapshotApiConfig {
+
+  public static final int DEFAULT_LOOKAHEAD = 4;
+  public static final int DEFAULT_POSTBACK_GRACE_PERIOD_SECONDS = 60;
+  public static final int DEFAULT_POSTBACK_POLL_MAX_INTERVAL_SECONDS = 30;
+
+  /* Number of getForVersion requests kept in flight while committing. */
+  @Nullable private final Integer lookahead;
+
+  /*
+   * How long a push waits for its postback before it starts polling getDoc
+   * to see whether the push has gone through anyway.
+   */
+  @Nullable private final Integer postbackGracePeriodSeconds;
+
+  /* The interval between polls backs off up to this. */
+  @Nullable private final Integer postbackPollMaxIntervalSeconds;
+
+  public SnapshotApiConfig(
+      Integer lookahead,
+      Integer postbackGracePeriodSeconds,
+      Integer postbackPollMaxIntervalSeconds) {
+    this.lookahead = lookahead;
+    this.postbackGracePeriodSeconds = postbackGracePeriodSeconds;
+    this.postbackPollMaxIntervalSeconds = postbackPollMaxIntervalSeconds;
+  }
+
+  public int getLookahead() {
+    return lookahead == null ? DEFAULT_LOOKAHEAD : lookahead;
+  }
+
+  public int getPostbackGracePeriodSeconds() {
+    return postbackGracePeriodSeconds == null
+        ? DEFAULT_POSTBACK_GRACE_PERIOD_SECONDS
+        : postbackGracePeriodSeconds;
+  }
+
+  public int getPostbackPollMaxIntervalSeconds() {
+    return postbackPollMaxIntervalSeconds == null
+        ? DEFAULT_POSTBACK_POLL_MAX_INTERVAL_SECONDS
+        : postbackPollMaxIntervalSeconds;
+  }
+}
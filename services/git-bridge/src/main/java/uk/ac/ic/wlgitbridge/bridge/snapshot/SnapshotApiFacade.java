@@ -3,9 +3,7 @@ package uk.ac.ic.wlgitbridge.bridge.snapshot;
 import com.google.api.client.auth.oauth2.Credential;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 import uk.ac.ic.wlgitbridge.data.CandidateSnapshot;
-import uk.ac.ic.wlgitbridge.data.model.Snapshot;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 import uk.ac.ic.wlgitbridge.snapshot.base.ForbiddenException;
 import uk.ac.ic.wlgitbridge.snapshot.base.MissingRepositoryException;
@@ -24,9 +22,15 @@ import uk.ac.ic.wlgitbridge.snapshot.push.exception.InvalidProjectException;
 public class SnapshotApiFacade {
 
   private final SnapshotApi api;
+  private final int lookahead;
 
   public SnapshotApiFacade(SnapshotApi api) {
+    this(api, SnapshotApiConfig.DEFAULT_LOOKAHEAD);
+  }
+
+  public SnapshotApiFacade(SnapshotApi api, int lookahead) {
     this.api = api;
+    this.lookahead = lookahead;
   }
 
   public boolean projectExists(Optional<Credential> oauth2, String projectName)
@@ -50,13 +54,30 @@ public class SnapshotApiFacade {
     }
   }
 
-  public Deque<Snapshot> getSnapshots(
+  /* As {@link #getDoc(Optional, String)}, without waiting for the result. */
+  public CompletableFuture<GetDocResult> getDocAsync(
+      Optional<Credential> oauth2, String projectName) {
+    return api.getDoc(oauth2, projectName);
+  }
+
+  /* The data of one version of the project, without waiting for it. */
+  public CompletableFuture<SnapshotData> getSnapshotDataAsync(
+      Optional<Credential> oauth2, String projectName, int versionId) {
+    return api.getForVersion(oauth2, projectName, versionId)
+        .thenApply(GetForVersionResult::getSnapshotData);
+  }
+
+  /*
+   * Returns the versions of the project after {@code afterVersionId}. Their
+   * data is fetched lazily as the stream is consumed, with at most
+   * {@code lookahead} requests in flight. The caller must close the stream.
+   */
+  public SnapshotStream getSnapshots(
       Optional<Credential> oauth2, String projectName, int afterVersionId)
       throws GitUserException, FailedConnectionException {
     List<SnapshotInfo> snapshotInfos =
         getSnapshotInfosAfterVersion(oauth2, projectName, afterVersionId);
-    List<SnapshotData> snapshotDatas = getMatchingSnapshotData(oauth2, projectName, snapshotInfos);
-    return combine(snapshotInfos, snapshotDatas);
+    return new SnapshotStream(api, oauth2, projectName, snapshotInfos, lookahead);
   }
 
   public PushResult push(
@@ -88,34 +109,4 @@ public class SnapshotApiFacade {
     }
     return new ArrayList<>(versions);
   }
-
-  private List<SnapshotData> getMatchingSnapshotData(
-      Optional<Credential> oauth2, String projectName, List<SnapshotInfo> snapshotInfos)
-      throws FailedConnectionException, ForbiddenException {
-    List<CompletableFuture<GetForVersionResult>> firedRequests =
-        fireDataRequests(oauth2, projectName, snapshotInfos);
-    List<SnapshotData> snapshotDataList = new ArrayList<>();
-    for (CompletableFuture<GetForVersionResult> fired : firedRequests) {
-      snapshotDataList.add(fired.join().getSnapshotData());
-    }
-    return snapshotDataList;
-  }
-
-  private List<CompletableFuture<GetForVersionResult>> fireDataRequests(
-      Optional<Credential> oauth2, String projectName, List<SnapshotInfo> snapshotInfos) {
-    return snapshotInfos.stream()
-        .map(snap -> api.getForVersion(oauth2, projectName, snap.getVersionId()))
-        .collect(Collectors.toList());
-  }
-
-  private static Deque<Snapshot> combine(
-      List<SnapshotInfo> snapshotInfos, List<SnapshotData> snapshotDatas) {
-    Deque<Snapshot> snapshots = new LinkedList<>();
-    Iterator<SnapshotInfo> infos = snapshotInfos.iterator();
-    Iterator<SnapshotData> datas = snapshotDatas.iterator();
-    while (infos.hasNext()) {
-      snapshots.add(new Snapshot(infos.next(), datas.next()));
-    }
-    return snapshots;
-  }
 }
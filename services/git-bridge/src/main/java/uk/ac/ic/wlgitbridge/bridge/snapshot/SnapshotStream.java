@@ -0,0 +1,101 @@
+package uk.ac.ic.wlgitbridge.bridge.snapshot;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import uk.ac.ic.wlgitbridge.data.model.Snapshot;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.GetForVersionResult;
+import uk.ac.ic.wlgitbridge.snapshot.getsavedvers.SnapshotInfo;
+
+/*
+ * The snapshots of a project that still have to be committed, in version
+ * order.
+ *
+ * Rather than requesting the data for every version up front, at most
+ * {@code lookahead} getForVersion requests are in flight at any time: taking
+ * version N with {@link #next()} fires the request for version N + lookahead.
+ * Nothing holds on to a snapshot once it has been handed out, so the heap only
+ * ever contains the snapshot being committed and the ones in the window,
+ * however far behind the project is.
+ *
+ * Closing the stream cancels any requests that are still outstanding.
+ */
+public class SnapshotStream implements AutoCloseable {
+
+  private final SnapshotApi api;
+  private final Optional<Credential> oauth2;
+  private final String projectName;
+  private final Iterator<SnapshotInfo> unrequested;
+  private final int lookahead;
+  private final Deque<PendingSnapshot> inFlight;
+
+  SnapshotStream(
+      SnapshotApi api,
+      Optional<Credential> oauth2,
+      String projectName,
+      List<SnapshotInfo> snapshotInfos,
+      int lookahead) {
+    Preconditions.checkArgument(lookahead > 0, "lookahead must be positive: %s", lookahead);
+    this.api = api;
+    this.oauth2 = oauth2;
+    this.projectName = projectName;
+    this.unrequested = snapshotInfos.iterator();
+    this.lookahead = lookahead;
+    this.inFlight = new ArrayDeque<>(lookahead);
+    fillWindow();
+  }
+
+  public boolean hasNext() {
+    return !inFlight.isEmpty();
+  }
+
+  /*
+   * Waits for the data of the next version and returns it. The request for
+   * the next version outside the window is fired before waiting, so it is
+   * fetched while this one is being committed.
+   */
+  public Snapshot next() throws FailedConnectionException, GitUserException {
+    PendingSnapshot pending = inFlight.pollFirst();
+    if (pending == null) {
+      throw new NoSuchElementException();
+    }
+    fillWindow();
+    GetForVersionResult result = SnapshotApi.getResult(pending.data);
+    return new Snapshot(pending.info, result.getSnapshotData());
+  }
+
+  @Override
+  public void close() {
+    PendingSnapshot pending;
+    while ((pending = inFlight.pollFirst()) != null) {
+      pending.data.cancel(true);
+    }
+  }
+
+  private void fillWindow() {
+    while (inFlight.size() < lookahead && unrequested.hasNext()) {
+      SnapshotInfo info = unrequested.next();
+      inFlight.addLast(
+          new PendingSnapshot(info, api.getForVersion(oauth2, projectName, info.getVersionId())));
+    }
+  }
+
+  private static class PendingSnapshot {
+
+    private final SnapshotInfo info;
+    private final CompletableFuture<GetForVersionResult> data;
+
+    private PendingSnapshot(SnapshotInfo info, CompletableFuture<GetForVersionResult> data) {
+      this.info = info;
+      this.data = data;
+    }
+  }
+}
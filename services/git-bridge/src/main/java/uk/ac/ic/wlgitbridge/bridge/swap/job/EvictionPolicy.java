@@ -0,0 +1,62 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
+import uk.ac.ic.wlgitbridge.util.Log;
+
+/*
+ * Decides which projects the swap job evicts.
+ *
+ * Given the projects that may be evicted, a policy picks enough of them to
+ * free the bytes needed to get down to the low watermark, so that the swap
+ * job can reach it in one pass rather than evicting one project at a time
+ * and measuring the disk again.
+ */
+public interface EvictionPolicy {
+
+  /*
+   * @param candidates the projects that may be evicted, least recently
+   * accessed first
+   * @param bytesToFree the bytes the evicted projects should free between
+   * them
+   * @param maxProjects the most projects that may be chosen
+   * @return the names of the chosen projects, in the order to evict them
+   */
+  List<String> choose(List<SwapCandidate> candidates, long bytesToFree, int maxProjects);
+
+  /*
+   * Takes projects from the front of the given list until they add up to
+   * bytesToFree, or there are maxProjects of them.
+   */
+  static List<String> takeUntilFreed(
+      List<SwapCandidate> ordered, long bytesToFree, int maxProjects) {
+    List<String> chosen = new ArrayList<>();
+    long freed = 0;
+    for (SwapCandidate candidate : ordered) {
+      if (freed >= bytesToFree || chosen.size() >= maxProjects) {
+        break;
+      }
+      chosen.add(candidate.getProjectName());
+      freed += candidate.getDiskBytes();
+    }
+    return chosen;
+  }
+
+  static EvictionPolicy fromName(String name) {
+    if (name == null) {
+      return new LruEvictionPolicy();
+    }
+    switch (name) {
+      case "lru":
+        return new LruEvictionPolicy();
+      case "size":
+        return new SizeWeightedEvictionPolicy();
+      case "2q":
+        return new TwoQueueEvictionPolicy();
+      default:
+        Log.warn("Unknown eviction policy '{}', defaulting to 'lru'", name);
+        return new LruEvictionPolicy();
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.job;
+
+import java.util.List;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
+
+/*
+ * Evicts the least recently accessed projects, however small.
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+  @Override
+  public List<String> choose(List<SwapCandidate> candidates, long bytesToFree, int maxProjects) {
+    return EvictionPolicy.takeUntilFreed(candidates, bytesToFree, maxProjects);
+  }
+}
@@ -0,0 +1,35 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.job;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
+
+/*
+ * Evicts the projects with the most bytes for how recently they were
+ * accessed, so that a few big, stale projects are swapped rather than many
+ * small ones.
+ *
+ * Each candidate is weighted by its size times its rank in the LRU order,
+ * from 1 for the most recently accessed up to the number of candidates for
+ * the least.
+ */
+public class SizeWeightedEvictionPolicy implements EvictionPolicy {
+
+  @Override
+  public List<String> choose(List<SwapCandidate> candidates, long bytesToFree, int maxProjects) {
+    int n = candidates.size();
+    List<Integer> ranks = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      ranks.add(i);
+    }
+    ranks.sort(
+        Comparator.comparingDouble(
+                (Integer i) -> (double) candidates.get(i).getDiskBytes() * (n - i))
+            .reversed()
+            .thenComparing(i -> i));
+    List<SwapCandidate> ordered = new ArrayList<>(n);
+    ranks.forEach(i -> ordered.add(candidates.get(i)));
+    return EvictionPolicy.takeUntilFreed(ordered, bytesToFree, maxProjects);
+  }
+}
@@ -15,7 +15,8 @@ public interface SwapJob {
 
   enum CompressionMethod {
     Bzip2,
-    Gzip
+    Gzip,
+    Zstd
   }
 
   static CompressionMethod stringToCompressionMethod(String compressionString) {
@@ -30,6 +31,9 @@ public interface SwapJob {
       case "bzip2":
         result = CompressionMethod.Bzip2;
         break;
+      case "zstd":
+        result = CompressionMethod.Zstd;
+        break;
       default:
         result = null;
         break;
@@ -49,6 +53,9 @@ public interface SwapJob {
       case Bzip2:
         result = "bzip2";
         break;
+      case Zstd:
+        result = "zstd";
+        break;
       default:
         result = null;
         break;
@@ -1,5 +1,7 @@
 package uk.ac.ic.wlgitbridge.bridge.swap.job;
 
+import java.util.Optional;
+import javax.annotation.Nullable;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJob.CompressionMethod;
 import uk.ac.ic.wlgitbridge.util.Log;
 
@@ -8,12 +10,22 @@ import uk.ac.ic.wlgitbridge.util.Log;
  */
 public class SwapJobConfig {
 
+  public static final String DEFAULT_EVICTION_POLICY = "lru";
+  public static final int DEFAULT_EVICTION_WORKERS = 4;
+  public static final int DEFAULT_MAX_CONCURRENT_COMPRESSIONS = 4;
+  public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 2;
+
   private final int minProjects;
   private final int lowGiB;
   private final int highGiB;
   private final long intervalMillis;
   private final String compressionMethod;
   private final boolean allowUnsafeStores;
+  @Nullable private final String evictionPolicy;
+  @Nullable private final Integer evictionWorkers;
+  @Nullable private final Integer maxConcurrentCompressions;
+  @Nullable private final Integer maxConcurrentUploads;
+  @Nullable private final ZstdConfig zstd;
 
   public SwapJobConfig(
       int minProjects,
@@ -22,12 +34,43 @@ public class SwapJobConfig {
       long intervalMillis,
       String compressionMethod,
       boolean allowUnsafeStores) {
+    this(
+        minProjects,
+        lowGiB,
+        highGiB,
+        intervalMillis,
+        compressionMethod,
+        allowUnsafeStores,
+        null,
+        null,
+        null,
+        null,
+        null);
+  }
+
+  public SwapJobConfig(
+      int minProjects,
+      int lowGiB,
+      int highGiB,
+      long intervalMillis,
+      String compressionMethod,
+      boolean allowUnsafeStores,
+      String evictionPolicy,
+      Integer evictionWorkers,
+      Integer maxConcurrentCompressions,
+      Integer maxConcurrentUploads,
+      ZstdConfig zstd) {
     this.minProjects = minProjects;
     this.lowGiB = lowGiB;
     this.highGiB = highGiB;
     this.intervalMillis = intervalMillis;
     this.compressionMethod = compressionMethod;
     this.allowUnsafeStores = allowUnsafeStores;
+    this.evictionPolicy = evictionPolicy;
+    this.evictionWorkers = evictionWorkers;
+    this.maxConcurrentCompressions = maxConcurrentCompressions;
+    this.maxConcurrentUploads = maxConcurrentUploads;
+    this.zstd = zstd;
   }
 
   public int getMinProjects() {
@@ -50,6 +93,33 @@ public class SwapJobConfig {
     return allowUnsafeStores;
   }
 
+  /* One of "lru", "size" or "2q". */
+  public String getEvictionPolicy() {
+    return evictionPolicy == null ? DEFAULT_EVICTION_POLICY : evictionPolicy;
+  }
+
+  /* The number of projects that are evicted at once. */
+  public int getEvictionWorkers() {
+    return evictionWorkers == null ? DEFAULT_EVICTION_WORKERS : evictionWorkers;
+  }
+
+  /* The most evictions that may be GCing or compressing a project at once. */
+  public int getMaxConcurrentCompressions() {
+    return maxConcurrentCompressions == null
+        ? DEFAULT_MAX_CONCURRENT_COMPRESSIONS
+        : maxConcurrentCompressions;
+  }
+
+  /* The most evictions that may be uploading to the swap store at once. */
+  public int getMaxConcurrentUploads() {
+    return maxConcurrentUploads == null ? DEFAULT_MAX_CONCURRENT_UPLOADS : maxConcurrentUploads;
+  }
+
+  /* Only used when the compression method is "zstd". */
+  public Optional<ZstdConfig> getZstd() {
+    return Optional.ofNullable(zstd);
+  }
+
   public SwapJob.CompressionMethod getCompressionMethod() {
     CompressionMethod result = SwapJob.stringToCompressionMethod(compressionMethod);
     if (result == null) {
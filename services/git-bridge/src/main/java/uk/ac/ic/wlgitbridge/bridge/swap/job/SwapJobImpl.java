@@ -1,31 +1,78 @@
 package uk.ac.ic.wlgitbridge.bridge.swap.job;
 
 import com.google.api.client.repackaged.com.google.common.base.Preconditions;
+import io.prometheus.client.Histogram;
 import java.io.IOException;
 import java.io.InputStream;
-import java.sql.Timestamp;
+import java.io.OutputStream;
 import java.time.Duration;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
 import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockOperation;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
 import uk.ac.ic.wlgitbridge.data.CannotAcquireLockException;
 import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.ReadAheadInputStream;
+import uk.ac.ic.wlgitbridge.util.Tar;
 import uk.ac.ic.wlgitbridge.util.TimerUtils;
 
 /*
  * Created by winston on 20/08/2016.
+ *
+ * Projects are evicted by a pool of workers, so that several of them can be
+ * GCed, compressed and uploaded at once. Each eviction holds its project's
+ * lock, as before, but only once it has a compression permit, so that an
+ * eviction queued behind others doesn't hold up the project's users. GCing and compressing is capped at
+ * {@code maxConcurrentCompressions} evictions at a time, to bound the CPU
+ * the swap job uses, and uploading at {@code maxConcurrentUploads}, to bound
+ * its use of the network. A project's archive is streamed to the swap store
+ * as it is compressed, without a temporary file, so its upload holds both.
+ * The upload cap is therefore a cap within the compression cap, and may be
+ * no higher.
  */
 public class SwapJobImpl implements SwapJob {
 
   private static final long GiB = (1l << 30);
 
+  private static final Histogram restoreStageSeconds =
+      Histogram.build()
+          .name("swap_restore_stage_seconds")
+          .help(
+              "Time each stage of restoring a project spent working, not counting waiting for the"
+                  + " stage before it")
+          .labelNames("stage")
+          .register();
+
+  /* Each stage of a restore reads up to 8 MiB ahead of the next. */
+  static final int READ_AHEAD_CHUNK_SIZE = 256 << 10;
+  static final int READ_AHEAD_CHUNKS = 32;
+
+  static final int CANDIDATE_POOL_SIZE = 1024;
+  static final Duration FAILURE_BACKOFF = Duration.ofHours(1);
+
   int minProjects;
+  int candidatePoolSize = CANDIDATE_POOL_SIZE;
   long lowWatermarkBytes;
   long highWatermarkBytes;
   Duration interval;
@@ -35,8 +82,14 @@ public class SwapJobImpl implements SwapJob {
   private final DBStore dbStore;
   private final SwapStore swapStore;
   private final CompressionMethod compressionMethod;
+  private final ZstdConfig zstd;
+  private final EvictionPolicy evictionPolicy;
 
   private final Timer timer;
+  private final int workers;
+  private final ExecutorService evictionPool;
+  private final Semaphore compressions;
+  private final Semaphore uploads;
 
   final AtomicInteger swaps;
 
@@ -52,6 +105,39 @@ public class SwapJobImpl implements SwapJob {
         GiB * cfg.getHighGiB(),
         Duration.ofMillis(cfg.getIntervalMillis()),
         cfg.getCompressionMethod(),
+        cfg.getZstd().orElse(ZstdConfig.DEFAULT),
+        EvictionPolicy.fromName(cfg.getEvictionPolicy()),
+        cfg.getEvictionWorkers(),
+        cfg.getMaxConcurrentCompressions(),
+        cfg.getMaxConcurrentUploads(),
+        lock,
+        repoStore,
+        dbStore,
+        swapStore);
+  }
+
+  SwapJobImpl(
+      int minProjects,
+      long lowWatermarkBytes,
+      long highWatermarkBytes,
+      Duration interval,
+      CompressionMethod method,
+      EvictionPolicy evictionPolicy,
+      ProjectLock lock,
+      RepoStore repoStore,
+      DBStore dbStore,
+      SwapStore swapStore) {
+    this(
+        minProjects,
+        lowWatermarkBytes,
+        highWatermarkBytes,
+        interval,
+        method,
+        ZstdConfig.DEFAULT,
+        evictionPolicy,
+        SwapJobConfig.DEFAULT_EVICTION_WORKERS,
+        SwapJobConfig.DEFAULT_MAX_CONCURRENT_COMPRESSIONS,
+        SwapJobConfig.DEFAULT_MAX_CONCURRENT_UPLOADS,
         lock,
         repoStore,
         dbStore,
@@ -64,20 +150,54 @@ public class SwapJobImpl implements SwapJob {
       long highWatermarkBytes,
       Duration interval,
       CompressionMethod method,
+      ZstdConfig zstd,
+      EvictionPolicy evictionPolicy,
+      int evictionWorkers,
+      int maxConcurrentCompressions,
+      int maxConcurrentUploads,
       ProjectLock lock,
       RepoStore repoStore,
       DBStore dbStore,
       SwapStore swapStore) {
+    Preconditions.checkArgument(
+        evictionWorkers > 0, "evictionWorkers must be positive: %s", evictionWorkers);
+    Preconditions.checkArgument(
+        maxConcurrentCompressions > 0,
+        "maxConcurrentCompressions must be positive: %s",
+        maxConcurrentCompressions);
+    Preconditions.checkArgument(
+        maxConcurrentUploads > 0,
+        "maxConcurrentUploads must be positive: %s",
+        maxConcurrentUploads);
+    Preconditions.checkArgument(
+        maxConcurrentUploads <= maxConcurrentCompressions,
+        "maxConcurrentUploads (%s) must not exceed maxConcurrentCompressions (%s)",
+        maxConcurrentUploads,
+        maxConcurrentCompressions);
     this.minProjects = minProjects;
     this.lowWatermarkBytes = lowWatermarkBytes;
     this.highWatermarkBytes = highWatermarkBytes;
     this.interval = interval;
     this.compressionMethod = method;
+    this.zstd = zstd;
+    this.evictionPolicy = evictionPolicy;
     this.lock = lock;
     this.repoStore = repoStore;
     this.dbStore = dbStore;
     this.swapStore = swapStore;
     timer = new Timer();
+    workers = evictionWorkers;
+    AtomicInteger threadCount = new AtomicInteger();
+    evictionPool =
+        Executors.newFixedThreadPool(
+            evictionWorkers,
+            r -> {
+              Thread t = new Thread(r, "swap-eviction-" + threadCount.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+    compressions = new Semaphore(maxConcurrentCompressions);
+    uploads = new Semaphore(maxConcurrentUploads);
     swaps = new AtomicInteger(0);
   }
 
@@ -89,6 +209,7 @@ public class SwapJobImpl implements SwapJob {
   @Override
   public void stop() {
     timer.cancel();
+    evictionPool.shutdown();
   }
 
   private void doSwap() {
@@ -100,6 +221,24 @@ public class SwapJobImpl implements SwapJob {
     timer.schedule(TimerUtils.makeTimerTask(this::doSwap), interval.toMillis());
   }
 
+  /*
+   * Swaps projects until the repo store is under the low watermark, or only
+   * minProjects projects are left on disk.
+   *
+   * The size of the repo store and the number of projects on disk are
+   * counted once, at the start, and then kept up to date as projects are
+   * evicted. The least recently accessed {@link #CANDIDATE_POOL_SIZE}
+   * projects are looked up with their sizes, and the eviction policy picks
+   * the ones that should free enough bytes between them. A project whose
+   * size hasn't been recorded yet is measured first. A project that fails to
+   * swap is held back from swapping by the db store for a while, rather than
+   * being looked at again on every run.
+   *
+   * Up to {@code evictionWorkers} projects are evicted at once. The projects
+   * being evicted are counted as gone when deciding whether to start
+   * another, so the job doesn't overshoot the low watermark or minProjects
+   * by more than the recorded sizes are off by.
+   */
   private void doSwap_() {
     ArrayList<String> exceptionProjectNames = new ArrayList<String>();
 
@@ -111,37 +250,64 @@ public class SwapJobImpl implements SwapJob {
       swaps.incrementAndGet();
       return;
     }
-    int numProjects = dbStore.getNumProjects();
-    // while we have too many projects on disk
-    while ((totalSize = repoStore.totalSize()) > lowWatermarkBytes
-        && (numProjects = dbStore.getNumUnswappedProjects()) > minProjects) {
-      // check if we've had too many exceptions so far
-      if (exceptionProjectNames.size() >= 20) {
-        StringBuilder sb = new StringBuilder();
-        for (String s : exceptionProjectNames) {
-          sb.append(s);
-          sb.append(' ');
-        }
-        Log.error(
-            "Too many exceptions while running swap, giving up on this run: {}", sb.toString());
+    int numProjects = dbStore.getNumUnswappedProjects();
+    Set<String> tried = new HashSet<>();
+    CompletionService<Long> evictions = new ExecutorCompletionService<>(evictionPool);
+    Map<Future<Long>, SwapCandidate> inFlight = new HashMap<>();
+    long inFlightBytes = 0;
+    Iterator<SwapCandidate> chosen = Collections.emptyIterator();
+    boolean gaveUp = false;
+    while (true) {
+      // start another eviction while we have too many projects on disk and
+      // a worker to spare
+      boolean canStart =
+          !gaveUp
+              && totalSize - inFlightBytes > lowWatermarkBytes
+              && numProjects - inFlight.size() > minProjects
+              && inFlight.size() < workers;
+      if (canStart && !chosen.hasNext()) {
+        chosen = choose(tried, totalSize - inFlightBytes, numProjects - inFlight.size()).iterator();
+      }
+      if (canStart && chosen.hasNext()) {
+        SwapCandidate candidate = chosen.next();
+        String projectName = candidate.getProjectName();
+        tried.add(projectName);
+        inFlight.put(evictions.submit(() -> tryEvict(projectName)), candidate);
+        inFlightBytes += candidate.getDiskBytes();
+        continue;
+      }
+      if (inFlight.isEmpty()) {
         break;
       }
-      // get the oldest project and try to swap it
-      String projectName = dbStore.getOldestUnswappedProject();
+      Future<Long> eviction = takeFinished(evictions);
+      SwapCandidate candidate = inFlight.remove(eviction);
+      inFlightBytes -= candidate.getDiskBytes();
+      String projectName = candidate.getProjectName();
       try {
-        evict(projectName);
-      } catch (Exception e) {
-        Log.warn("[{}] Exception while swapping, mark project and move on", projectName, e);
-        // NOTE: this is something of a hack. If a project fails to swap we get stuck in a
-        // loop where `dbStore.getOldestUnswappedProject()` gives the same failing project over and
-        // over again,
-        // which fills up the disk with errors. By touching the access time we can mark the project
-        // as a
-        // non-candidate for swapping. Ideally we should be checking the logs for these log events
-        // and fixing
-        // whatever is wrong with the project
-        dbStore.setLastAccessedTime(projectName, Timestamp.valueOf(LocalDateTime.now()));
+        long evictedBytes = eviction.get();
+        if (evictedBytes >= 0) {
+          totalSize -= evictedBytes;
+          numProjects--;
+        }
+      } catch (ExecutionException e) {
+        Log.warn(
+            "[{}] Exception while swapping, backing off and moving on", projectName, e.getCause());
+        dbStore.recordSwapFailure(projectName, FAILURE_BACKOFF);
         exceptionProjectNames.add(projectName);
+        // check if we've had too many exceptions so far
+        if (!gaveUp && exceptionProjectNames.size() >= 20) {
+          StringBuilder sb = new StringBuilder();
+          for (String s : exceptionProjectNames) {
+            sb.append(s);
+            sb.append(' ');
+          }
+          Log.error(
+              "Too many exceptions while running swap, giving up on this run: {}", sb.toString());
+          gaveUp = true;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
       }
     }
     if (lowWatermarkBytes > 0 && totalSize > lowWatermarkBytes) {
@@ -152,23 +318,83 @@ public class SwapJobImpl implements SwapJob {
     Log.debug(
         "Size: {}/{} (low), "
             + "{} (high), "
-            + "projects on disk: {}/{}, "
+            + "projects on disk: {}, "
             + "min projects on disk: {}",
         totalSize,
         lowWatermarkBytes,
         highWatermarkBytes,
         numProjects,
-        dbStore.getNumProjects(),
         minProjects);
     swaps.incrementAndGet();
   }
 
+  /*
+   * Has the eviction policy pick projects to free the given bytes, from the
+   * ones that haven't been tried on this run. Projects that were skipped
+   * because they were locked would come back in the pool, so they are left
+   * for the next run. If every project in a batch of candidates has been
+   * tried, the next batch is looked at instead.
+   */
+  private List<SwapCandidate> choose(Set<String> tried, long totalSize, int numProjects) {
+    Map<String, SwapCandidate> pool = new LinkedHashMap<>();
+    for (int offset = 0; pool.isEmpty(); offset += candidatePoolSize) {
+      List<SwapCandidate> batch = dbStore.getSwapCandidates(offset, candidatePoolSize);
+      for (SwapCandidate candidate : batch) {
+        if (!tried.contains(candidate.getProjectName())) {
+          pool.put(candidate.getProjectName(), measureIfUnknown(candidate));
+        }
+      }
+      if (batch.size() < candidatePoolSize) {
+        break;
+      }
+    }
+    List<SwapCandidate> chosen = new ArrayList<>();
+    for (String projectName :
+        evictionPolicy.choose(
+            new ArrayList<>(pool.values()),
+            totalSize - lowWatermarkBytes,
+            numProjects - minProjects)) {
+      chosen.add(pool.get(projectName));
+    }
+    return chosen;
+  }
+
+  /* Only called when an eviction is in flight. */
+  private static Future<Long> takeFinished(CompletionService<Long> evictions) {
+    try {
+      return evictions.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  /*
+   * Projects that were on disk before their sizes were recorded are measured
+   * the first time they are a candidate, and their sizes kept.
+   */
+  private SwapCandidate measureIfUnknown(SwapCandidate candidate) {
+    if (candidate.getDiskBytes() > 0) {
+      return candidate;
+    }
+    String projectName = candidate.getProjectName();
+    try {
+      long diskBytes = repoStore.projectSize(projectName);
+      dbStore.setDiskBytesForProject(projectName, diskBytes);
+      return candidate.withDiskBytes(diskBytes);
+    } catch (RuntimeException e) {
+      Log.warn("[{}] Failed to measure project for swapping", projectName, e);
+      return candidate;
+    }
+  }
+
   /*
    * @see SwapJob#evict(String) for high-level description.
    *
-   * 1. Acquires the project lock.
-   * 2. Gets a bz2 stream and size of a project from the repo store, or throws
-   * 3. Uploads the bz2 stream and size to the projName in the swapStore.
+   * 1. Waits for a compression permit, then acquires the project lock.
+   * 2. GCs the project.
+   * 3. Streams a compressed tar of the project from the repo store to the
+   *    projName in the swapStore, or throws.
    * 4. Sets the last accessed time in the dbStore to null, which makes our
    *    state SWAPPED
    * 5. Removes the project from the repo store.
@@ -177,36 +403,67 @@ public class SwapJobImpl implements SwapJob {
    */
   @Override
   public void evict(String projName) throws IOException {
+    tryEvict(projName);
+  }
+
+  /*
+   * @return the size the project had on disk, or -1 if its lock couldn't be
+   * taken, in which case it was left alone
+   */
+  private long tryEvict(String projName) throws IOException {
     Preconditions.checkNotNull(projName, "projName was null");
     Log.debug("Evicting project: {}", projName);
-    try (LockGuard __ = lock.lockGuard(projName)) {
+    long size;
+    /* Taken before the lock, so that waiting for it doesn't lock out users */
+    acquire(compressions);
+    try (LockGuard __ = lock.lockGuard(projName, LockOperation.SWAP)) {
       try {
         repoStore.gcProject(projName);
       } catch (Exception e) {
         Log.error("[{}] Exception while running gc on project: {}", projName, e);
       }
-      long[] sizePtr = new long[1];
-      try (InputStream blob = getBlobStream(projName, sizePtr)) {
-        swapStore.upload(projName, blob, sizePtr[0]);
-        String compression = SwapJob.compressionMethodAsString(compressionMethod);
-        if (compression == null) {
-          throw new RuntimeException("invalid compression method, should not happen");
-        }
-        dbStore.swap(projName, compression);
-        repoStore.remove(projName);
+      size = repoStore.projectSize(projName);
+      // the archive is compressed as it is uploaded, so this holds both
+      acquire(uploads);
+      try {
+        long projectBytes = size;
+        swapStore.upload(projName, out -> writeArchive(projName, projectBytes, out));
+      } finally {
+        uploads.release();
+      }
+      String compression = SwapJob.compressionMethodAsString(compressionMethod);
+      if (compression == null) {
+        throw new RuntimeException("invalid compression method, should not happen");
       }
+      dbStore.swap(projName, compression);
+      repoStore.remove(projName);
     } catch (CannotAcquireLockException e) {
       Log.warn("[{}] Cannot acquire project lock, skipping swap", projName);
-      return;
+      return -1;
+    } finally {
+      compressions.release();
     }
     Log.debug("Evicted project: {}", projName);
+    return size;
+  }
+
+  private static void acquire(Semaphore permits) {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
   }
 
-  private InputStream getBlobStream(String projName, long[] sizePtr) throws IOException {
+  private void writeArchive(String projName, long projectBytes, OutputStream out)
+      throws IOException {
     if (compressionMethod == CompressionMethod.Gzip) {
-      return repoStore.gzipProject(projName, sizePtr);
+      repoStore.gzipProjectTo(projName, out);
     } else if (compressionMethod == CompressionMethod.Bzip2) {
-      return repoStore.bzip2Project(projName, sizePtr);
+      repoStore.bzip2ProjectTo(projName, out);
+    } else if (compressionMethod == CompressionMethod.Zstd) {
+      repoStore.zstdProjectTo(projName, out, zstd.levelFor(projectBytes), zstd.getWorkers());
     } else {
       throw new RuntimeException("invalid compression method, should not happen");
     }
@@ -215,9 +472,10 @@ public class SwapJobImpl implements SwapJob {
   /*
    * @see SwapJob#restore(String) for high-level description.
    *
-   * 1. Acquires the project lock.
-   * 2. Gets a bz2 stream for the project from the swapStore.
-   * 3. Fully downloads and places the bz2 stream back in the repo store.
+   * 1. Waits for a compression permit, then acquires the project lock.
+   * 2. Streams the compressed tar of the project from the swapStore,
+   *    decompresses it, and untars it into the repo store, as three stages
+   *    that each run on their own thread and read ahead of the next.
    * 4. Sets the last accessed time in the dbStore to now, which makes our
    *    state PRESENT and the last project to be evicted.
    * @param projName
@@ -225,23 +483,56 @@ public class SwapJobImpl implements SwapJob {
    */
   @Override
   public void restore(String projName) throws IOException {
-    try (LockGuard __ = lock.lockGuard(projName)) {
-      try (InputStream zipped = swapStore.openDownloadStream(projName)) {
+    try (LockGuard __ = lock.lockGuard(projName, LockOperation.SWAP)) {
+      long start = System.nanoTime();
+      try (ReadAheadInputStream zipped =
+          new ReadAheadInputStream(
+              swapStore.openDownloadStream(projName),
+              READ_AHEAD_CHUNK_SIZE,
+              READ_AHEAD_CHUNKS,
+              "swap-restore-download-" + projName)) {
         String compression = dbStore.getSwapCompression(projName);
         if (compression == null) {
           throw new RuntimeException(
               "Missing compression method during restore, should not happen");
         }
-        if ("gzip".equals(compression)) {
-          repoStore.ungzipProject(projName, zipped);
-        } else if ("bzip2".equals(compression)) {
-          repoStore.unbzip2Project(projName, zipped);
+        try (ReadAheadInputStream tar =
+            new ReadAheadInputStream(
+                decompress(compression, zipped),
+                READ_AHEAD_CHUNK_SIZE,
+                READ_AHEAD_CHUNKS,
+                "swap-restore-decompress-" + projName)) {
+          long extractStart = System.nanoTime();
+          repoStore.untarProject(projName, tar);
+          long end = System.nanoTime();
+          observeRestoreStage("download", zipped.getSourceNanos());
+          observeRestoreStage("decompress", tar.getSourceNanos() - zipped.getWaitNanos());
+          /* All of the reads of the tar are made while extracting it */
+          observeRestoreStage("extract", end - extractStart - tar.getWaitNanos());
+          observeRestoreStage("total", end - start);
         }
         swapStore.remove(projName);
         dbStore.restore(projName);
+        dbStore.setDiskBytesForProject(projName, repoStore.projectSize(projName));
       }
     } catch (CannotAcquireLockException e) {
       throw new RuntimeException(e);
     }
   }
+
+  private static InputStream decompress(String compression, InputStream zipped) throws IOException {
+    if ("gzip".equals(compression)) {
+      return Tar.gzip.decompress(zipped);
+    } else if ("bzip2".equals(compression)) {
+      return Tar.bz2.decompress(zipped);
+    } else if ("zstd".equals(compression)) {
+      return Tar.zstd.decompress(zipped);
+    } else {
+      throw new RuntimeException("invalid compression method, should not happen");
+    }
+  }
+
+  private static void observeRestoreStage(String stage, long nanos) {
+    restoreStageSeconds.labels(stage).observe(Math.max(0, nanos) / 1e9);
+  }
 }
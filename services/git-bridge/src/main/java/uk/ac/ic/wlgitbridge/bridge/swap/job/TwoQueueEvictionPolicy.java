@@ -0,0 +1,34 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
+
+/*
+ * A 2Q-style policy, which protects projects that have proven to be used
+ * again.
+ *
+ * A project that was restored from the swap store was wanted again after it
+ * had gone cold, so it is in the protected queue. A project that was cloned
+ * here and has never been swapped is on probation. Projects on probation
+ * are evicted first, least recently accessed first, and the protected ones
+ * only after them.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+  @Override
+  public List<String> choose(List<SwapCandidate> candidates, long bytesToFree, int maxProjects) {
+    List<SwapCandidate> ordered = new ArrayList<>(candidates.size());
+    for (SwapCandidate candidate : candidates) {
+      if (!candidate.wasRestored()) {
+        ordered.add(candidate);
+      }
+    }
+    for (SwapCandidate candidate : candidates) {
+      if (candidate.wasRestored()) {
+        ordered.add(candidate);
+      }
+    }
+    return EvictionPolicy.takeUntilFreed(ordered, bytesToFree, maxProjects);
+  }
+}
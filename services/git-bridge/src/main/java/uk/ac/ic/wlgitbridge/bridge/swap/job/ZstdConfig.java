@@ -0,0 +1,81 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.job;
+
+import com.google.common.base.Preconditions;
+import javax.annotation.Nullable;
+
+/*
+ * Settings for compressing swapped projects with zstd.
+ *
+ * In adaptive mode, the level is picked by the size of the project on
+ * disk: small projects are cheap to compress hard, and big ones get a
+ * lower level so that evicting them doesn't take too long.
+ */
+public class ZstdConfig {
+
+  public static final int MIN_LEVEL = 1;
+  public static final int MAX_LEVEL = 19;
+  public static final int DEFAULT_LEVEL = 3;
+  public static final int DEFAULT_WORKERS = 2;
+  public static final ZstdConfig DEFAULT = new ZstdConfig(null, null, null);
+
+  private static final long MiB = 1L << 20;
+
+  /* From 1 (fastest) to 19 (smallest). */
+  @Nullable private final Integer level;
+
+  /* Threads compressing each archive. 0 compresses on the evicting thread. */
+  @Nullable private final Integer workers;
+
+  @Nullable private final Boolean adaptive;
+
+  public ZstdConfig(Integer level, Integer workers, Boolean adaptive) {
+    this.level = level;
+    this.workers = workers;
+    this.adaptive = adaptive;
+    validate();
+  }
+
+  /*
+   * Gson doesn't call the constructor, so a config read from JSON has to be
+   * validated once it is loaded.
+   * @throws IllegalArgumentException if the level or workers are out of range
+   */
+  public void validate() {
+    Preconditions.checkArgument(
+        getLevel() >= MIN_LEVEL && getLevel() <= MAX_LEVEL,
+        "zstd level must be from %s to %s: %s",
+        MIN_LEVEL,
+        MAX_LEVEL,
+        getLevel());
+    Preconditions.checkArgument(
+        getWorkers() >= 0, "zstd workers must not be negative: %s", getWorkers());
+  }
+
+  public int getLevel() {
+    return level == null ? DEFAULT_LEVEL : level;
+  }
+
+  public int getWorkers() {
+    return workers == null ? DEFAULT_WORKERS : workers;
+  }
+
+  public boolean isAdaptive() {
+    return adaptive != null && adaptive;
+  }
+
+  /* The level to compress a project of the given size with. */
+  public int levelFor(long projectBytes) {
+    if (!isAdaptive()) {
+      return getLevel();
+    }
+    if (projectBytes < 16 * MiB) {
+      return MAX_LEVEL;
+    } else if (projectBytes < 256 * MiB) {
+      return Math.max(getLevel(), 9);
+    } else if (projectBytes < 2048 * MiB) {
+      return getLevel();
+    } else {
+      return MIN_LEVEL;
+    }
+  }
+}
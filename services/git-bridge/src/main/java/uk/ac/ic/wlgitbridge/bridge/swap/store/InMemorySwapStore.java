@@ -1,21 +1,25 @@
 package uk.ac.ic.wlgitbridge.bridge.swap.store;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.io.IOUtils;
 
 /*
  * Created by winston on 23/08/2016.
+ *
+ * Projects may be swapped by several eviction workers at once, so the
+ * store is a concurrent map.
  */
 public class InMemorySwapStore implements SwapStore {
 
   private final Map<String, byte[]> store;
 
   public InMemorySwapStore() {
-    store = new HashMap<>();
+    store = new ConcurrentHashMap<>();
   }
 
   public InMemorySwapStore(SwapStoreConfig __) {
@@ -28,6 +32,13 @@ public class InMemorySwapStore implements SwapStore {
     store.put(projectName, IOUtils.toByteArray(uploadStream, contentLength));
   }
 
+  @Override
+  public void upload(String projectName, ContentWriter content) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    content.writeTo(out);
+    store.put(projectName, out.toByteArray());
+  }
+
   @Override
   public InputStream openDownloadStream(String projectName) {
     byte[] buf = store.get(projectName);
@@ -1,7 +1,9 @@
 package uk.ac.ic.wlgitbridge.bridge.swap.store;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 /*
  * Created by winston on 24/08/2016.
@@ -13,6 +15,11 @@ public class NoopSwapStore implements SwapStore {
   @Override
   public void upload(String projectName, InputStream uploadStream, long contentLength) {}
 
+  @Override
+  public void upload(String projectName, ContentWriter content) throws IOException {
+    content.writeTo(OutputStream.nullOutputStream());
+  }
+
   @Override
   public InputStream openDownloadStream(String projectName) {
     return new ByteArrayInputStream(new byte[0]);
@@ -1,6 +1,21 @@
 package uk.ac.ic.wlgitbridge.bridge.swap.store;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.sync.RequestBody;
@@ -11,13 +26,33 @@ import software.amazon.awssdk.services.s3.model.*;
 
 /*
  * Created by winston on 21/08/2016.
+ *
+ * A streaming upload is buffered {@link #PART_SIZE} bytes at a time. If the
+ * content fits in one buffer it is put as a single object. Otherwise each
+ * full buffer is uploaded as a part of a multipart upload, in the
+ * background while the next one is filled, with at most
+ * {@link #MAX_PARTS_IN_FLIGHT} parts uploading at once per upload. Writing
+ * blocks while they are, so an upload holds at most
+ * {@code MAX_PARTS_IN_FLIGHT + 1} buffers, however big the content.
+ *
+ * Likewise, an object bigger than {@link #RANGED_DOWNLOAD_THRESHOLD} is
+ * downloaded as ranges of {@link #PART_SIZE} bytes, with up to
+ * {@link #MAX_RANGES_IN_FLIGHT} of them being fetched ahead of the reader.
  */
 public class S3SwapStore implements SwapStore {
 
+  /* S3 needs every part but the last to be at least 5 MiB. */
+  static final int PART_SIZE = 8 << 20;
+  static final int MAX_PARTS_IN_FLIGHT = 2;
+  static final long RANGED_DOWNLOAD_THRESHOLD = 2L * PART_SIZE;
+  static final int MAX_RANGES_IN_FLIGHT = 4;
+
   private final S3Client s3;
 
   private final String bucketName;
 
+  private final ExecutorService transfers;
+
   public S3SwapStore(SwapStoreConfig cfg) {
     this(
         cfg.getAwsAccessKey(),
@@ -28,6 +63,24 @@ public class S3SwapStore implements SwapStore {
   }
 
   S3SwapStore(String accessKey, String secret, String bucketName, String region, String endpoint) {
+    this(buildClient(accessKey, secret, region, endpoint), bucketName);
+  }
+
+  S3SwapStore(S3Client s3, String bucketName) {
+    this.s3 = s3;
+    this.bucketName = bucketName;
+    AtomicInteger threadCount = new AtomicInteger();
+    transfers =
+        Executors.newCachedThreadPool(
+            r -> {
+              Thread t = new Thread(r, "s3-transfer-" + threadCount.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+  }
+
+  private static S3Client buildClient(
+      String accessKey, String secret, String region, String endpoint) {
     Region regionToUse = null;
     if (region == null) {
       regionToUse = Region.US_EAST_1;
@@ -43,8 +96,7 @@ public class S3SwapStore implements SwapStore {
     if (endpoint != null && !endpoint.isEmpty()) {
       builder.forcePathStyle(true).endpointOverride(java.net.URI.create(endpoint));
     }
-    s3 = builder.build();
-    this.bucketName = bucketName;
+    return builder.build();
   }
 
   @Override
@@ -58,8 +110,25 @@ public class S3SwapStore implements SwapStore {
     s3.putObject(put, RequestBody.fromInputStream(uploadStream, contentLength));
   }
 
+  @Override
+  public void upload(String projectName, ContentWriter content) throws IOException {
+    MultipartUploadStream out = new MultipartUploadStream(projectName);
+    try {
+      content.writeTo(out);
+      out.complete();
+    } catch (IOException | RuntimeException | Error e) {
+      out.abort();
+      throw e;
+    }
+  }
+
   @Override
   public InputStream openDownloadStream(String projectName) {
+    HeadObjectResponse head =
+        s3.headObject(HeadObjectRequest.builder().bucket(bucketName).key(projectName).build());
+    if (head.contentLength() > RANGED_DOWNLOAD_THRESHOLD) {
+      return new RangedDownloadStream(projectName, head.contentLength(), head.eTag());
+    }
     GetObjectRequest get = GetObjectRequest.builder().bucket(bucketName).key(projectName).build();
     return s3.getObject(get);
   }
@@ -75,4 +144,229 @@ public class S3SwapStore implements SwapStore {
   public boolean isSafe() {
     return true;
   }
+
+  @Override
+  public void stop() {
+    transfers.shutdown();
+  }
+
+  /*
+   * Only written to by one thread. The multipart upload is created when the
+   * first buffer fills up.
+   */
+  private class MultipartUploadStream extends OutputStream {
+
+    private final String projectName;
+    private final Semaphore partsInFlight = new Semaphore(MAX_PARTS_IN_FLIGHT);
+    private final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final List<Future<CompletedPart>> parts = new ArrayList<>();
+    private String uploadId = null;
+    private byte[] buffer = new byte[PART_SIZE];
+    private int count = 0;
+
+    MultipartUploadStream(String projectName) {
+      this.projectName = projectName;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buffer.length) {
+        uploadPart();
+      }
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buffer.length) {
+          uploadPart();
+        }
+        int n = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    void complete() throws IOException {
+      if (uploadId == null) {
+        upload(projectName, new ByteArrayInputStream(buffer, 0, count), count);
+        return;
+      }
+      uploadPart();
+      List<CompletedPart> completed = new ArrayList<>(parts.size());
+      for (Future<CompletedPart> part : parts) {
+        completed.add(await(part));
+      }
+      s3.completeMultipartUpload(
+          CompleteMultipartUploadRequest.builder()
+              .bucket(bucketName)
+              .key(projectName)
+              .uploadId(uploadId)
+              .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+              .build());
+    }
+
+    /* Waits for the parts in flight, so that none of them outlive the abort. */
+    void abort() {
+      if (uploadId == null) {
+        return;
+      }
+      for (Future<CompletedPart> part : parts) {
+        try {
+          await(part);
+        } catch (IOException | RuntimeException __) {
+        }
+      }
+      s3.abortMultipartUpload(
+          AbortMultipartUploadRequest.builder()
+              .bucket(bucketName)
+              .key(projectName)
+              .uploadId(uploadId)
+              .build());
+    }
+
+    private void uploadPart() throws IOException {
+      if (uploadId == null) {
+        uploadId =
+            s3.createMultipartUpload(
+                    CreateMultipartUploadRequest.builder()
+                        .bucket(bucketName)
+                        .key(projectName)
+                        .build())
+                .uploadId();
+      }
+      // fail fast if a part has already failed
+      for (Future<CompletedPart> part : parts) {
+        if (part.isDone()) {
+          await(part);
+        }
+      }
+      try {
+        partsInFlight.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+      byte[] part = buffer;
+      int length = count;
+      int partNumber = parts.size() + 1;
+      parts.add(
+          transfers.submit(
+              () -> {
+                try {
+                  UploadPartResponse response =
+                      s3.uploadPart(
+                          UploadPartRequest.builder()
+                              .bucket(bucketName)
+                              .key(projectName)
+                              .uploadId(uploadId)
+                              .partNumber(partNumber)
+                              .contentLength((long) length)
+                              .build(),
+                          RequestBody.fromInputStream(
+                              new ByteArrayInputStream(part, 0, length), length));
+                  return CompletedPart.builder()
+                      .partNumber(partNumber)
+                      .eTag(response.eTag())
+                      .build();
+                } finally {
+                  freeBuffers.add(part);
+                  partsInFlight.release();
+                }
+              }));
+      byte[] free = freeBuffers.poll();
+      buffer = free == null ? new byte[PART_SIZE] : free;
+      count = 0;
+    }
+  }
+
+  /*
+   * Reads an object as consecutive ranges, each fetched in the background.
+   * Every range must come from the same version of the object.
+   */
+  private class RangedDownloadStream extends InputStream {
+
+    private final String projectName;
+    private final long size;
+    private final String eTag;
+    private final Deque<Future<byte[]>> ranges = new ArrayDeque<>();
+    private long nextOffset = 0;
+    private byte[] current = new byte[0];
+    private int pos = 0;
+
+    RangedDownloadStream(String projectName, long size, String eTag) {
+      this.projectName = projectName;
+      this.size = size;
+      this.eTag = eTag;
+      fetchAhead();
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (pos == current.length) {
+        if (ranges.isEmpty()) {
+          return -1;
+        }
+        current = await(ranges.poll());
+        pos = 0;
+        fetchAhead();
+      }
+      int n = Math.min(len, current.length - pos);
+      System.arraycopy(current, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public void close() {
+      ranges.forEach(range -> range.cancel(true));
+      ranges.clear();
+    }
+
+    private void fetchAhead() {
+      while (ranges.size() < MAX_RANGES_IN_FLIGHT && nextOffset < size) {
+        long first = nextOffset;
+        long last = Math.min(size, first + PART_SIZE) - 1;
+        ranges.add(
+            transfers.submit(
+                () ->
+                    s3.getObjectAsBytes(
+                            GetObjectRequest.builder()
+                                .bucket(bucketName)
+                                .key(projectName)
+                                .range("bytes=" + first + "-" + last)
+                                .ifMatch(eTag)
+                                .build())
+                        .asByteArray()));
+        nextOffset = last + 1;
+      }
+    }
+  }
+
+  private static <T> T await(Future<T> transfer) throws IOException {
+    try {
+      return transfer.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
 }
@@ -2,6 +2,7 @@ package uk.ac.ic.wlgitbridge.bridge.swap.store;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -30,6 +31,15 @@ public interface SwapStore {
 
   void upload(String projectName, InputStream uploadStream, long contentLength) throws IOException;
 
+  /*
+   * Uploads whatever content writes, without knowing its length up front.
+   * The stream given to content must not be closed by it.
+   *
+   * If content throws, nothing is stored for the project and the exception
+   * is rethrown.
+   */
+  void upload(String projectName, ContentWriter content) throws IOException;
+
   InputStream openDownloadStream(String projectName);
 
   void remove(String projectName);
@@ -40,4 +50,14 @@ public interface SwapStore {
    * Fake swap stores should return false.
    */
   boolean isSafe();
+
+  /* Stops any background work of the store, on shutdown. */
+  default void stop() {}
+
+  /* Writes the content of a streaming upload. */
+  @FunctionalInterface
+  interface ContentWriter {
+
+    void writeTo(OutputStream out) throws IOException;
+  }
 }
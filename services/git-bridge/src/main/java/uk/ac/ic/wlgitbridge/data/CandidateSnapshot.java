@@ -3,76 +3,86 @@ package uk.ac.ic.wlgitbridge.data;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import java.io.File;
-import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import java.util.Optional;
+import java.util.function.Function;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RawTreeDiff;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotAttachment;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotData;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotFile;
 import uk.ac.ic.wlgitbridge.util.Util;
 
 /*
  * Created by Winston on 16/11/14.
  */
-public class CandidateSnapshot implements AutoCloseable {
+public class CandidateSnapshot {
 
   private final String projectName;
   private final int currentVersion;
   private final List<ServletFile> files;
+  private final Map<String, ServletFile> changedFiles;
   private final List<String> deleted;
-  private File attsDirectory;
 
-  public CandidateSnapshot(
-      String projectName,
-      int currentVersion,
-      RawDirectory directoryContents,
-      RawDirectory oldDirectoryContents) {
+  public CandidateSnapshot(String projectName, int currentVersion, RawTreeDiff diff) {
     this.projectName = projectName;
     this.currentVersion = currentVersion;
-    files = diff(directoryContents, oldDirectoryContents);
-    deleted = deleted(directoryContents, oldDirectoryContents);
-  }
-
-  private List<ServletFile> diff(
-      RawDirectory directoryContents, RawDirectory oldDirectoryContents) {
-    List<ServletFile> files = new LinkedList<ServletFile>();
-    Map<String, RawFile> fileTable = directoryContents.getFileTable();
-    Map<String, RawFile> oldFileTable = oldDirectoryContents.getFileTable();
-    for (Entry<String, RawFile> entry : fileTable.entrySet()) {
-      RawFile file = entry.getValue();
-      files.add(new ServletFile(file, oldFileTable.get(file.getPath())));
+    files = new ArrayList<>(diff.getFiles().size());
+    changedFiles = new HashMap<>();
+    for (RawFile file : diff.getFiles()) {
+      ServletFile servletFile = new ServletFile(file, diff.isChanged(file.getPath()));
+      files.add(servletFile);
+      if (servletFile.isChanged()) {
+        changedFiles.put(servletFile.getUniqueIdentifier(), servletFile);
+      }
     }
-    return files;
+    deleted = diff.getDeleted();
   }
 
-  private List<String> deleted(RawDirectory directoryContents, RawDirectory oldDirectoryContents) {
-    List<String> deleted = new LinkedList<String>();
-    Map<String, RawFile> fileTable = directoryContents.getFileTable();
-    for (Entry<String, RawFile> entry : oldDirectoryContents.getFileTable().entrySet()) {
-      String path = entry.getKey();
-      RawFile newFile = fileTable.get(path);
-      if (newFile == null) {
-        deleted.add(path);
-      }
-    }
-    return deleted;
+  /*
+   * Returns the changed file with the given unique identifier, which is the
+   * last part of the url we give for it.
+   */
+  public Optional<RawFile> getChangedFile(String identifier) {
+    return Optional.ofNullable(changedFiles.get(identifier));
   }
 
-  public void writeServletFiles(File rootGitDirectory) throws IOException {
-    attsDirectory = new File(rootGitDirectory, ".wlgb/atts/" + projectName);
+  /*
+   * Whether a version of the project has exactly the content of this
+   * snapshot: the same paths, every src with the same contents, and every
+   * att one that we already had at that path. The snapshot API only gives
+   * the urls of atts, so a snapshot that changes an att never matches.
+   * @param version the data of the version
+   * @param pathForUrl the path we last saw the att with the given url at,
+   *                   or null if we have never seen it
+   */
+  public boolean isContentOf(SnapshotData version, Function<String, String> pathForUrl) {
+    Map<String, ServletFile> filesByPath = new HashMap<>();
     for (ServletFile file : files) {
-      if (file.isChanged()) {
-        file.writeToDiskWithName(attsDirectory, file.getUniqueIdentifier());
+      filesByPath.put(file.getPath(), file);
+    }
+    if (filesByPath.size() != version.getSrcs().size() + version.getAtts().size()) {
+      return false;
+    }
+    for (SnapshotFile src : version.getSrcs()) {
+      ServletFile file = filesByPath.get(src.getPath());
+      if (file == null || !Arrays.equals(file.getContents(), src.getContents())) {
+        return false;
       }
     }
-  }
-
-  public void deleteServletFiles() throws IOException {
-    if (attsDirectory != null) {
-      Util.deleteDirectory(attsDirectory);
+    for (SnapshotAttachment att : version.getAtts()) {
+      ServletFile file = filesByPath.get(att.getPath());
+      if (file == null
+          || file.isChanged()
+          || !att.getPath().equals(pathForUrl.apply(att.getUrl()))) {
+        return false;
+      }
     }
+    return true;
   }
 
   public JsonElement getJsonRepresentation(String postbackKey) {
@@ -103,6 +113,10 @@ public class CandidateSnapshot implements AutoCloseable {
     return jsonFile;
   }
 
+  public int getCurrentVersion() {
+    return currentVersion;
+  }
+
   public String getProjectName() {
     return projectName;
   }
@@ -122,9 +136,4 @@ public class CandidateSnapshot implements AutoCloseable {
     sb.append(deleted);
     return sb.toString();
   }
-
-  @Override
-  public void close() throws IOException {
-    deleteServletFiles();
-  }
 }
@@ -3,7 +3,19 @@ package uk.ac.ic.wlgitbridge.data;
 public class CannotAcquireLockException extends Exception {
   String projectName;
 
-  public CannotAcquireLockException() {
-    super("Another operation is in progress. Please try again later.");
+  /* How long the client should wait before trying again. */
+  private final int retryAfterSeconds;
+
+  public CannotAcquireLockException(int retryAfterSeconds) {
+    this("Another operation is in progress. Please try again later.", retryAfterSeconds);
+  }
+
+  public CannotAcquireLockException(String message, int retryAfterSeconds) {
+    super(message);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
   }
 }
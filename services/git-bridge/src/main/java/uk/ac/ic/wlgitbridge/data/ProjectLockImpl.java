@@ -1,28 +1,82 @@
 package uk.ac.ic.wlgitbridge.data;
 
-import java.util.HashMap;
-import java.util.Map;
+import com.google.common.base.Preconditions;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockOperation;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
+import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLockConfig;
 import uk.ac.ic.wlgitbridge.util.Log;
 
 /*
  * Created by Winston on 20/11/14.
+ *
+ * The lock of a project only exists while it is held or waited for. Each
+ * lock and unlock call counts a reference to it in the table, and the last
+ * one out removes it, so the table stays as big as the number of projects
+ * in use rather than every project seen since startup. The counts are only
+ * changed inside {@link ConcurrentMap#compute}, which locks a single bin of
+ * the map rather than the whole table.
+ *
+ * Each project's lock is fair, so requests for a project are served in the
+ * order they arrived. A request waits for at most {@code maxWaitSeconds}.
+ * If {@code maxQueueDepth} requests are already waiting for the project, a
+ * new one is turned away at once rather than adding to the pile, unless it
+ * already holds the lock. Either way, the {@link CannotAcquireLockException}
+ * tells the client when to retry.
  */
 public class ProjectLockImpl implements ProjectLock {
 
-  private final Map<String, Lock> projectLocks;
+  private static final Gauge activeLocks =
+      Gauge.build()
+          .name("project_locks_active")
+          .help("Projects whose lock is held or waited for")
+          .register();
+  private static final Histogram lockWaitSeconds =
+      Histogram.build()
+          .name("project_lock_wait_seconds")
+          .help("Time taken to acquire a project lock, including failed attempts")
+          .labelNames("operation")
+          .register();
+  private static final Gauge queueLength =
+      Gauge.build()
+          .name("project_lock_queue_length")
+          .help("Requests waiting for a project lock")
+          .labelNames("operation")
+          .register();
+  private static final Counter rejections =
+      Counter.build()
+          .name("project_lock_rejections_total")
+          .help("Requests that did not get a project lock, because the queue was full or timed out")
+          .labelNames("operation", "reason")
+          .register();
+
+  private final int maxWaitSeconds;
+  private final int maxQueueDepth;
+  private final ConcurrentMap<String, RefCountedLock> projectLocks;
   private final ReentrantReadWriteLock rwlock;
   private final Lock rlock;
   private final ReentrantReadWriteLock.WriteLock wlock;
   private LockAllWaiter waiter;
-  private boolean waiting;
+  private volatile boolean waiting;
 
   public ProjectLockImpl() {
-    projectLocks = new HashMap<String, Lock>();
+    this(ProjectLockConfig.DEFAULT_MAX_WAIT_SECONDS, ProjectLockConfig.DEFAULT_MAX_QUEUE_DEPTH);
+  }
+
+  public ProjectLockImpl(int maxWaitSeconds, int maxQueueDepth) {
+    Preconditions.checkArgument(
+        maxQueueDepth > 0, "maxQueueDepth must be positive: %s", maxQueueDepth);
+    this.maxWaitSeconds = maxWaitSeconds;
+    this.maxQueueDepth = maxQueueDepth;
+    projectLocks = new ConcurrentHashMap<>();
     rwlock = new ReentrantReadWriteLock();
     rlock = rwlock.readLock();
     wlock = rwlock.writeLock();
@@ -34,17 +88,60 @@ public class ProjectLockImpl implements ProjectLock {
     setWaiter(waiter);
   }
 
+  public ProjectLockImpl(int maxWaitSeconds, int maxQueueDepth, LockAllWaiter waiter) {
+    this(maxWaitSeconds, maxQueueDepth);
+    setWaiter(waiter);
+  }
+
+  @Override
+  public void lockForProject(String projectName, LockOperation operation)
+      throws CannotAcquireLockException {
+    Log.debug("[{}] taking project lock for {}", projectName, operation.getLabel());
+    lock(projectName, operation, true);
+  }
+
   @Override
-  public void lockForProject(String projectName) throws CannotAcquireLockException {
-    Log.debug("[{}] taking project lock", projectName);
-    Lock projectLock = getLockForProjectName(projectName);
+  public void lockForProjectShared(String projectName, LockOperation operation)
+      throws CannotAcquireLockException {
+    Log.debug("[{}] taking shared project lock for {}", projectName, operation.getLabel());
+    lock(projectName, operation, false);
+  }
+
+  private void lock(String projectName, LockOperation operation, boolean exclusive)
+      throws CannotAcquireLockException {
+    String label = operation.getLabel();
+    RefCountedLock lock = retain(projectName);
+    boolean reentrant = lock.isHeldByCurrentThread();
+    if (!reentrant && lock.waiters.incrementAndGet() > maxQueueDepth) {
+      lock.waiters.decrementAndGet();
+      release(projectName);
+      Log.debug("[{}] project lock queue is full", projectName);
+      rejections.labels(label, "queue_full").inc();
+      throw new CannotAcquireLockException(
+          "Too many operations are waiting for this project. Please try again later.",
+          maxWaitSeconds);
+    }
+    boolean locked = false;
+    queueLength.labels(label).inc();
+    Histogram.Timer timer = lockWaitSeconds.labels(label).startTimer();
     try {
-      if (!projectLock.tryLock(5, TimeUnit.SECONDS)) {
-        Log.debug("[{}] failed to acquire project lock", projectName);
-        throw new CannotAcquireLockException();
-      }
+      locked = lock.get(exclusive).tryLock(maxWaitSeconds, TimeUnit.SECONDS);
     } catch (InterruptedException e) {
       throw new RuntimeException(e);
+    } finally {
+      timer.observeDuration();
+      queueLength.labels(label).dec();
+      if (!reentrant) {
+        lock.waiters.decrementAndGet();
+      }
+      if (!locked) {
+        release(projectName);
+      }
+    }
+    if (!locked) {
+      Log.debug("[{}] failed to acquire project lock", projectName);
+      rejections.labels(label, "timeout").inc();
+      throw new CannotAcquireLockException(maxWaitSeconds);
     }
     Log.debug("[{}] taking reentrant lock", projectName);
     rlock.lock();
@@ -54,7 +151,20 @@ public class ProjectLockImpl implements ProjectLock {
   @Override
   public void unlockForProject(String projectName) {
     Log.debug("[{}] releasing project lock", projectName);
-    getLockForProjectName(projectName).unlock();
+    unlock(projectName, true);
+  }
+
+  @Override
+  public void unlockForProjectShared(String projectName) {
+    Log.debug("[{}] releasing shared project lock", projectName);
+    unlock(projectName, false);
+  }
+
+  private void unlock(String projectName, boolean exclusive) {
+    RefCountedLock lock = projectLocks.get(projectName);
+    Preconditions.checkState(lock != null, "project %s is not locked", projectName);
+    lock.get(exclusive).unlock();
+    release(projectName);
     Log.debug("[{}] releasing reentrant lock", projectName);
     rlock.unlock();
     Log.debug("[{}] released locks", projectName);
@@ -81,16 +191,52 @@ public class ProjectLockImpl implements ProjectLock {
     wlock.lock();
   }
 
-  private synchronized Lock getLockForProjectName(String projectName) {
-    Lock lock = projectLocks.get(projectName);
-    if (lock == null) {
-      lock = new ReentrantLock();
-      projectLocks.put(projectName, lock);
-    }
-    return lock;
+  private RefCountedLock retain(String projectName) {
+    return projectLocks.compute(
+        projectName,
+        (__, lock) -> {
+          if (lock == null) {
+            lock = new RefCountedLock();
+            activeLocks.inc();
+          }
+          lock.refs++;
+          return lock;
+        });
+  }
+
+  private void release(String projectName) {
+    projectLocks.computeIfPresent(
+        projectName,
+        (__, lock) -> {
+          if (--lock.refs > 0) {
+            return lock;
+          }
+          activeLocks.dec();
+          return null;
+        });
+  }
+
+  /* The number of projects in the lock table, for the tests. */
+  int getNumLocks() {
+    return projectLocks.size();
   }
 
   public void setWaiter(LockAllWaiter waiter) {
     this.waiter = waiter;
   }
+
+  /* refs is only read and written by the compute functions of the lock table. */
+  private static class RefCountedLock {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private final AtomicInteger waiters = new AtomicInteger();
+    private int refs = 0;
+
+    Lock get(boolean exclusive) {
+      return exclusive ? lock.writeLock() : lock.readLock();
+    }
+
+    boolean isHeldByCurrentThread() {
+      return lock.isWriteLockedByCurrentThread() || lock.getReadHoldCount() > 0;
+    }
+  }
 }
@@ -1,5 +1,7 @@
 package uk.ac.ic.wlgitbridge.data;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.UUID;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 
@@ -12,10 +14,10 @@ public class ServletFile extends RawFile {
   private final boolean changed;
   private String uuid;
 
-  public ServletFile(RawFile file, RawFile oldFile) {
+  public ServletFile(RawFile file, boolean changed) {
     this.file = file;
     this.uuid = UUID.randomUUID().toString();
-    changed = !equals(oldFile);
+    this.changed = changed;
   }
 
   public String getUniqueIdentifier() {
@@ -32,9 +34,14 @@ public class ServletFile extends RawFile {
     return file.getContents();
   }
 
+  @Override
+  public InputStream openStream() throws IOException {
+    return file.openStream();
+  }
+
   @Override
   public long size() {
-    return getContents().length;
+    return file.size();
   }
 
   public boolean isChanged() {
@@ -0,0 +1,95 @@
+package uk.ac.ic.wlgitbridge.data.filestore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import uk.ac.ic.wlgitbridge.bridge.util.CastUtil;
+
+/*
+ * A file whose contents are a blob in a repository's object database.
+ *
+ * Only the blob id is held in memory; the blob is read when the contents are
+ * asked for, and can be streamed with {@link #openStream()}. Committing it to
+ * the same repository needs no copy at all, and two of them are compared by
+ * blob id.
+ *
+ * If the size is not given, it is looked up from the object header the first
+ * time it is needed, which does not inflate the blob.
+ */
+public class GitBlobFile extends RawFile {
+
+  private final String path;
+  private final Repository repository;
+  private final ObjectId blobId;
+  private volatile long size;
+
+  public GitBlobFile(String path, Repository repository, ObjectId blobId, long size) {
+    this.path = path;
+    this.repository = repository;
+    this.blobId = blobId;
+    this.size = size;
+  }
+
+  public GitBlobFile(String path, Repository repository, ObjectId blobId) {
+    this(path, repository, blobId, -1);
+  }
+
+  @Override
+  public String getPath() {
+    return path;
+  }
+
+  @Override
+  public byte[] getContents() {
+    try {
+      return repository.open(blobId, Constants.OBJ_BLOB).getBytes(CastUtil.assumeInt(size()));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    return repository.open(blobId, Constants.OBJ_BLOB).openStream();
+  }
+
+  @Override
+  public long size() {
+    if (size < 0) {
+      try (ObjectReader reader = repository.newObjectReader()) {
+        size = reader.getObjectSize(blobId, Constants.OBJ_BLOB);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public RawFile withPath(String path) {
+    return new GitBlobFile(path, repository, blobId, size);
+  }
+
+  public ObjectId getBlobId() {
+    return blobId;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj instanceof GitBlobFile) {
+      GitBlobFile that = (GitBlobFile) obj;
+      return path.equals(that.path) && blobId.equals(that.blobId);
+    }
+    return super.equals(obj);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(path, blobId);
+  }
+}
@@ -1,9 +1,11 @@
 package uk.ac.ic.wlgitbridge.data.filestore;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import uk.ac.ic.wlgitbridge.util.Log;
 
@@ -18,6 +20,21 @@ public abstract class RawFile {
 
   public abstract long size();
 
+  /*
+   * Opens the contents for reading. Files whose contents are not in memory
+   * should override this so that they can be copied without loading them.
+   */
+  public InputStream openStream() throws IOException {
+    return new ByteArrayInputStream(getContents());
+  }
+
+  /*
+   * Returns a file with the same contents at the given path.
+   */
+  public RawFile withPath(String path) {
+    return new RepositoryFile(path, getContents());
+  }
+
   public final void writeToDisk(File directory) throws IOException {
     writeToDiskWithName(directory, getPath());
   }
@@ -25,10 +42,9 @@ public abstract class RawFile {
   public final void writeToDiskWithName(File directory, String name) throws IOException {
     File file = new File(directory, name);
     file.getParentFile().mkdirs();
-    file.createNewFile();
-    OutputStream out = new FileOutputStream(file);
-    out.write(getContents());
-    out.close();
+    try (InputStream in = openStream()) {
+      Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
     Log.debug("Wrote file: {}", file.getAbsolutePath());
   }
 
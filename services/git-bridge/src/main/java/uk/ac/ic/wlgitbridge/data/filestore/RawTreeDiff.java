@@ -0,0 +1,37 @@
+package uk.ac.ic.wlgitbridge.data.filestore;
+
+import java.util.List;
+import java.util.Set;
+
+/*
+ * The difference between two trees of a project: every file in the new tree,
+ * which of them were added or modified, and the paths that were deleted.
+ */
+public class RawTreeDiff {
+
+  private final List<RawFile> files;
+  private final Set<String> changed;
+  private final List<String> deleted;
+
+  public RawTreeDiff(List<RawFile> files, Set<String> changed, List<String> deleted) {
+    this.files = files;
+    this.changed = changed;
+    this.deleted = deleted;
+  }
+
+  public List<RawFile> getFiles() {
+    return files;
+  }
+
+  public boolean isChanged(String path) {
+    return changed.contains(path);
+  }
+
+  public int getChangedCount() {
+    return changed.size();
+  }
+
+  public List<String> getDeleted() {
+    return deleted;
+  }
+}
@@ -14,6 +14,7 @@ import uk.ac.ic.wlgitbridge.bridge.Bridge;
 import uk.ac.ic.wlgitbridge.data.CannotAcquireLockException;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 import uk.ac.ic.wlgitbridge.server.Oauth2Filter;
+import uk.ac.ic.wlgitbridge.server.RetryAfterFilter;
 import uk.ac.ic.wlgitbridge.snapshot.base.ForbiddenException;
 import uk.ac.ic.wlgitbridge.util.Log;
 import uk.ac.ic.wlgitbridge.util.Util;
@@ -51,7 +52,9 @@ public class WLRepositoryResolver implements RepositoryResolver<HttpServletReque
    * In the case of clones and fetches, upload packs are created from the
    * returned JGit {@link Repository} by the {@link WLUploadPackFactory}.
    *
-   * The project lock is acquired for this process so it can't be swapped out.
+   * The project lock is acquired for this process so it can't be swapped out,
+   * and the shared lock again by the {@link WLUploadPackFilter} while the
+   * upload pack is served.
    *
    * However, it can still be swapped out between this and a Git push. The
    * push would fail due to the project changed on Overleaf between the sync
@@ -96,7 +99,9 @@ public class WLRepositoryResolver implements RepositoryResolver<HttpServletReque
       /* Such as FailedConnectionException */
       throw e;
     } catch (CannotAcquireLockException e) {
-      throw new ServiceMayNotContinueException(e.getMessage());
+      httpServletRequest.setAttribute(RetryAfterFilter.ATTRIBUTE_KEY, e.getRetryAfterSeconds());
+      throw new ServiceMayNotContinueException(
+          e.getMessage(), e, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
     } catch (RuntimeException e) {
       Log.warn("Runtime exception when trying to open repo: " + projName, e);
       throw new ServiceMayNotContinueException(e);
@@ -0,0 +1,45 @@
+package uk.ac.ic.wlgitbridge.git.handler;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import org.eclipse.jgit.http.server.ServletUtils;
+import uk.ac.ic.wlgitbridge.bridge.Bridge;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
+import uk.ac.ic.wlgitbridge.data.CannotAcquireLockException;
+import uk.ac.ic.wlgitbridge.util.Log;
+
+/*
+ * Holds the shared project lock while an upload-pack is served, so that the
+ * repository can't be swapped out, garbage collected or committed to under
+ * a running fetch. Other fetches of the same project go ahead in parallel.
+ *
+ * The repository has been synced by the {@link WLRepositoryResolver} by the
+ * time this runs.
+ */
+public class WLUploadPackFilter implements Filter {
+
+  private final Bridge bridge;
+
+  public WLUploadPackFilter(Bridge bridge) {
+    this.bridge = bridge;
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    String projectName = ServletUtils.getRepository(request).getWorkTree().getName();
+    try (LockGuard __ = bridge.sharedLockGuard(projectName)) {
+      chain.doFilter(request, response);
+    } catch (CannotAcquireLockException e) {
+      Log.debug("[{}] Could not lock project for upload-pack", projectName);
+      HttpServletResponse httpResponse = (HttpServletResponse) response;
+      httpResponse.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+      httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+    }
+  }
+}
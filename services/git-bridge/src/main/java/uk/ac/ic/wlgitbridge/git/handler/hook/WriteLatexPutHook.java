@@ -13,7 +13,7 @@ import org.eclipse.jgit.transport.ReceivePack;
 import uk.ac.ic.wlgitbridge.bridge.Bridge;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
 import uk.ac.ic.wlgitbridge.data.CannotAcquireLockException;
-import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.data.filestore.RawTreeDiff;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 import uk.ac.ic.wlgitbridge.git.handler.hook.exception.ForcedPushException;
 import uk.ac.ic.wlgitbridge.git.handler.hook.exception.WrongBranchException;
@@ -115,11 +115,7 @@ public class WriteLatexPutHook implements PreReceiveHook {
     checkBranch(receiveCommand, repository);
     checkForcedPush(receiveCommand);
     bridge.push(
-        oauth2,
-        repository.getWorkTree().getName(),
-        getPushedDirectoryContents(repository, receiveCommand),
-        getOldDirectoryContents(repository),
-        hostname);
+        oauth2, repository.getWorkTree().getName(), getDiff(repository, receiveCommand), hostname);
   }
 
   private void checkBranch(ReceiveCommand receiveCommand, Repository repository)
@@ -141,13 +137,14 @@ public class WriteLatexPutHook implements PreReceiveHook {
     }
   }
 
-  private RawDirectory getPushedDirectoryContents(
-      Repository repository, ReceiveCommand receiveCommand) throws IOException, GitUserException {
-    return repoStore.useJGitRepo(repository, receiveCommand.getNewId()).getDirectory();
-  }
-
-  private RawDirectory getOldDirectoryContents(Repository repository)
+  /*
+   * Compares the pushed tree with HEAD by blob id, so only the blobs that
+   * were added or modified are looked at.
+   */
+  private RawTreeDiff getDiff(Repository repository, ReceiveCommand receiveCommand)
       throws IOException, GitUserException {
-    return repoStore.useJGitRepo(repository, repository.resolve("HEAD")).getDirectory();
+    return repoStore
+        .useJGitRepo(repository, receiveCommand.getNewId())
+        .getDiff(Optional.ofNullable(repository.resolve("HEAD")));
   }
 }
@@ -8,6 +8,7 @@ import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
 import uk.ac.ic.wlgitbridge.git.handler.WLReceivePackFactory;
 import uk.ac.ic.wlgitbridge.git.handler.WLRepositoryResolver;
 import uk.ac.ic.wlgitbridge.git.handler.WLUploadPackFactory;
+import uk.ac.ic.wlgitbridge.git.handler.WLUploadPackFilter;
 
 /*
  * Created by Winston on 02/11/14.
@@ -41,6 +42,7 @@ public class WLGitServlet extends GitServlet {
     setRepositoryResolver(new WLRepositoryResolver(bridge));
     setReceivePackFactory(new WLReceivePackFactory(repoStore, bridge));
     setUploadPackFactory(new WLUploadPackFactory());
+    addUploadPackFilter(new WLUploadPackFilter(bridge));
     init(new WLGitServletConfig(ctxHandler));
   }
 }
@@ -1,19 +1,18 @@
 package uk.ac.ic.wlgitbridge.git.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import uk.ac.ic.wlgitbridge.bridge.util.CastUtil;
+import uk.ac.ic.wlgitbridge.data.filestore.GitBlobFile;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
-import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
 import uk.ac.ic.wlgitbridge.git.exception.InvalidGitRepository;
 import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
 
@@ -47,36 +46,45 @@ public class RepositoryObjectTreeWalker {
     if (objectId == null) {
       return null;
     }
-    RevWalk walk = new RevWalk(repository);
     TreeWalk treeWalk = new TreeWalk(repository);
-    treeWalk.addTree(walk.parseCommit(objectId).getTree());
+    try (RevWalk walk = new RevWalk(treeWalk.getObjectReader())) {
+      treeWalk.addTree(walk.parseCommit(objectId).getTree());
+    }
     treeWalk.setRecursive(true);
     return treeWalk;
   }
 
+  /*
+   * Builds the file table from the tree entries alone. Blobs are not read:
+   * each file is a {@link GitBlobFile} that opens its blob on demand, and
+   * sizes are only looked up (from the object header) when there is a limit
+   * to check.
+   */
   private Map<String, RawFile> walkGitObjectTree(Optional<Long> maxFileSize)
       throws IOException, SizeLimitExceededException, InvalidGitRepository {
     Map<String, RawFile> fileContentsTable = new HashMap<>();
     if (treeWalk == null) {
       return fileContentsTable;
     }
-    while (treeWalk.next()) {
-      String path = treeWalk.getPathString();
+    try (TreeWalk walk = treeWalk) {
+      ObjectReader reader = walk.getObjectReader();
+      while (walk.next()) {
+        String path = walk.getPathString();
 
-      ObjectId objectId = treeWalk.getObjectId(0);
-      if (!repository.getObjectDatabase().has(objectId)) {
-        throw new InvalidGitRepository();
-      }
-      ObjectLoader obj = repository.open(objectId);
-      long size = obj.getSize();
-      if (maxFileSize.isPresent() && size > maxFileSize.get()) {
-        throw new SizeLimitExceededException(Optional.ofNullable(path), size, maxFileSize.get());
-      }
-      try (ByteArrayOutputStream o = new ByteArrayOutputStream(CastUtil.assumeInt(size))) {
-        obj.copyTo(o);
-        fileContentsTable.put(path, new RepositoryFile(path, o.toByteArray()));
+        ObjectId objectId = walk.getObjectId(0);
+        if (!reader.has(objectId)) {
+          throw new InvalidGitRepository();
+        }
+        if (!maxFileSize.isPresent()) {
+          fileContentsTable.put(path, new GitBlobFile(path, repository, objectId));
+          continue;
+        }
+        long size = reader.getObjectSize(objectId, Constants.OBJ_BLOB);
+        if (size > maxFileSize.get()) {
+          throw new SizeLimitExceededException(Optional.ofNullable(path), size, maxFileSize.get());
+        }
+        fileContentsTable.put(path, new GitBlobFile(path, repository, objectId, size));
       }
-      ;
     }
     return fileContentsTable;
   }
@@ -0,0 +1,89 @@
+package uk.ac.ic.wlgitbridge.git.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import uk.ac.ic.wlgitbridge.data.filestore.GitBlobFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RawTreeDiff;
+import uk.ac.ic.wlgitbridge.git.exception.InvalidGitRepository;
+import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
+
+/*
+ * Compares the trees of two commits in one walk, by blob id.
+ *
+ * No blob is read: files in the new tree are {@link GitBlobFile}s, and only
+ * the added or modified ones have their existence and size checked, from
+ * the object headers. Unchanged files cost nothing beyond the tree walk.
+ */
+public class RepositoryTreeDiffWalker {
+
+  private static final int OLD = 0;
+  private static final int NEW = 1;
+
+  private final Repository repository;
+  private final Optional<ObjectId> oldCommitId;
+  private final ObjectId newCommitId;
+
+  /*
+   * @param oldCommitId the commit to compare against, or empty to compare
+   *                    against an empty tree
+   */
+  public RepositoryTreeDiffWalker(
+      Repository repository, Optional<ObjectId> oldCommitId, ObjectId newCommitId) {
+    this.repository = repository;
+    this.oldCommitId = oldCommitId;
+    this.newCommitId = newCommitId;
+  }
+
+  public RawTreeDiff getDiff(Optional<Long> maxFileSize)
+      throws IOException, SizeLimitExceededException, InvalidGitRepository {
+    List<RawFile> files = new ArrayList<>();
+    Set<String> changed = new HashSet<>();
+    List<String> deleted = new ArrayList<>();
+    try (TreeWalk walk = new TreeWalk(repository);
+        RevWalk revWalk = new RevWalk(walk.getObjectReader())) {
+      if (oldCommitId.isPresent()) {
+        walk.addTree(revWalk.parseCommit(oldCommitId.get()).getTree());
+      } else {
+        walk.addTree(new EmptyTreeIterator());
+      }
+      walk.addTree(revWalk.parseCommit(newCommitId).getTree());
+      walk.setRecursive(true);
+      ObjectReader reader = walk.getObjectReader();
+      while (walk.next()) {
+        String path = walk.getPathString();
+        if (walk.getFileMode(NEW) == FileMode.MISSING) {
+          deleted.add(path);
+          continue;
+        }
+        ObjectId blobId = walk.getObjectId(NEW);
+        if (walk.idEqual(OLD, NEW)) {
+          files.add(new GitBlobFile(path, repository, blobId));
+          continue;
+        }
+        if (!reader.has(blobId)) {
+          throw new InvalidGitRepository();
+        }
+        long size = reader.getObjectSize(blobId, Constants.OBJ_BLOB);
+        if (maxFileSize.isPresent() && size > maxFileSize.get()) {
+          throw new SizeLimitExceededException(Optional.of(path), size, maxFileSize.get());
+        }
+        files.add(new GitBlobFile(path, repository, blobId, size));
+        changed.add(path);
+      }
+    }
+    return new RawTreeDiff(files, changed, deleted);
+  }
+}
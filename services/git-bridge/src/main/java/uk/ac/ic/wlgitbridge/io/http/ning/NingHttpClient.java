@@ -1,8 +1,11 @@
 package uk.ac.ic.wlgitbridge.io.http.ning;
 
 import io.netty.handler.codec.http.HttpHeaders;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.concurrent.ExecutionException;
 import org.asynchttpclient.*;
 import org.slf4j.Logger;
@@ -20,14 +23,18 @@ public class NingHttpClient implements NingHttpClientFacade {
   }
 
   @Override
-  public <E extends Exception> byte[] get(String url, FunctionT<HttpHeaders, Boolean, E> handler)
-      throws ExecutionException {
-    try {
+  public <E extends Exception> long getToFile(
+      String url,
+      File file,
+      FunctionT<HttpHeaders, Boolean, E> handler,
+      FunctionT<Long, Boolean, E> bodyHandler)
+      throws ExecutionException, IOException {
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
       return http.prepareGet(url)
           .execute(
-              new AsyncCompletionHandler<byte[]>() {
+              new AsyncCompletionHandler<Long>() {
 
-                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                long received = 0;
 
                 @Override
                 public State onHeadersReceived(HttpHeaders headers) throws E {
@@ -35,28 +42,32 @@ public class NingHttpClient implements NingHttpClientFacade {
                 }
 
                 @Override
-                public State onBodyPartReceived(HttpResponseBodyPart content) throws IOException {
-                  bytes.write(content.getBodyPartBytes());
+                public State onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
+                  byte[] part = content.getBodyPartBytes();
+                  received += part.length;
+                  if (!bodyHandler.apply(received)) {
+                    return State.ABORT;
+                  }
+                  out.write(part);
                   return State.CONTINUE;
                 }
 
                 @Override
-                public byte[] onCompleted(Response response) throws Exception {
+                public Long onCompleted(Response response) throws Exception {
                   int statusCode = response.getStatusCode();
                   if (statusCode >= 400) {
                     throw new Exception("got status " + statusCode + " fetching " + url);
                   }
-                  byte[] ret = bytes.toByteArray();
-                  bytes.close();
+                  out.flush();
                   log.debug(
                       statusCode
                           + " "
                           + response.getStatusText()
                           + " ("
-                          + ret.length
+                          + received
                           + "B) -> "
                           + url);
-                  return ret;
+                  return received;
                 }
               })
           .get();
@@ -1,18 +1,29 @@
 package uk.ac.ic.wlgitbridge.io.http.ning;
 
 import io.netty.handler.codec.http.HttpHeaders;
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 import uk.ac.ic.wlgitbridge.util.FunctionT;
 
 public interface NingHttpClientFacade {
 
   /*
-   * Performs a GET request
+   * Performs a GET request, writing the response body to a file as it
+   * arrives instead of buffering it in memory.
    * @param url the target URL
+   * @param file the file to write the body to
    * @param handler handler for the response headers. Returning false
    *                aborts the request.
-   * @return
+   * @param bodyHandler called with the number of bytes received so far
+   *                    after each part of the body. Returning false aborts
+   *                    the request.
+   * @return the size of the body
    */
-  <E extends Exception> byte[] get(String url, FunctionT<HttpHeaders, Boolean, E> handler)
-      throws ExecutionException;
+  <E extends Exception> long getToFile(
+      String url,
+      File file,
+      FunctionT<HttpHeaders, Boolean, E> handler,
+      FunctionT<Long, Boolean, E> bodyHandler)
+      throws ExecutionException, IOException;
 }
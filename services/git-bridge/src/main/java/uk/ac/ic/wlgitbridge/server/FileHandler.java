@@ -1,27 +1,38 @@
 package uk.ac.ic.wlgitbridge.server;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
-import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.Fields;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.ic.wlgitbridge.bridge.Bridge;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InvalidPostbackKeyException;
 
 /*
  * Serve files referenced by the snapshot that we send to the Overleaf API.
  *
- * Requests must include the postback key.
+ * Requests must include the postback key. The files are streamed from the
+ * pushed repository's object database, with a Content-Length, and a single
+ * byte range is honoured if one is asked for.
  */
-public class FileHandler extends ResourceHandler {
+public class FileHandler extends Handler.Abstract {
   private static final Logger LOG = LoggerFactory.getLogger(FileHandler.class);
 
+  private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
   private final Bridge bridge;
-  private final Pattern DOC_KEY_PATTERN = Pattern.compile("^/(\\w+)/.+$");
+  private final Pattern DOC_KEY_PATTERN = Pattern.compile("^/(\\w+)/([^/]+)$");
 
   public FileHandler(Bridge bridge) {
     this.bridge = bridge;
@@ -36,6 +47,7 @@ public class FileHandler extends ResourceHandler {
     Matcher docKeyMatcher = DOC_KEY_PATTERN.matcher(path);
     if (!docKeyMatcher.matches()) return false;
     String docKey = docKeyMatcher.group(1);
+    String identifier = docKeyMatcher.group(2);
 
     Fields parameters = Request.getParameters(request);
     String apiKey = parameters != null ? parameters.getValue("key") : null;
@@ -48,6 +60,77 @@ public class FileHandler extends ResourceHandler {
       return false;
     }
 
-    return super.handle(request, response, callback);
+    Optional<RawFile> file = bridge.getPushedFile(docKey, identifier);
+    if (!file.isPresent()) return false;
+
+    serve(request, response, callback, file.get());
+    return true;
+  }
+
+  private static void serve(Request request, Response response, Callback callback, RawFile file) {
+    long size = file.size();
+    long start = 0;
+    long end = size - 1;
+    String range = request.getHeaders().get(HttpHeader.RANGE);
+    Matcher rangeMatcher = range == null ? null : RANGE_PATTERN.matcher(range);
+    if (rangeMatcher != null && rangeMatcher.matches()) {
+      String first = rangeMatcher.group(1);
+      String last = rangeMatcher.group(2);
+      boolean satisfiable = !first.isEmpty() || !last.isEmpty();
+      if (first.isEmpty() && !last.isEmpty()) {
+        start = Math.max(0, size - parseRangeBound(last));
+      } else if (!first.isEmpty()) {
+        start = parseRangeBound(first);
+        if (!last.isEmpty()) {
+          end = Math.min(end, parseRangeBound(last));
+        }
+      }
+      if (!satisfiable || start >= size || start > end) {
+        response.getHeaders().put(HttpHeader.CONTENT_RANGE, "bytes */" + size);
+        Response.writeError(request, response, callback, HttpStatus.RANGE_NOT_SATISFIABLE_416);
+        return;
+      }
+      response.setStatus(HttpStatus.PARTIAL_CONTENT_206);
+      response
+          .getHeaders()
+          .put(HttpHeader.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+    } else {
+      response.setStatus(HttpStatus.OK_200);
+    }
+    long length = end - start + 1;
+    response.getHeaders().put(HttpHeader.ACCEPT_RANGES, "bytes");
+    response.getHeaders().put(HttpHeader.CONTENT_TYPE, "application/octet-stream");
+    response.getHeaders().put(HttpHeader.CONTENT_LENGTH, length);
+    try (InputStream in = file.openStream();
+        OutputStream out = Content.Sink.asOutputStream(response)) {
+      in.skipNBytes(start);
+      byte[] buffer = new byte[8192];
+      long remaining = length;
+      while (remaining > 0) {
+        int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read < 0) {
+          break;
+        }
+        out.write(buffer, 0, read);
+        remaining -= read;
+      }
+    } catch (Exception e) {
+      LOG.warn("Failed to serve {}", file.getPath(), e);
+      callback.failed(e);
+      return;
+    }
+    callback.succeeded();
+  }
+
+  /*
+   * Bounds too big for a long are well past the end of any file, so they
+   * saturate to Long.MAX_VALUE and are clamped to the file like any other.
+   */
+  private static long parseRangeBound(String digits) {
+    try {
+      return Long.parseLong(digits);
+    } catch (NumberFormatException e) {
+      return Long.MAX_VALUE;
+    }
   }
 }
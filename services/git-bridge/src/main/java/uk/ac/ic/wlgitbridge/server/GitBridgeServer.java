@@ -4,10 +4,11 @@ import ch.qos.logback.classic.Level;
 import jakarta.servlet.DispatcherType;
 import jakarta.servlet.Filter;
 import jakarta.servlet.ServletException;
-import java.io.File;
 import java.net.BindException;
 import java.nio.file.Paths;
 import java.util.EnumSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.jetty.ee10.servlet.FilterHolder;
 import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
 import org.eclipse.jetty.ee10.servlet.ServletHolder;
@@ -17,10 +18,11 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.DefaultHandler;
-import org.eclipse.jetty.util.resource.ResourceFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import uk.ac.ic.wlgitbridge.application.config.Config;
 import uk.ac.ic.wlgitbridge.bridge.Bridge;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.cache.CachingDBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SqliteDBStore;
 import uk.ac.ic.wlgitbridge.bridge.repo.FSGitRepoStore;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
@@ -63,16 +65,22 @@ public class GitBridgeServer {
         new FSGitRepoStore(
             rootGitDirectoryPath, config.getRepoStore().flatMap(RepoStoreConfig::getMaxFileSize));
     DBStore dbStore =
-        new SqliteDBStore(
-            Paths.get(repoStore.getRootDirectory().getAbsolutePath())
-                .resolve(".wlgb")
-                .resolve("wlgb.db")
-                .toFile(),
-            config.getSqliteHeapLimitBytes());
+        CachingDBStore.fromConfig(
+            config.getDbCache(),
+            new SqliteDBStore(
+                Paths.get(repoStore.getRootDirectory().getAbsolutePath())
+                    .resolve(".wlgb")
+                    .resolve("wlgb.db")
+                    .toFile(),
+                config.getSqliteHeapLimitBytes(),
+                config.getSqliteCacheSizeKib(),
+                config.getSqliteMmapSizeBytes(),
+                config.getSqliteReaderConnections(),
+                TimeUnit.SECONDS.toMillis(config.getSqliteLastAccessedFlushIntervalSeconds())));
     SwapStore swapStore = SwapStore.fromConfig(config.getSwapStore());
     SnapshotApi snapshotApi = new NetSnapshotApi();
     bridge = Bridge.make(config, repoStore, dbStore, swapStore, snapshotApi);
-    jettyServer = new Server();
+    jettyServer = new Server(makeThreadPool());
     configureJettyServer(config, repoStore, snapshotApi);
     apiBaseURL = config.getAPIBaseURL();
     SnapshotAPIRequest.setBaseURL(apiBaseURL);
@@ -128,6 +136,19 @@ public class GitBridgeServer {
     }
   }
 
+  /*
+   * Requests are handled on virtual threads. A push blocks its request in the
+   * receive-pack hook until the web app posts back, which can take minutes;
+   * on a virtual thread that only parks a continuation, so pending pushes do
+   * not use up the threads that serve fetches and clones.
+   */
+  private static QueuedThreadPool makeThreadPool() {
+    QueuedThreadPool threadPool = new QueuedThreadPool();
+    threadPool.setName("jetty");
+    threadPool.setVirtualThreadsExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    return threadPool;
+  }
+
   private void configureJettyServer(Config config, RepoStore repoStore, SnapshotApi snapshotApi)
       throws ServletException {
     this.connector = new ServerConnector(this.jettyServer);
@@ -180,6 +201,8 @@ public class GitBridgeServer {
     servletContextHandler.setSessionHandler(new SessionHandler());
     servletContextHandler.addFilter(
         new FilterHolder(new MdcLoggingFilter()), "/*", EnumSet.of(DispatcherType.REQUEST));
+    servletContextHandler.addFilter(
+        new FilterHolder(new RetryAfterFilter()), "/*", EnumSet.of(DispatcherType.REQUEST));
     if (config.getOauth2Server() != null) {
       Filter filter =
           new Oauth2Filter(snapshotApi, config.getOauth2Server(), config.isUserPasswordEnabled());
@@ -195,10 +218,6 @@ public class GitBridgeServer {
   }
 
   private Handler initResourceHandler() {
-    FileHandler resourceHandler = new FileHandler(bridge);
-    File attDir = new File(rootGitDirectoryPath, ".wlgb/atts");
-    resourceHandler.setBaseResource(
-        ResourceFactory.of(resourceHandler).newResource(attDir.toPath()));
-    return resourceHandler;
+    return new FileHandler(bridge);
   }
 }
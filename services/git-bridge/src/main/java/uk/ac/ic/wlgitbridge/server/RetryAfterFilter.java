@@ -0,0 +1,63 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+/*
+ * Adds a Retry-After header to 503 responses of requests that set
+ * {@link #ATTRIBUTE_KEY} to the number of seconds to wait, such as those
+ * turned away by a full project lock queue.
+ *
+ * The git servlet writes the error itself when the repository resolver
+ * throws, so the header can't be set from there; instead the status is
+ * watched on the way out.
+ */
+public class RetryAfterFilter implements Filter {
+
+  public static final String ATTRIBUTE_KEY = "retryAfterSeconds";
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(
+      ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
+      throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+    filterChain.doFilter(
+        servletRequest,
+        new HttpServletResponseWrapper(response) {
+          @Override
+          public void setStatus(int sc) {
+            addRetryAfter(sc);
+            super.setStatus(sc);
+          }
+
+          @Override
+          public void sendError(int sc) throws IOException {
+            addRetryAfter(sc);
+            super.sendError(sc);
+          }
+
+          @Override
+          public void sendError(int sc, String msg) throws IOException {
+            addRetryAfter(sc);
+            super.sendError(sc, msg);
+          }
+
+          private void addRetryAfter(int sc) {
+            Object retryAfterSeconds = request.getAttribute(ATTRIBUTE_KEY);
+            if (sc == HttpServletResponse.SC_SERVICE_UNAVAILABLE && retryAfterSeconds != null) {
+              setHeader("Retry-After", retryAfterSeconds.toString());
+            }
+          }
+        });
+  }
+
+  @Override
+  public void destroy() {}
+}
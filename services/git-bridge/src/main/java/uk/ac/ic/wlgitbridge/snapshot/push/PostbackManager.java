@@ -3,9 +3,8 @@ package uk.ac.ic.wlgitbridge.snapshot.push;
 import com.google.common.base.Preconditions;
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InvalidPostbackKeyException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.UnexpectedPostbackException;
@@ -20,23 +19,39 @@ public class PostbackManager {
 
   PostbackManager(SecureRandom random) {
     this.random = random;
-    postbackContentsTable = Collections.synchronizedMap(new HashMap<String, PostbackPromise>());
+    postbackContentsTable = new ConcurrentHashMap<>();
   }
 
   public PostbackManager() {
     this(new SecureRandom());
   }
 
+  /*
+   * Waits for the result of the push in progress for the project. Once it
+   * has been waited for, the promise is dropped, and abandoned if it is still
+   * pending, so that nothing goes on polling for it.
+   */
   public int waitForVersionIdOrThrow(String projectName) throws SnapshotPostException {
+    PostbackPromise postbackPromise = postbackContentsTable.get(projectName);
+    Preconditions.checkNotNull(postbackPromise);
     try {
-      PostbackPromise postbackPromise = postbackContentsTable.get(projectName);
-      Preconditions.checkNotNull(postbackPromise);
       return postbackPromise.waitForPostback();
     } finally {
-      postbackContentsTable.remove(projectName);
+      postbackContentsTable.remove(projectName, postbackPromise);
+      postbackPromise.abandon();
     }
   }
 
+  /*
+   * Returns the promise of the push in progress for the project, which must
+   * have a key.
+   */
+  public PostbackPromise getPostbackPromise(String projectName) {
+    PostbackPromise postbackPromise = postbackContentsTable.get(projectName);
+    Preconditions.checkNotNull(postbackPromise);
+    return postbackPromise;
+  }
+
   public void postVersionIDForProject(String projectName, int versionID, String postbackKey)
       throws UnexpectedPostbackException {
     getPostbackForProject(projectName).receivedVersionID(versionID, postbackKey);
@@ -0,0 +1,143 @@
+package uk.ac.ic.wlgitbridge.snapshot.push;
+
+import com.google.api.client.auth.oauth2.Credential;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiFacade;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotData;
+import uk.ac.ic.wlgitbridge.util.Log;
+
+/*
+ * Detects pushes that went through without us getting the postback.
+ *
+ * Once a push has waited for its postback for the grace period, we poll
+ * getDoc for the project, backing off from {@link #INITIAL_INTERVAL_MILLIS}
+ * up to the maximum interval. A version past the one the push was based on
+ * may come from someone else's edit, or from the push being processed, so
+ * the promise is only resolved with it once its data is confirmed to be
+ * what was pushed. Otherwise we go on polling, and the push times out if
+ * it is never confirmed. Polling stops as soon as the promise is done,
+ * however it was resolved, or once the push has given up waiting and
+ * abandoned it.
+ */
+public class PostbackPoller {
+
+  private static final long INITIAL_INTERVAL_MILLIS = 2000;
+
+  private final SnapshotApiFacade snapshotApi;
+  private final long gracePeriodMillis;
+  private final long maxIntervalMillis;
+  private final ScheduledExecutorService scheduler;
+
+  public PostbackPoller(
+      SnapshotApiFacade snapshotApi, long gracePeriodMillis, long maxIntervalMillis) {
+    this.snapshotApi = snapshotApi;
+    this.gracePeriodMillis = gracePeriodMillis;
+    this.maxIntervalMillis = maxIntervalMillis;
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "postback-poller");
+              t.setDaemon(true);
+              return t;
+            });
+  }
+
+  /*
+   * Starts watching a push that is waiting for its postback.
+   * @param currentVersion the version the push was based on
+   * @param isPushed whether the data of a newer version is what was pushed
+   */
+  public void watch(
+      Optional<Credential> oauth2,
+      String projectName,
+      int currentVersion,
+      PostbackPromise promise,
+      Predicate<SnapshotData> isPushed) {
+    scheduler.schedule(
+        () -> poll(oauth2, projectName, currentVersion, promise, isPushed, INITIAL_INTERVAL_MILLIS),
+        gracePeriodMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void poll(
+      Optional<Credential> oauth2,
+      String projectName,
+      int currentVersion,
+      PostbackPromise promise,
+      Predicate<SnapshotData> isPushed,
+      long intervalMillis) {
+    if (promise.isDone()) {
+      return;
+    }
+    Log.debug("[{}] No postback yet, polling for version > {}", projectName, currentVersion);
+    snapshotApi
+        .getDocAsync(oauth2, projectName)
+        .thenCompose(doc -> confirm(oauth2, projectName, doc, currentVersion, promise, isPushed))
+        .whenComplete(
+            (confirmed, t) -> {
+              if (promise.isDone()) {
+                return;
+              }
+              if (t == null && confirmed.isPresent()) {
+                promise.polledVersionID(confirmed.get());
+                return;
+              }
+              if (t != null) {
+                Log.debug("[{}] Failed to poll for push result: {}", projectName, t.toString());
+              }
+              scheduler.schedule(
+                  () ->
+                      poll(
+                          oauth2,
+                          projectName,
+                          currentVersion,
+                          promise,
+                          isPushed,
+                          Math.min(intervalMillis * 2, maxIntervalMillis)),
+                  intervalMillis,
+                  TimeUnit.MILLISECONDS);
+            });
+  }
+
+  /*
+   * Returns the latest version if it is past the one the push was based on
+   * and its data is what was pushed. The data is compared on the poller's
+   * thread, rather than the http client's.
+   */
+  private CompletableFuture<Optional<Integer>> confirm(
+      Optional<Credential> oauth2,
+      String projectName,
+      GetDocResult doc,
+      int currentVersion,
+      PostbackPromise promise,
+      Predicate<SnapshotData> isPushed) {
+    int latest;
+    try {
+      latest = doc.getVersionID();
+    } catch (GitUserException e) {
+      Log.debug("[{}] Polled getDoc returned an error: {}", projectName, e.getMessage());
+      return CompletableFuture.completedFuture(Optional.empty());
+    }
+    if (latest <= currentVersion || promise.isDone()) {
+      return CompletableFuture.completedFuture(Optional.empty());
+    }
+    return snapshotApi
+        .getSnapshotDataAsync(oauth2, projectName, latest)
+        .thenApplyAsync(
+            data -> {
+              if (promise.isDone() || !isPushed.test(data)) {
+                Log.debug("[{}] Version {} is not the push", projectName, latest);
+                return Optional.empty();
+              }
+              return Optional.of(latest);
+            },
+            scheduler);
+  }
+}
@@ -1,8 +1,10 @@
 package uk.ac.ic.wlgitbridge.snapshot.push;
 
+import io.prometheus.client.Counter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeoutException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InternalErrorException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InvalidPostbackKeyException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.PostbackTimeoutException;
@@ -10,74 +12,86 @@ import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostException;
 
 /*
  * Created by Winston on 17/11/14.
+ *
+ * The result of a push, completed by its postback.
+ *
+ * The result is a {@link CompletableFuture}, so it can be waited on with a
+ * timeout by the pushing thread, or composed with, without a lock. Only the
+ * first result counts, whether it comes from a postback with the right key
+ * or from the {@link PostbackPoller}.
  */
 public class PostbackPromise {
 
-  private static int TIMEOUT_SECONDS = 60 * 6;
+  /* Not final, so that tests can time out sooner. */
+  static int TIMEOUT_SECONDS = 60 * 6;
 
-  private final String postbackKey;
-  private final ReentrantLock lock;
-  private final Condition cond;
+  private static final Counter completions =
+      Counter.build()
+          .name("push_completions_total")
+          .help("Pushes by how their result was found: postback, polling or timeout")
+          .labelNames("via")
+          .register();
 
-  private boolean received;
-  private int versionID;
-  private SnapshotPostException exception;
+  private final String postbackKey;
+  private final CompletableFuture<Integer> versionID;
 
   public PostbackPromise(String postbackKey) {
     this.postbackKey = postbackKey;
-    lock = new ReentrantLock();
-    cond = lock.newCondition();
-    received = false;
-    exception = null;
+    versionID = new CompletableFuture<>();
   }
 
   public int waitForPostback() throws SnapshotPostException {
-    lock.lock();
     try {
-      while (!received) {
-        try {
-          if (!cond.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
-            throw new PostbackTimeoutException(TIMEOUT_SECONDS);
-          }
-        } catch (InterruptedException e) {
-          throw new InternalErrorException();
-        }
+      return versionID.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      completions.labels("timeout").inc();
+      throw new PostbackTimeoutException(TIMEOUT_SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InternalErrorException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SnapshotPostException) {
+        throw (SnapshotPostException) e.getCause();
       }
-      if (exception != null) {
-        throw exception;
-      }
-      return versionID;
-    } finally {
-      lock.unlock();
+      throw new RuntimeException(e.getCause());
     }
   }
 
   public void receivedVersionID(int versionID, String postbackKey) {
-    lock.lock();
-    try {
-      if (postbackKey.equals(this.postbackKey)) {
-        this.versionID = versionID;
-        received = true;
-        cond.signalAll();
-      }
-    } finally {
-      lock.unlock();
+    if (postbackKey.equals(this.postbackKey) && this.versionID.complete(versionID)) {
+      completions.labels("postback").inc();
     }
   }
 
   public void receivedException(SnapshotPostException exception, String postbackKey) {
-    lock.lock();
-    try {
-      if (postbackKey.equals(this.postbackKey)) {
-        this.exception = exception;
-        received = true;
-        cond.signalAll();
-      }
-    } finally {
-      lock.unlock();
+    if (postbackKey.equals(this.postbackKey) && versionID.completeExceptionally(exception)) {
+      completions.labels("postback").inc();
     }
   }
 
+  /*
+   * Resolves the promise with a version that we found by polling, because
+   * the postback was late or lost.
+   */
+  public void polledVersionID(int versionID) {
+    if (this.versionID.complete(versionID)) {
+      completions.labels("polling").inc();
+    }
+  }
+
+  /*
+   * Gives up on the result, once the push has stopped waiting for it. Does
+   * nothing if the promise is already done.
+   */
+  public void abandon() {
+    versionID.cancel(false);
+  }
+
+  /* True once the promise has been resolved or abandoned. */
+  public boolean isDone() {
+    return versionID.isDone();
+  }
+
   public void checkPostbackKey(String postbackKey) throws InvalidPostbackKeyException {
     if (!postbackKey.equals(this.postbackKey)) {
       throw new InvalidPostbackKeyException();
@@ -0,0 +1,168 @@
+package uk.ac.ic.wlgitbridge.util;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Reads another stream ahead of its reader, on a thread of its own, so that
+ * producing the bytes and consuming them run as separate stages of a
+ * pipeline.
+ *
+ * The source is read in chunks of {@code chunkSize} bytes, and at most
+ * {@code chunks} chunks are buffered; the reading thread blocks while they
+ * are full. The source is only ever used, and closed, by that thread.
+ * Closing this stream stops the thread and waits for it to close the source.
+ *
+ * It also counts the time spent reading the source, and the time its reader
+ * spent waiting for a chunk, so that the stages can be timed separately.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+  private static final Chunk END = new Chunk(new byte[0], 0, null);
+
+  private final InputStream source;
+  private final BlockingQueue<Chunk> chunks;
+  private final Thread reader;
+  private final AtomicLong sourceNanos = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+
+  private Chunk current = null;
+  private int pos = 0;
+  private volatile boolean closed = false;
+
+  public ReadAheadInputStream(InputStream source, int chunkSize, int chunks, String threadName) {
+    Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive: %s", chunkSize);
+    Preconditions.checkArgument(chunks > 0, "chunks must be positive: %s", chunks);
+    this.source = source;
+    this.chunks = new ArrayBlockingQueue<>(chunks);
+    reader = new Thread(() -> readSource(chunkSize), threadName);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /* The time spent reading the source, including waiting for it. */
+  public long getSourceNanos() {
+    return sourceNanos.get();
+  }
+
+  /* The time the reader of this stream spent waiting for the source. */
+  public long getWaitNanos() {
+    return waitNanos.get();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextChunk()) {
+      return -1;
+    }
+    return current.bytes[pos++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!nextChunk()) {
+      return -1;
+    }
+    int n = Math.min(len, current.length - pos);
+    System.arraycopy(current.bytes, pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    reader.interrupt();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  /* @return false at the end of the source */
+  private boolean nextChunk() throws IOException {
+    if (current == END) {
+      return false;
+    }
+    if (current != null && current.error != null) {
+      throw new IOException("failed to read ahead", current.error);
+    }
+    if (current != null && pos < current.length) {
+      return true;
+    }
+    long start = System.nanoTime();
+    try {
+      current = chunks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      waitNanos.addAndGet(System.nanoTime() - start);
+    }
+    pos = 0;
+    if (current.error != null) {
+      throw new IOException("failed to read ahead", current.error);
+    }
+    return current != END;
+  }
+
+  private void readSource(int chunkSize) {
+    try {
+      while (!closed) {
+        byte[] bytes = new byte[chunkSize];
+        long start = System.nanoTime();
+        int n;
+        try {
+          n = source.readNBytes(bytes, 0, chunkSize);
+        } finally {
+          sourceNanos.addAndGet(System.nanoTime() - start);
+        }
+        if (n > 0) {
+          chunks.put(new Chunk(bytes, n, null));
+        }
+        if (n < chunkSize) {
+          chunks.put(END);
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      // closed
+    } catch (Throwable t) {
+      if (!closed) {
+        try {
+          chunks.put(new Chunk(null, 0, t));
+        } catch (InterruptedException e) {
+          // closed
+        }
+      }
+    } finally {
+      try {
+        source.close();
+      } catch (IOException e) {
+        Log.warn("Failed to close read-ahead source", e);
+      }
+    }
+  }
+
+  private static class Chunk {
+
+    private final byte[] bytes;
+    private final int length;
+    private final Throwable error;
+
+    Chunk(byte[] bytes, int length, Throwable error) {
+      this.bytes = bytes;
+      this.length = length;
+      this.error = error;
+    }
+  }
+}
@@ -1,9 +1,16 @@
 package uk.ac.ic.wlgitbridge.util;
 
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
 import com.google.api.client.repackaged.com.google.common.base.Preconditions;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
@@ -13,6 +20,7 @@ import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 
 /*
  * Tar utilities.
@@ -21,6 +29,8 @@ import org.apache.commons.compress.utils.IOUtils;
  *
  * The resource given to unzip is treated as unowned.
  *
+ * The stream given to zipTo is written to but not closed.
+ *
  * Caller is responsible for all resources.
  */
 public class Tar {
@@ -47,6 +57,18 @@ public class Tar {
       return new DeletingFileInputStream(tmp);
     }
 
+    /* Tars and gzips straight into target, without a temporary file. */
+    public static void zipTo(File fileOrDir, OutputStream target) throws IOException {
+      try (OutputStream gz = new GzipCompressorOutputStream(CloseShieldOutputStream.wrap(target))) {
+        tarTo(fileOrDir, gz);
+      }
+    }
+
+    /* Closing the returned stream closes targz. */
+    public static InputStream decompress(InputStream targz) throws IOException {
+      return new GzipCompressorInputStream(targz);
+    }
+
     public static void unzip(InputStream targz, File parentDir) throws IOException {
       /* GzipCompressorInputStream does not need closing
       Closing it would close targz which we should not do */
@@ -78,6 +100,19 @@ public class Tar {
       return new DeletingFileInputStream(tmp);
     }
 
+    /* Tars and bzip2s straight into target, without a temporary file. */
+    public static void zipTo(File fileOrDir, OutputStream target) throws IOException {
+      try (OutputStream bzip2 =
+          new BZip2CompressorOutputStream(CloseShieldOutputStream.wrap(target))) {
+        tarTo(fileOrDir, bzip2);
+      }
+    }
+
+    /* Closing the returned stream closes tarbz2. */
+    public static InputStream decompress(InputStream tarbz2) throws IOException {
+      return new BZip2CompressorInputStream(tarbz2);
+    }
+
     public static void unzip(InputStream tarbz2, File parentDir) throws IOException {
       /* BZip2CompressorInputStream does not need closing
       Closing it would close tarbz2 which we should not do */
@@ -86,6 +121,30 @@ public class Tar {
     }
   }
 
+  public static class zstd {
+
+    /*
+     * Tars and zstds straight into target, without a temporary file.
+     * @param level the compression level, from 1 to 19
+     * @param workers the threads to compress with, or 0 to compress on this
+     * one
+     */
+    public static void zipTo(File fileOrDir, OutputStream target, int level, int workers)
+        throws IOException {
+      ZstdOutputStream zstd = new ZstdOutputStream(CloseShieldOutputStream.wrap(target), level);
+      /* Closes zstd */
+      try (OutputStream buffered = new BufferedOutputStream(zstd, 1 << 20)) {
+        zstd.setWorkers(workers);
+        tarTo(fileOrDir, buffered);
+      }
+    }
+
+    /* Closing the returned stream closes tarzst. */
+    public static InputStream decompress(InputStream tarzst) throws IOException {
+      return new ZstdInputStream(tarzst);
+    }
+  }
+
   private Tar() {}
 
   public static InputStream tar(File fileOrDir) throws IOException {
@@ -106,8 +165,17 @@ public class Tar {
     }
   }
 
+  /*
+   * Files are written through a direct buffer of this size, so that each
+   * write to disk is a large one.
+   */
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
   public static void untar(InputStream tar, File parentDir) throws IOException {
     TarArchiveInputStream tin = new TarArchiveInputStream(tar);
+    /* Not closed, as that would close tin */
+    ReadableByteChannel in = Channels.newChannel(tin);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
     ArchiveEntry e;
     while ((e = tin.getNextEntry()) != null) {
       File f = new File(parentDir, e.getName());
@@ -119,10 +187,33 @@ public class Tar {
       }
       long size = e.getSize();
       checkFileSize(size);
-      try (OutputStream out = new FileOutputStream(f)) {
-        /* TarInputStream pretends each
-        entry's EOF is the stream's EOF */
-        IOUtils.copy(tin, out);
+      /* TarInputStream pretends each
+      entry's EOF is the stream's EOF */
+      writeFile(in, f, buffer);
+    }
+  }
+
+  private static void writeFile(ReadableByteChannel in, File f, ByteBuffer buffer)
+      throws IOException {
+    try (FileChannel out =
+        FileChannel.open(
+            f.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      boolean eof = false;
+      while (!eof) {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+          if (in.read(buffer) < 0) {
+            eof = true;
+            break;
+          }
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
       }
     }
   }
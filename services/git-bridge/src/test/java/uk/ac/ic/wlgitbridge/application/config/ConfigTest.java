@@ -57,6 +57,30 @@ public class ConfigTest {
     assertNull(config.getOauth2Server());
   }
 
+  @Test(expected = IllegalArgumentException.class)
+  public void zstdLevelOutOfRangeIsRejectedOnLoad() {
+    Reader reader =
+        new StringReader(
+            "{\n"
+                + "    \"port\": 80,\n"
+                + "    \"bindIp\": \"127.0.0.1\",\n"
+                + "    \"idleTimeout\": 30000,\n"
+                + "    \"rootGitDirectory\": \"/var/wlgb/git\",\n"
+                + "    \"apiBaseUrl\": \"http://127.0.0.1:60000/api/v0\",\n"
+                + "    \"postbackBaseUrl\": \"http://127.0.0.1\",\n"
+                + "    \"serviceName\": \"Overleaf\",\n"
+                + "    \"swapJob\": {\n"
+                + "        \"minProjects\": 50,\n"
+                + "        \"lowGiB\": 128,\n"
+                + "        \"highGiB\": 256,\n"
+                + "        \"intervalMillis\": 3600000,\n"
+                + "        \"compressionMethod\": \"zstd\",\n"
+                + "        \"zstd\": { \"level\": 22 }\n"
+                + "    }\n"
+                + "}\n");
+    new Config(reader);
+  }
+
   @Test
   public void asSanitised() throws Exception {
     Reader reader =
@@ -87,7 +111,15 @@ public class ConfigTest {
             + "  \"repoStore\": null,\n"
             + "  \"swapStore\": null,\n"
             + "  \"swapJob\": null,\n"
-            + "  \"sqliteHeapLimitBytes\": 0\n"
+            + "  \"sqliteHeapLimitBytes\": 0,\n"
+            + "  \"snapshotApi\": null,\n"
+            + "  \"resourceCache\": null,\n"
+            + "  \"projectLock\": null,\n"
+            + "  \"sqliteCacheSizeKib\": 0,\n"
+            + "  \"sqliteMmapSizeBytes\": 0,\n"
+            + "  \"sqliteReaderConnections\": 4,\n"
+            + "  \"sqliteLastAccessedFlushIntervalSeconds\": 60,\n"
+            + "  \"dbCache\": null\n"
             + "}";
     assertEquals(
         "sanitised config did not hide sensitive fields", expected, config.getSanitisedString());
@@ -1,25 +1,43 @@
 package uk.ac.ic.wlgitbridge.bridge;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
+import com.google.api.client.auth.oauth2.Credential;
+import io.prometheus.client.CollectorRegistry;
 import java.io.IOException;
-import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Before;
 import org.junit.Test;
 import uk.ac.ic.wlgitbridge.application.config.Config;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.db.UnitOfWork;
 import uk.ac.ic.wlgitbridge.bridge.gc.GcJob;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockOperation;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
 import uk.ac.ic.wlgitbridge.bridge.resource.ResourceCache;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiFacade;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotStream;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJob;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
 import uk.ac.ic.wlgitbridge.data.CannotAcquireLockException;
+import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.data.model.Snapshot;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+import uk.ac.ic.wlgitbridge.snapshot.base.ForbiddenException;
+import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
 import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
 
 /*
@@ -32,6 +50,7 @@ public class BridgeTest {
   private ProjectLock lock;
   private RepoStore repoStore;
   private DBStore dbStore;
+  private UnitOfWork unitOfWork;
   private SwapStore swapStore;
   private SnapshotApiFacade snapshotAPI;
   private ResourceCache resourceCache;
@@ -43,6 +62,8 @@ public class BridgeTest {
     lock = mock(ProjectLock.class);
     repoStore = mock(RepoStore.class);
     dbStore = mock(DBStore.class);
+    unitOfWork = mock(UnitOfWork.class);
+    when(dbStore.beginUpdate(any())).thenReturn(unitOfWork);
     swapStore = mock(SwapStore.class);
     snapshotAPI = mock(SnapshotApiFacade.class);
     resourceCache = mock(ResourceCache.class);
@@ -50,7 +71,9 @@ public class BridgeTest {
     gcJob = mock(GcJob.class);
     bridge =
         new Bridge(
-            new Config(0, "", 0, "", null, "", "", "", null, false, null, null, null, 0),
+            new Config(
+                0, "", 0, "", null, "", "", "", null, false, null, null, null, 0, null, null, null,
+                0, 0, 4, 60, null),
             lock,
             repoStore,
             dbStore,
@@ -69,6 +92,8 @@ public class BridgeTest {
     bridge.doShutdown();
     verify(swapJob).stop();
     verify(gcJob).stop();
+    verify(dbStore).stop();
+    verify(swapStore).stop();
   }
 
   @Test
@@ -80,8 +105,208 @@ public class BridgeTest {
     when(snapshotAPI.projectExists(Optional.empty(), "asdf")).thenReturn(true);
     when(snapshotAPI.getDoc(Optional.empty(), "asdf"))
         .thenReturn(Optional.of(mock(GetDocResult.class)));
-    when(snapshotAPI.getSnapshots(any(), any(), anyInt())).thenReturn(new ArrayDeque<>());
+    when(snapshotAPI.getSnapshots(any(), any(), anyInt())).thenReturn(mock(SnapshotStream.class));
     bridge.getUpdatedRepo(Optional.empty(), "asdf");
     verify(dbStore).setLastAccessedTime(eq("asdf"), any());
   }
+
+  @Test
+  public void updatingRepositoryCommitsOneUnitOfWork()
+      throws IOException, GitUserException, CannotAcquireLockException {
+    ProjectRepo repo = mock(ProjectRepo.class);
+    when(repo.getProjectName()).thenReturn("asdf");
+    when(repoStore.getExistingRepo("asdf")).thenReturn(repo);
+    when(dbStore.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+    when(snapshotAPI.projectExists(Optional.empty(), "asdf")).thenReturn(true);
+    when(snapshotAPI.getDoc(Optional.empty(), "asdf"))
+        .thenReturn(Optional.of(mock(GetDocResult.class)));
+    when(snapshotAPI.getSnapshots(any(), any(), anyInt())).thenReturn(mock(SnapshotStream.class));
+    bridge.getUpdatedRepo(Optional.empty(), "asdf");
+    verify(dbStore).beginUpdate("asdf");
+    verify(unitOfWork).commit();
+    verify(unitOfWork).close();
+  }
+
+  @Test
+  public void failedSyncKeepsTheVersionsAlreadyCommitted() throws Exception {
+    ProjectRepo repo = mock(ProjectRepo.class);
+    when(repo.getProjectName()).thenReturn("asdf");
+    when(repo.getDirectory()).thenReturn(new RawDirectory(Collections.emptyMap()));
+    when(repoStore.getExistingRepo("asdf")).thenReturn(repo);
+    when(dbStore.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+    when(snapshotAPI.getDoc(Optional.empty(), "asdf"))
+        .thenReturn(Optional.of(mock(GetDocResult.class)));
+    Snapshot snapshot = mock(Snapshot.class);
+    when(snapshot.getVersionID()).thenReturn(3);
+    SnapshotStream snapshots = mock(SnapshotStream.class);
+    when(snapshots.hasNext()).thenReturn(true);
+    when(snapshots.next()).thenReturn(snapshot).thenThrow(new FailedConnectionException());
+    when(snapshotAPI.getSnapshots(any(), any(), anyInt())).thenReturn(snapshots);
+    try {
+      bridge.getUpdatedRepo(Optional.empty(), "asdf");
+      fail("sync should have failed");
+    } catch (FailedConnectionException e) {
+      // expected
+    }
+    verify(repo, times(1)).commitAndGetMissing(any());
+    verify(dbStore).setLatestVersionForProject("asdf", 3);
+    verify(unitOfWork).commit();
+  }
+
+  @Test
+  public void failureToCommitAFailedSyncDoesNotHideWhyItFailed() throws Exception {
+    ProjectRepo repo = mock(ProjectRepo.class);
+    when(repo.getProjectName()).thenReturn("asdf");
+    when(repoStore.getExistingRepo("asdf")).thenReturn(repo);
+    when(dbStore.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+    when(snapshotAPI.getDoc(Optional.empty(), "asdf"))
+        .thenReturn(Optional.of(mock(GetDocResult.class)));
+    SnapshotStream snapshots = mock(SnapshotStream.class);
+    when(snapshots.hasNext()).thenReturn(true);
+    when(snapshots.next()).thenThrow(new FailedConnectionException());
+    when(snapshotAPI.getSnapshots(any(), any(), anyInt())).thenReturn(snapshots);
+    IllegalStateException commitFailure = new IllegalStateException("db failed");
+    doThrow(commitFailure).when(unitOfWork).commit();
+    try {
+      bridge.getUpdatedRepo(Optional.empty(), "asdf");
+      fail("sync should have failed");
+    } catch (FailedConnectionException e) {
+      assertArrayEquals(new Throwable[] {commitFailure}, e.getSuppressed());
+    }
+  }
+
+  @Test
+  public void upToDateRepositoryIsReturnedUnderTheSharedLock() throws Exception {
+    ProjectRepo repo = mock(ProjectRepo.class);
+    GetDocResult doc = mock(GetDocResult.class);
+    when(doc.getVersionID()).thenReturn(5);
+    when(repoStore.getExistingRepo("asdf")).thenReturn(repo);
+    when(dbStore.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+    when(dbStore.getLatestVersionForProject("asdf")).thenReturn(5);
+    when(snapshotAPI.getDoc(Optional.empty(), "asdf")).thenReturn(Optional.of(doc));
+    assertSame(repo, bridge.getUpdatedRepo(Optional.empty(), "asdf"));
+    verify(lock).sharedLockGuard("asdf", LockOperation.FETCH);
+    verify(lock, never()).lockGuard(eq("asdf"), any());
+    verify(snapshotAPI, never()).getSnapshots(any(), any(), anyInt());
+  }
+
+  @Test
+  public void concurrentSyncsOfTheSameProjectAreCoalesced() throws Exception {
+    ProjectRepo repo = mock(ProjectRepo.class);
+    when(repoStore.getExistingRepo("asdf")).thenReturn(repo);
+    when(dbStore.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+    when(snapshotAPI.getDoc(Optional.empty(), "asdf"))
+        .thenReturn(Optional.of(mock(GetDocResult.class)));
+    when(snapshotAPI.getSnapshots(any(), any(), anyInt())).thenReturn(mock(SnapshotStream.class));
+    CountDownLatch syncStarted = new CountDownLatch(1);
+    CountDownLatch finishSync = new CountDownLatch(1);
+    when(lock.lockGuard("asdf", LockOperation.FETCH))
+        .thenAnswer(
+            invocation -> {
+              syncStarted.countDown();
+              finishSync.await();
+              return null;
+            });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<ProjectRepo> leader =
+          executor.submit(() -> bridge.getUpdatedRepo(Optional.empty(), "asdf"));
+      syncStarted.await();
+      Future<ProjectRepo> follower =
+          executor.submit(() -> bridge.getUpdatedRepo(Optional.empty(), "asdf"));
+      while (CollectorRegistry.defaultRegistry.getSampleValue("coalesced_sync_waiters") < 1) {
+        Thread.sleep(10);
+      }
+      finishSync.countDown();
+      assertSame(repo, leader.get());
+      assertSame(repo, follower.get());
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(lock, times(1)).lockGuard("asdf", LockOperation.FETCH);
+    verify(lock).sharedLockGuard("asdf", LockOperation.FETCH);
+    verify(snapshotAPI, times(1)).getSnapshots(any(), any(), anyInt());
+  }
+
+  @Test
+  public void syncArrivingWhileTheLeaderIsSyncingIsCoalesced() throws Exception {
+    ProjectRepo repo = mock(ProjectRepo.class);
+    when(repoStore.getExistingRepo("asdf")).thenReturn(repo);
+    when(snapshotAPI.getDoc(Optional.empty(), "asdf"))
+        .thenReturn(Optional.of(mock(GetDocResult.class)));
+    when(snapshotAPI.getSnapshots(any(), any(), anyInt())).thenReturn(mock(SnapshotStream.class));
+    CountDownLatch syncing = new CountDownLatch(1);
+    CountDownLatch finishSync = new CountDownLatch(1);
+    /* Only read by getUpdatedRepoCritical, until the follower checks the repo */
+    when(dbStore.getProjectState("asdf"))
+        .thenAnswer(
+            invocation -> {
+              syncing.countDown();
+              finishSync.await();
+              return ProjectState.PRESENT;
+            });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<ProjectRepo> leader =
+          executor.submit(() -> bridge.getUpdatedRepo(Optional.empty(), "asdf"));
+      syncing.await();
+      Future<ProjectRepo> follower =
+          executor.submit(() -> bridge.getUpdatedRepo(Optional.empty(), "asdf"));
+      while (CollectorRegistry.defaultRegistry.getSampleValue("coalesced_sync_waiters") < 1) {
+        Thread.sleep(10);
+      }
+      finishSync.countDown();
+      assertSame(repo, leader.get());
+      assertSame(repo, follower.get());
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(lock, times(1)).lockGuard("asdf", LockOperation.FETCH);
+    verify(snapshotAPI, times(1)).getSnapshots(any(), any(), anyInt());
+  }
+
+  @Test
+  public void syncFailingForTheLeadersUserIsRetriedByTheFollower() throws Exception {
+    Credential leaderCredential = mock(Credential.class);
+    ProjectRepo repo = mock(ProjectRepo.class);
+    when(repoStore.getExistingRepo("asdf")).thenReturn(repo);
+    when(dbStore.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+    when(snapshotAPI.getDoc(any(), eq("asdf"))).thenReturn(Optional.of(mock(GetDocResult.class)));
+    when(snapshotAPI.getSnapshots(eq(Optional.of(leaderCredential)), any(), anyInt()))
+        .thenThrow(new ForbiddenException());
+    when(snapshotAPI.getSnapshots(eq(Optional.empty()), any(), anyInt()))
+        .thenReturn(mock(SnapshotStream.class));
+    CountDownLatch leaderLocked = new CountDownLatch(1);
+    CountDownLatch finishLocking = new CountDownLatch(1);
+    when(lock.lockGuard("asdf", LockOperation.FETCH))
+        .thenAnswer(
+            invocation -> {
+              leaderLocked.countDown();
+              finishLocking.await();
+              return null;
+            })
+        .thenReturn(null);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<ProjectRepo> leader =
+          executor.submit(() -> bridge.getUpdatedRepo(Optional.of(leaderCredential), "asdf"));
+      leaderLocked.await();
+      Future<ProjectRepo> follower =
+          executor.submit(() -> bridge.getUpdatedRepo(Optional.empty(), "asdf"));
+      while (CollectorRegistry.defaultRegistry.getSampleValue("coalesced_sync_waiters") < 1) {
+        Thread.sleep(10);
+      }
+      finishLocking.countDown();
+      try {
+        leader.get();
+        fail("the leader's sync should have failed");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof ForbiddenException);
+      }
+      assertSame(repo, follower.get());
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(snapshotAPI).getSnapshots(eq(Optional.empty()), any(), anyInt());
+  }
 }
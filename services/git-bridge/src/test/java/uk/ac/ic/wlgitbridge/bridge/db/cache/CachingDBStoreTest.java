@@ -0,0 +1,114 @@
+package uk.ac.ic.wlgitbridge.bridge.db.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.db.UnitOfWork;
+
+public class CachingDBStoreTest {
+
+  private DBStore store;
+  private CachingDBStore cache;
+
+  @Before
+  public void setup() {
+    store = mock(DBStore.class);
+    when(store.beginUpdate(any())).thenReturn(mock(UnitOfWork.class));
+    cache = new CachingDBStore(store, 2, 10);
+  }
+
+  @Test
+  public void projectRowIsOnlyReadOnce() {
+    when(store.getLatestVersionForProject("asdf")).thenReturn(3);
+    when(store.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(3, cache.getLatestVersionForProject("asdf"));
+      assertEquals(ProjectState.PRESENT, cache.getProjectState("asdf"));
+    }
+    verify(store, times(1)).getLatestVersionForProject("asdf");
+    verify(store, times(1)).getProjectState("asdf");
+  }
+
+  @Test
+  public void writesGoThroughToTheStoreAndTheCache() {
+    when(store.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+    assertEquals(ProjectState.PRESENT, cache.getProjectState("asdf"));
+    cache.setLatestVersionForProject("asdf", 4);
+    cache.swap("asdf", "gzip");
+    verify(store).setLatestVersionForProject("asdf", 4);
+    verify(store).swap("asdf", "gzip");
+    assertEquals(4, cache.getLatestVersionForProject("asdf"));
+    assertEquals(ProjectState.SWAPPED, cache.getProjectState("asdf"));
+    cache.restore("asdf");
+    assertEquals(ProjectState.PRESENT, cache.getProjectState("asdf"));
+    verify(store, never()).getLatestVersionForProject("asdf");
+    verify(store, times(1)).getProjectState("asdf");
+  }
+
+  @Test
+  public void missingUrlsAreCachedUntilAdded() {
+    assertNull(cache.getPathForURLInProject("asdf", "url"));
+    assertNull(cache.getPathForURLInProject("asdf", "url"));
+    verify(store, times(1)).getPathForURLInProject("asdf", "url");
+    cache.addURLIndexForProject("asdf", "url", "path");
+    assertEquals("path", cache.getPathForURLInProject("asdf", "url"));
+    verify(store, times(1)).getPathForURLInProject("asdf", "url");
+  }
+
+  @Test
+  public void deletedAndReplacedPathsAreRemovedFromTheirUrls() {
+    when(store.getPathForURLInProject("asdf", "url1")).thenReturn("path1");
+    when(store.getPathForURLInProject("asdf", "url2")).thenReturn("path2");
+    assertEquals("path1", cache.getPathForURLInProject("asdf", "url1"));
+    assertEquals("path2", cache.getPathForURLInProject("asdf", "url2"));
+    cache.deleteFilesForProject("asdf", "path1");
+    cache.addURLIndexForProject("asdf", "url3", "path2");
+    assertNull(cache.getPathForURLInProject("asdf", "url1"));
+    assertNull(cache.getPathForURLInProject("asdf", "url2"));
+    assertEquals("path2", cache.getPathForURLInProject("asdf", "url3"));
+    verify(store, times(1)).getPathForURLInProject("asdf", "url1");
+    verify(store, times(1)).getPathForURLInProject("asdf", "url2");
+  }
+
+  @Test
+  public void leastRecentlyUsedProjectIsDropped() {
+    cache.getLatestVersionForProject("a");
+    cache.getLatestVersionForProject("b");
+    cache.getLatestVersionForProject("a");
+    cache.getLatestVersionForProject("c");
+    cache.getLatestVersionForProject("a");
+    cache.getLatestVersionForProject("b");
+    verify(store, times(1)).getLatestVersionForProject("a");
+    verify(store, times(2)).getLatestVersionForProject("b");
+  }
+
+  @Test
+  public void uncommittedUnitOfWorkDropsTheProject() {
+    when(store.getLatestVersionForProject("asdf")).thenReturn(3);
+    try (UnitOfWork update = cache.beginUpdate("asdf")) {
+      cache.setLatestVersionForProject("asdf", 4);
+      assertEquals(4, cache.getLatestVersionForProject("asdf"));
+    }
+    assertEquals(3, cache.getLatestVersionForProject("asdf"));
+    try (UnitOfWork update = cache.beginUpdate("asdf")) {
+      cache.setLatestVersionForProject("asdf", 5);
+      update.commit();
+    }
+    assertEquals(5, cache.getLatestVersionForProject("asdf"));
+    verify(store, times(1)).getLatestVersionForProject("asdf");
+  }
+
+  @Test
+  public void deletedProjectIsReadAgain() {
+    cache.setLatestVersionForProject("asdf", 4);
+    cache.deleteProject("asdf");
+    when(store.getProjectState("asdf")).thenReturn(ProjectState.NOT_PRESENT);
+    assertEquals(ProjectState.NOT_PRESENT, cache.getProjectState("asdf"));
+    verify(store).deleteProject("asdf");
+  }
+}
@@ -2,28 +2,45 @@ package uk.ac.ic.wlgitbridge.bridge.db.sqlite;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
+import uk.ac.ic.wlgitbridge.bridge.db.UnitOfWork;
 
 /*
  * Created by winston on 23/08/2016.
  */
 public class SqliteDBStoreTest {
 
+  private File dbFile;
   private SqliteDBStore dbStore;
 
   @Before
   public void setup() throws IOException {
     TemporaryFolder tmpFolder = new TemporaryFolder();
     tmpFolder.create();
-    dbStore = new SqliteDBStore(tmpFolder.newFile("dbStore.db"));
+    dbFile = tmpFolder.newFile("dbStore.db");
+    dbStore = new SqliteDBStore(dbFile);
   }
 
   @Test
@@ -132,4 +149,177 @@ public class SqliteDBStoreTest {
     assertEquals(ProjectState.NOT_PRESENT, dbStore.getProjectState("project1"));
     assertEquals(ProjectState.PRESENT, dbStore.getProjectState("project2"));
   }
+
+  @Test
+  public void databaseIsInWalMode() throws Exception {
+    try (Connection connection =
+            DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        Statement statement = connection.createStatement();
+        ResultSet results = statement.executeQuery("PRAGMA journal_mode")) {
+      results.next();
+      assertEquals("wal", results.getString(1));
+    }
+  }
+
+  @Test
+  public void readsSeeCompletedWrites() {
+    for (int i = 1; i <= 20; i++) {
+      dbStore.setLatestVersionForProject("asdf", i);
+      assertEquals(i, dbStore.getLatestVersionForProject("asdf"));
+    }
+  }
+
+  @Test
+  public void bufferedLastAccessedTimesAreSeenByTheSwapJob() {
+    SqliteDBStore buffered = new SqliteDBStore(dbFile, 0, 0, 0, 1, 60 * 60 * 1000);
+    buffered.setLatestVersionForProject("older", 1);
+    buffered.setLatestVersionForProject("newer", 1);
+    buffered.setLastAccessedTime(
+        "older", Timestamp.valueOf(LocalDateTime.now().minus(5, ChronoUnit.SECONDS)));
+    buffered.setLastAccessedTime("newer", Timestamp.valueOf(LocalDateTime.now()));
+    assertEquals("older", buffered.getOldestUnswappedProject());
+    buffered.setLastAccessedTime(
+        "older", Timestamp.valueOf(LocalDateTime.now().plus(5, ChronoUnit.SECONDS)));
+    assertEquals("newer", buffered.getOldestUnswappedProject());
+  }
+
+  @Test
+  public void swappingDropsABufferedLastAccessedTime() {
+    SqliteDBStore buffered = new SqliteDBStore(dbFile, 0, 0, 0, 1, 60 * 60 * 1000);
+    buffered.setLatestVersionForProject("asdf", 1);
+    buffered.setLastAccessedTime("asdf", Timestamp.valueOf(LocalDateTime.now()));
+    buffered.swap("asdf", "bzip2");
+    buffered.flush();
+    assertEquals(ProjectState.SWAPPED, buffered.getProjectState("asdf"));
+  }
+
+  @Test
+  public void stoppingWritesOutBufferedLastAccessedTimes() {
+    SqliteDBStore buffered = new SqliteDBStore(dbFile, 0, 0, 0, 1, 60 * 60 * 1000);
+    buffered.setLatestVersionForProject("newer", 1);
+    buffered.setLatestVersionForProject("older", 1);
+    buffered.setLastAccessedTime("older", Timestamp.valueOf(LocalDateTime.now().minusHours(1)));
+    buffered.setLastAccessedTime("newer", Timestamp.valueOf(LocalDateTime.now()));
+    buffered.stop();
+    assertEquals("older", new SqliteDBStore(dbFile).getOldestUnswappedProject());
+  }
+
+  @Test
+  public void unitOfWorkIsWrittenOutOnCommit() {
+    dbStore.setLatestVersionForProject("asdf", 1);
+    dbStore.addURLIndexForProject("asdf", "url1", "path1");
+    dbStore.addURLIndexForProject("asdf", "url2", "path2");
+    try (UnitOfWork update = dbStore.beginUpdate("asdf")) {
+      dbStore.deleteFilesForProject("asdf", "path1");
+      dbStore.addURLIndexForProject("asdf", "url3", "path2");
+      dbStore.setLatestVersionForProject("asdf", 2);
+      assertNull(dbStore.getPathForURLInProject("asdf", "url1"));
+      assertNull(dbStore.getPathForURLInProject("asdf", "url2"));
+      assertEquals("path2", dbStore.getPathForURLInProject("asdf", "url3"));
+      assertEquals(2, dbStore.getLatestVersionForProject("asdf"));
+      update.commit();
+    }
+    SqliteDBStore reopened = new SqliteDBStore(dbFile);
+    assertNull(reopened.getPathForURLInProject("asdf", "url1"));
+    assertNull(reopened.getPathForURLInProject("asdf", "url2"));
+    assertEquals("path2", reopened.getPathForURLInProject("asdf", "url3"));
+    assertEquals(2, reopened.getLatestVersionForProject("asdf"));
+  }
+
+  @Test
+  public void unitOfWorkIsThrownAwayIfNotCommitted() {
+    dbStore.setLatestVersionForProject("asdf", 1);
+    dbStore.addURLIndexForProject("asdf", "url1", "path1");
+    try (UnitOfWork update = dbStore.beginUpdate("asdf")) {
+      dbStore.deleteFilesForProject("asdf", "path1");
+      dbStore.setLatestVersionForProject("asdf", 2);
+    }
+    assertEquals("path1", dbStore.getPathForURLInProject("asdf", "url1"));
+    assertEquals(1, dbStore.getLatestVersionForProject("asdf"));
+  }
+
+  @Test
+  public void pathDeletedAndAddedAgainInAUnitOfWorkIsKept() {
+    dbStore.setLatestVersionForProject("asdf", 1);
+    try (UnitOfWork update = dbStore.beginUpdate("asdf")) {
+      dbStore.addURLIndexForProject("asdf", "url1", "path1");
+      dbStore.deleteFilesForProject("asdf", "path1");
+      dbStore.addURLIndexForProject("asdf", "url2", "path1");
+      update.commit();
+    }
+    assertNull(dbStore.getPathForURLInProject("asdf", "url1"));
+    assertEquals("path1", dbStore.getPathForURLInProject("asdf", "url2"));
+  }
+
+  @Test
+  public void manyFilesCanBeAddedAndDeletedAtOnce() {
+    dbStore.setLatestVersionForProject("asdf", 1);
+    Map<String, String> pathsForUrls = new HashMap<>();
+    String[] paths = new String[5000];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = "path" + i;
+      pathsForUrls.put("url" + i, paths[i]);
+    }
+    dbStore.addURLIndexesForProject("asdf", pathsForUrls);
+    assertEquals("path4999", dbStore.getPathForURLInProject("asdf", "url4999"));
+    dbStore.deleteFilesForProject("asdf", paths);
+    assertNull(dbStore.getPathForURLInProject("asdf", "url0"));
+    assertNull(dbStore.getPathForURLInProject("asdf", "url4999"));
+  }
+
+  private List<String> swapCandidateNames(int limit) {
+    return dbStore.getSwapCandidates(0, limit).stream()
+        .map(SwapCandidate::getProjectName)
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void swapCandidatesAreOldestFirst() {
+    for (int i = 0; i < 3; i++) {
+      dbStore.setLatestVersionForProject("proj" + i, 1);
+      dbStore.setLastAccessedTime(
+          "proj" + i, Timestamp.valueOf(LocalDateTime.now().minus(i, ChronoUnit.SECONDS)));
+    }
+    dbStore.swap("proj1", "bzip2");
+    assertEquals(Arrays.asList("proj2", "proj0"), swapCandidateNames(10));
+    assertEquals(Collections.singletonList("proj2"), swapCandidateNames(1));
+    assertEquals(
+        Collections.singletonList("proj0"),
+        dbStore.getSwapCandidates(1, 10).stream()
+            .map(SwapCandidate::getProjectName)
+            .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void failedSwapHoldsProjectBackWithoutTouchingItsLastAccessedTime() {
+    dbStore.setLatestVersionForProject("older", 1);
+    dbStore.setLastAccessedTime(
+        "older", Timestamp.valueOf(LocalDateTime.now().minus(5, ChronoUnit.SECONDS)));
+    dbStore.setLatestVersionForProject("newer", 1);
+    dbStore.setLastAccessedTime("newer", Timestamp.valueOf(LocalDateTime.now()));
+    dbStore.recordSwapFailure("older", Duration.ofHours(1));
+    assertEquals(Collections.singletonList("newer"), swapCandidateNames(10));
+    assertEquals("older", dbStore.getOldestUnswappedProject());
+  }
+
+  @Test
+  public void failedSwapIsRetriedAfterTheBackoff() {
+    dbStore.setLatestVersionForProject("asdf", 1);
+    dbStore.recordSwapFailure("asdf", Duration.ZERO);
+    assertEquals(Collections.singletonList("asdf"), swapCandidateNames(10));
+  }
+
+  @Test
+  public void diskBytesAreKeptUntilTheProjectIsSwapped() {
+    dbStore.setLatestVersionForProject("asdf", 1);
+    assertEquals(0, dbStore.getSwapCandidates(0, 1).get(0).getDiskBytes());
+    dbStore.setDiskBytesForProject("asdf", 1234);
+    dbStore.setLatestVersionForProject("asdf", 2);
+    assertEquals(1234, dbStore.getSwapCandidates(0, 1).get(0).getDiskBytes());
+    dbStore.swap("asdf", "bzip2");
+    dbStore.restore("asdf");
+    SwapCandidate candidate = dbStore.getSwapCandidates(0, 1).get(0);
+    assertEquals(0, candidate.getDiskBytes());
+    assertTrue(candidate.wasRestored());
+  }
 }
@@ -2,6 +2,7 @@ package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.delete;
 
 import static org.junit.Assert.*;
 
+import java.util.List;
 import org.junit.Test;
 
 public class DeleteFilesForProjectSQLUpdateTest {
@@ -14,4 +15,17 @@ public class DeleteFilesForProjectSQLUpdateTest {
         "DELETE FROM `url_index_store` " + "WHERE `project_name` = ? " + "AND path IN (?, ?);\n",
         update.getSQL());
   }
+
+  @Test
+  public void chunksStayUnderTheParameterLimit() {
+    String[] paths = new String[2000];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = "path" + i;
+    }
+    List<DeleteFilesForProjectSQLUpdate> updates =
+        DeleteFilesForProjectSQLUpdate.chunked("projname", paths);
+    assertEquals(3, updates.size());
+    assertEquals(998, updates.get(0).getSQL().chars().filter(c -> c == '?').count() - 1);
+    assertEquals(4, updates.get(2).getSQL().chars().filter(c -> c == '?').count() - 1);
+  }
 }
@@ -12,7 +12,9 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.stubbing.OngoingStubbing;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockOperation;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
@@ -26,6 +28,8 @@ public class GcJobImplTest {
 
   RepoStore repoStore = mock(RepoStore.class);
 
+  DBStore dbStore = mock(DBStore.class);
+
   ProjectLock locks;
 
   GcJobImpl gcJob;
@@ -33,7 +37,7 @@ public class GcJobImplTest {
   @Before
   public void setup() {
     locks = new ProjectLockImpl();
-    gcJob = new GcJobImpl(repoStore, locks, 5);
+    gcJob = new GcJobImpl(repoStore, dbStore, locks, 5);
   }
 
   @After
@@ -104,7 +108,7 @@ public class GcJobImplTest {
     gcJob.onPostGc(gcJob::stop);
     gcJob.queueForGc("a");
     CompletableFuture<Void> fut = gcJob.waitForRun();
-    try (LockGuard __ = locks.lockGuard("a")) {
+    try (LockGuard __ = locks.lockGuard("a", LockOperation.PUSH)) {
       gcJob.start();
       for (int i = 0; i < 50; ++i) {
         assertFalse(fut.isDone());
@@ -13,13 +13,20 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.Supplier;
 import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import uk.ac.ic.wlgitbridge.data.filestore.GitBlobFile;
 import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RawTreeDiff;
 import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
 import uk.ac.ic.wlgitbridge.snapshot.servermock.util.FileUtil;
 import uk.ac.ic.wlgitbridge.util.Files;
@@ -71,13 +78,7 @@ public class GitProjectRepoTest {
       files.add(new RepositoryFile(contents[i], contents[i + 1].getBytes(StandardCharsets.UTF_8)));
     }
     return new GitDirectoryContents(
-        files,
-        repoStore.getRootDirectory(),
-        "repo",
-        "Winston Li",
-        "git@winston.li",
-        "Commit Message",
-        new Date());
+        files, "Winston Li", "git@winston.li", "Commit Message", new Date());
   }
 
   @Test
@@ -131,6 +132,70 @@ public class GitProjectRepoTest {
     badGitignore.commitAndGetMissing(contents);
   }
 
+  @Test
+  public void commitReturnsMissingFilesWithoutTouchingTheWorkingTree() throws Exception {
+    repo.commitAndGetMissing(makeDirContents("file1.txt", "1", "file2.txt", "2"));
+    Set<String> workingTree = new HashSet<>(Arrays.asList(repo.getDotGitDir().list()));
+    Collection<String> missing = repo.commitAndGetMissing(makeDirContents("file1.txt", "one"));
+    assertEquals(Collections.singleton("file2.txt"), new HashSet<>(missing));
+    assertEquals(workingTree, new HashSet<>(Arrays.asList(repo.getDotGitDir().list())));
+    assertEquals(Collections.singleton("file1.txt"), repo.getDirectory().getFileTable().keySet());
+  }
+
+  @Test
+  public void commitWritesTheIndexBack() throws Exception {
+    repo.commitAndGetMissing(makeDirContents("file1.txt", "1", "file2.txt", "2"));
+    repo.commitAndGetMissing(makeDirContents("file1.txt", "one"));
+    Repository jgitRepo = repo.getJGitRepository();
+    DirCache index = jgitRepo.readDirCache();
+    assertEquals(1, index.getEntryCount());
+    assertEquals("file1.txt", index.getEntry(0).getPathString());
+    try (ObjectInserter inserter = jgitRepo.newObjectInserter();
+        RevWalk walk = new RevWalk(jgitRepo)) {
+      assertEquals(
+          walk.parseCommit(jgitRepo.resolve(Constants.HEAD)).getTree().getId(),
+          index.writeTree(inserter));
+    }
+  }
+
+  @Test
+  public void directoryReferencesBlobsInsteadOfCopyingThem() throws Exception {
+    repo.commitAndGetMissing(makeDirContents("file1.txt", "one"));
+    RawFile file = repo.getDirectory().getFileTable().get("file1.txt");
+    assertTrue(file instanceof GitBlobFile);
+    assertEquals(3, file.size());
+    assertEquals("one", new String(file.getContents(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void equalBlobFilesHaveEqualHashCodes() throws Exception {
+    repo.commitAndGetMissing(makeDirContents("file1.txt", "one"));
+    RawFile file = repo.getDirectory().getFileTable().get("file1.txt");
+    RawFile same = repo.getDirectory().getFileTable().get("file1.txt");
+    assertNotSame(file, same);
+    assertEquals(file, same);
+    assertEquals(file.hashCode(), same.hashCode());
+  }
+
+  @Test
+  public void diffComparesTreesByBlobId() throws Exception {
+    repo.commitAndGetMissing(
+        makeDirContents("same.txt", "same", "modified.txt", "1", "deleted.txt", "gone"));
+    ObjectId oldCommit = repo.getJGitRepository().resolve(Constants.HEAD);
+    repo.commitAndGetMissing(
+        makeDirContents("same.txt", "same", "modified.txt", "2", "added.txt", "new"));
+    RawTreeDiff diff = repo.getDiff(Optional.of(oldCommit));
+    Set<String> paths = new HashSet<>();
+    for (RawFile file : diff.getFiles()) {
+      paths.add(file.getPath());
+    }
+    assertEquals(new HashSet<>(Arrays.asList("same.txt", "modified.txt", "added.txt")), paths);
+    assertFalse(diff.isChanged("same.txt"));
+    assertTrue(diff.isChanged("modified.txt"));
+    assertTrue(diff.isChanged("added.txt"));
+    assertEquals(Collections.singletonList("deleted.txt"), diff.getDeleted());
+  }
+
   private static long repoSize(ProjectRepo repo) {
     return FileUtils.sizeOfDirectory(repo.getProjectDir());
   }
@@ -0,0 +1,86 @@
+package uk.ac.ic.wlgitbridge.bridge.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
+import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotAttachment;
+
+public class AttachmentFetcherTest {
+
+  private final ResourceCache resourceCache = mock(ResourceCache.class);
+
+  private final ProjectRepo repo = mock(ProjectRepo.class);
+
+  private static List<SnapshotAttachment> attachments(int n) {
+    List<SnapshotAttachment> atts = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      atts.add(new SnapshotAttachment("http://localhost/" + i, "file" + i));
+    }
+    return atts;
+  }
+
+  private List<RawFile> fetch(AttachmentFetcher fetcher, List<SnapshotAttachment> atts)
+      throws Exception {
+    return fetcher.fetch(repo, atts, new HashMap<>(), new ConcurrentHashMap<>(), Optional.of(100L));
+  }
+
+  @Test
+  public void filesAreReturnedInAttachmentOrderWithinTheCap() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    when(resourceCache.get(any(), anyString(), anyString(), any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+              Thread.sleep(5);
+              inFlight.decrementAndGet();
+              return new RepositoryFile(invocation.getArgument(2), new byte[0]);
+            });
+    List<SnapshotAttachment> atts = attachments(20);
+    List<RawFile> files = fetch(new AttachmentFetcher(resourceCache, 8, 3), atts);
+    assertEquals(
+        atts.stream().map(SnapshotAttachment::getPath).collect(Collectors.toList()),
+        files.stream().map(RawFile::getPath).collect(Collectors.toList()));
+    assertTrue(maxInFlight.get() <= 3);
+  }
+
+  @Test
+  public void firstFailureInAttachmentOrderIsThrown() throws Exception {
+    when(resourceCache.get(any(), anyString(), anyString(), any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              String path = invocation.getArgument(2);
+              if (path.equals("file1")) {
+                Thread.sleep(20);
+                throw new SizeLimitExceededException(Optional.of(path), 200, 100);
+              }
+              if (path.equals("file2")) {
+                throw new SizeLimitExceededException(Optional.of(path), 300, 100);
+              }
+              return new RepositoryFile(path, new byte[0]);
+            });
+    try {
+      fetch(new AttachmentFetcher(resourceCache, 4, 4), attachments(4));
+      fail("expected SizeLimitExceededException");
+    } catch (SizeLimitExceededException e) {
+      assertTrue(e.getDescriptionLines().get(0).contains("'file1'"));
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package uk.ac.ic.wlgitbridge.bridge.resource;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskBlobCacheTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private File dir;
+
+  @Before
+  public void setup() throws IOException {
+    dir = tmpFolder.newFolder("blobs");
+  }
+
+  private static byte[] bytes(String contents) {
+    return contents.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static ObjectId idFor(byte[] contents) {
+    return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, contents);
+  }
+
+  private void put(DiskBlobCache cache, byte[] contents) throws IOException {
+    File file = tmpFolder.newFile();
+    Files.write(file.toPath(), contents);
+    cache.put(idFor(contents), file);
+  }
+
+  private static byte[] read(DiskBlobCache cache, ObjectId id) throws IOException {
+    return Files.readAllBytes(cache.get(id).get().toPath());
+  }
+
+  @Test
+  public void getReturnsWhatWasPut() throws IOException {
+    DiskBlobCache cache = new DiskBlobCache(dir, 100);
+    byte[] contents = bytes("content");
+    ObjectId id = idFor(contents);
+    assertFalse(cache.get(id).isPresent());
+    put(cache, contents);
+    assertArrayEquals(contents, read(cache, id));
+  }
+
+  @Test
+  public void putMovesTheFileIntoTheCache() throws IOException {
+    DiskBlobCache cache = new DiskBlobCache(dir, 100);
+    File file = tmpFolder.newFile();
+    Files.write(file.toPath(), bytes("content"));
+    cache.put(idFor(bytes("content")), file);
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void leastRecentlyUsedBlobIsEvicted() throws IOException {
+    DiskBlobCache cache = new DiskBlobCache(dir, 10);
+    byte[] a = bytes("aaaa");
+    byte[] b = bytes("bbbb");
+    byte[] c = bytes("cccc");
+    put(cache, a);
+    put(cache, b);
+    assertTrue(cache.get(idFor(a)).isPresent());
+    put(cache, c);
+    assertTrue(cache.get(idFor(a)).isPresent());
+    assertFalse(cache.get(idFor(b)).isPresent());
+    assertTrue(cache.get(idFor(c)).isPresent());
+  }
+
+  @Test
+  public void blobsSurviveARestart() throws IOException {
+    byte[] contents = bytes("content");
+    put(new DiskBlobCache(dir, 100), contents);
+    assertArrayEquals(contents, read(new DiskBlobCache(dir, 100), idFor(contents)));
+  }
+}
@@ -1,19 +1,35 @@
 package uk.ac.ic.wlgitbridge.bridge.resource;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpHeaders;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
 import org.junit.Test;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
 import uk.ac.ic.wlgitbridge.bridge.util.CastUtil;
+import uk.ac.ic.wlgitbridge.data.filestore.GitBlobFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
 import uk.ac.ic.wlgitbridge.io.http.ning.NingHttpClientFacade;
 import uk.ac.ic.wlgitbridge.util.FunctionT;
@@ -30,34 +46,48 @@ public class UrlResourceCacheTest {
 
   private final DBStore dbStore = mock(DBStore.class);
 
+  private final ProjectRepo repo = mock(ProjectRepo.class);
+
   private final UrlResourceCache cache = new UrlResourceCache(dbStore, http);
 
+  private final Repository repository = new InMemoryRepository(new DfsRepositoryDescription(PROJ));
+
+  @Before
+  public void setup() {
+    when(repo.getProjectName()).thenReturn(PROJ);
+    when(repo.getJGitRepository()).thenReturn(repository);
+  }
+
   private static HttpHeaders withContentLength(long cl) {
     return new DefaultHttpHeaders().add("Content-Length", String.valueOf(cl));
   }
 
-  private void respondWithContentLength(long cl, long actual) throws ExecutionException {
-    when(http.get(any(), any()))
+  private void respondWithContentLength(long cl, long actual)
+      throws ExecutionException, IOException {
+    when(http.getToFile(any(), any(), any(), any()))
         .thenAnswer(
             invoc -> {
               Object[] args = invoc.getArguments();
               //noinspection unchecked
-              ((FunctionT<HttpHeaders, Boolean, SizeLimitExceededException>) args[1])
+              ((FunctionT<HttpHeaders, Boolean, SizeLimitExceededException>) args[2])
                   .apply(withContentLength(cl));
-              return new byte[CastUtil.assumeInt(actual)];
+              //noinspection unchecked
+              ((FunctionT<Long, Boolean, SizeLimitExceededException>) args[3]).apply(actual);
+              Files.write(((File) args[1]).toPath(), new byte[CastUtil.assumeInt(actual)]);
+              return actual;
             });
   }
 
-  private void respondWithContentLength(long cl) throws ExecutionException {
+  private void respondWithContentLength(long cl) throws ExecutionException, IOException {
     respondWithContentLength(cl, cl);
   }
 
   private void getWithMaxLength(Optional<Long> max) throws IOException, SizeLimitExceededException {
-    cache.get(PROJ, URL, NEW_PATH, new HashMap<>(), new HashMap<>(), max);
+    cache.get(repo, URL, NEW_PATH, new HashMap<>(), new HashMap<>(), max);
   }
 
   private void getUrl(String url) throws IOException, SizeLimitExceededException {
-    cache.get(PROJ, url, NEW_PATH, new HashMap<>(), new HashMap<>(), Optional.empty());
+    cache.get(repo, url, NEW_PATH, new HashMap<>(), new HashMap<>(), Optional.empty());
   }
 
   private void getWithMaxLength(long max) throws IOException, SizeLimitExceededException {
@@ -115,4 +145,47 @@ public class UrlResourceCacheTest {
     verify(dbStore).getPathForURLInProject(PROJ, cacheKey);
     verify(dbStore).addURLIndexForProject(PROJ, cacheKey, NEW_PATH);
   }
+
+  @Test
+  public void getReadsBlobFromRepositoryWithoutFetching() throws Exception {
+    ObjectId blobId;
+    try (ObjectInserter inserter = repository.newObjectInserter()) {
+      blobId = inserter.insert(Constants.OBJ_BLOB, "content".getBytes(StandardCharsets.UTF_8));
+      inserter.flush();
+    }
+    String url =
+        "http://history.overleaf.com/projects/1234/blobs/"
+            + blobId.name()
+            + "?token=secretencryptedstuff&_path=test.tex";
+    RawFile file =
+        cache.get(repo, url, NEW_PATH, new HashMap<>(), new HashMap<>(), Optional.empty());
+    assertArrayEquals("content".getBytes(StandardCharsets.UTF_8), file.getContents());
+    verify(http, never()).getToFile(any(), any(), any(), any());
+    verify(dbStore)
+        .addURLIndexForProject(
+            PROJ,
+            "http://history.overleaf.com/projects/1234/blobs/"
+                + blobId.name()
+                + "?token=REMOVED&_path=test.tex",
+            NEW_PATH);
+  }
+
+  @Test
+  public void getFetchesBlobMissingFromRepository() throws Exception {
+    respondWithContentLength(123);
+    getUrl(
+        "http://history.overleaf.com/projects/1234/blobs/"
+            + "0123456789abcdef0123456789abcdef01234567?token=secret&_path=test.tex");
+    verify(http).getToFile(any(), any(), any(), any());
+  }
+
+  @Test
+  public void fetchedContentsAreInsertedIntoRepository() throws Exception {
+    respondWithContentLength(3);
+    RawFile file =
+        cache.get(repo, URL, NEW_PATH, new HashMap<>(), new HashMap<>(), Optional.empty());
+    assertTrue(file instanceof GitBlobFile);
+    assertTrue(repository.getObjectDatabase().has(((GitBlobFile) file).getBlobId()));
+    assertArrayEquals(new byte[3], file.getContents());
+  }
 }
@@ -0,0 +1,89 @@
+package uk.ac.ic.wlgitbridge.bridge.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.GetForVersionResult;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotData;
+import uk.ac.ic.wlgitbridge.snapshot.getsavedvers.SnapshotInfo;
+
+public class SnapshotStreamTest {
+
+  private static final String PROJ = "proj";
+
+  private SnapshotApi api;
+  private Map<Integer, CompletableFuture<GetForVersionResult>> requests;
+  private List<SnapshotInfo> infos;
+
+  @Before
+  public void setup() {
+    api = mock(SnapshotApi.class);
+    requests = new HashMap<>();
+    infos = new ArrayList<>();
+    for (int version = 1; version <= 5; version++) {
+      CompletableFuture<GetForVersionResult> request = new CompletableFuture<>();
+      requests.put(version, request);
+      when(api.getForVersion(any(), eq(PROJ), eq(version))).thenReturn(request);
+      infos.add(
+          new SnapshotInfo(
+              version, "comment", "git@winston.li", "Winston Li", "2014-11-30T18:40:58Z"));
+    }
+  }
+
+  private void complete(int version) {
+    requests
+        .get(version)
+        .complete(new GetForVersionResult(new SnapshotData(new ArrayList<>(), new ArrayList<>())));
+  }
+
+  @Test
+  public void onlyRequestsUpToLookaheadVersionsAtOnce() throws Exception {
+    try (SnapshotStream stream = new SnapshotStream(api, Optional.empty(), PROJ, infos, 2)) {
+      verify(api, times(2)).getForVersion(any(), eq(PROJ), anyInt());
+      verify(api, never()).getForVersion(any(), eq(PROJ), eq(3));
+
+      complete(1);
+      assertEquals(1, stream.next().getVersionID());
+      verify(api).getForVersion(any(), eq(PROJ), eq(3));
+      verify(api, never()).getForVersion(any(), eq(PROJ), eq(4));
+    }
+  }
+
+  @Test
+  public void returnsEverySnapshotInVersionOrder() throws Exception {
+    requests.keySet().forEach(this::complete);
+    List<Integer> versions = new ArrayList<>();
+    try (SnapshotStream stream = new SnapshotStream(api, Optional.empty(), PROJ, infos, 2)) {
+      while (stream.hasNext()) {
+        versions.add(stream.next().getVersionID());
+      }
+    }
+    assertEquals(List.of(1, 2, 3, 4, 5), versions);
+  }
+
+  @Test
+  public void closingCancelsOutstandingRequests() {
+    new SnapshotStream(api, Optional.empty(), PROJ, infos, 3).close();
+    assertTrue(requests.get(1).isCancelled());
+    assertTrue(requests.get(3).isCancelled());
+    assertFalse(requests.get(4).isCancelled());
+    verify(api, never()).getForVersion(any(), eq(PROJ), eq(4));
+  }
+}
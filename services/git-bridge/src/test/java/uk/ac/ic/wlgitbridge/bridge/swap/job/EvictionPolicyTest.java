@@ -0,0 +1,60 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.bridge.db.SwapCandidate;
+
+public class EvictionPolicyTest {
+
+  /* Least recently accessed first. */
+  private static final List<SwapCandidate> CANDIDATES =
+      Arrays.asList(
+          new SwapCandidate("small-old", 10, false),
+          new SwapCandidate("big-restored", 1000, true),
+          new SwapCandidate("medium", 100, false),
+          new SwapCandidate("big-new", 1000, false));
+
+  @Test
+  public void lruTakesTheOldestProjectsUntilEnoughIsFreed() {
+    assertEquals(
+        Arrays.asList("small-old", "big-restored"),
+        new LruEvictionPolicy().choose(CANDIDATES, 500, 10));
+  }
+
+  @Test
+  public void noMoreThanMaxProjectsAreChosen() {
+    assertEquals(Arrays.asList("small-old"), new LruEvictionPolicy().choose(CANDIDATES, 5000, 1));
+  }
+
+  @Test
+  public void nothingIsChosenWhenThereIsNothingToFree() {
+    assertTrue(new LruEvictionPolicy().choose(CANDIDATES, 0, 10).isEmpty());
+  }
+
+  @Test
+  public void sizeWeightedPrefersBigStaleProjects() {
+    assertEquals(
+        Arrays.asList("big-restored"),
+        new SizeWeightedEvictionPolicy().choose(CANDIDATES, 500, 10));
+    assertEquals(
+        Arrays.asList("big-restored", "big-new"),
+        new SizeWeightedEvictionPolicy().choose(CANDIDATES, 1500, 10));
+  }
+
+  @Test
+  public void twoQueueEvictsRestoredProjectsLast() {
+    assertEquals(
+        Arrays.asList("small-old", "medium", "big-new"),
+        new TwoQueueEvictionPolicy().choose(CANDIDATES, 500, 10));
+  }
+
+  @Test
+  public void unknownPolicyFallsBackToLru() {
+    assertTrue(EvictionPolicy.fromName("mru") instanceof LruEvictionPolicy);
+    assertTrue(EvictionPolicy.fromName("2q") instanceof TwoQueueEvictionPolicy);
+  }
+}
@@ -2,12 +2,23 @@ package uk.ac.ic.wlgitbridge.bridge.swap.job;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -15,6 +26,8 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SqliteDBStore;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockOperation;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.FSGitRepoStore;
 import uk.ac.ic.wlgitbridge.bridge.repo.FSGitRepoStoreTest;
@@ -59,6 +72,7 @@ public class SwapJobImplTest {
             30000,
             Duration.ofMillis(100),
             SwapJob.CompressionMethod.Bzip2,
+            new LruEvictionPolicy(),
             lock,
             repoStore,
             dbStore,
@@ -135,6 +149,161 @@ public class SwapJobImplTest {
     assertEquals("proj2", dbStore.getOldestUnswappedProject());
   }
 
+  @Test
+  public void evictionsRunInParallelUpToTheirCaps() throws Exception {
+    for (String projectName : new String[] {"proj3", "proj4"}) {
+      FileUtils.copyDirectory(
+          new File(repoStore.getRootDirectory(), "proj1"),
+          new File(repoStore.getRootDirectory(), projectName));
+      dbStore.setLatestVersionForProject(projectName, 0);
+      dbStore.setLastAccessedTime(projectName, Timestamp.valueOf(LocalDateTime.now()));
+    }
+    RepoStore gcCounting = spy(repoStore);
+    AtomicInteger gcs = new AtomicInteger();
+    doAnswer(
+            invocation -> {
+              gcs.incrementAndGet();
+              return invocation.callRealMethod();
+            })
+        .when(gcCounting)
+        .gcProject(anyString());
+    BlockingSwapStore blocking = new BlockingSwapStore(swapStore);
+    swapJob =
+        new SwapJobImpl(
+            0,
+            0,
+            30000,
+            Duration.ofHours(1),
+            SwapJob.CompressionMethod.Bzip2,
+            ZstdConfig.DEFAULT,
+            new LruEvictionPolicy(),
+            4,
+            3,
+            2,
+            lock,
+            gcCounting,
+            dbStore,
+            blocking);
+    assertEquals(4, dbStore.getNumUnswappedProjects());
+    swapJob.start();
+    try {
+      while (blocking.uploading.get() < 2 || gcs.get() < 3) {
+        Thread.sleep(10);
+      }
+      Thread.sleep(200);
+      /* Two evictions upload, a third has GCed and waits to upload */
+      assertEquals(2, blocking.uploading.get());
+      assertEquals(3, gcs.get());
+    } finally {
+      blocking.release.countDown();
+    }
+    do {
+      waitASecond();
+    } while (swapJob.swaps.get() < 1);
+    assertEquals(0, dbStore.getNumUnswappedProjects());
+    assertEquals(2, blocking.maxUploading.get());
+  }
+
+  @Test
+  public void projectWhoseEvictionIsQueuedCanStillBeFetched() throws Exception {
+    ProjectLock locks = new ProjectLockImpl(0, 16);
+    BlockingSwapStore blocking = new BlockingSwapStore(swapStore);
+    swapJob =
+        new SwapJobImpl(
+            0,
+            0,
+            30000,
+            Duration.ofHours(1),
+            SwapJob.CompressionMethod.Bzip2,
+            ZstdConfig.DEFAULT,
+            new LruEvictionPolicy(),
+            2,
+            1,
+            1,
+            locks,
+            repoStore,
+            dbStore,
+            blocking);
+    swapJob.start();
+    try {
+      while (blocking.uploading.get() < 1) {
+        Thread.sleep(10);
+      }
+      Thread.sleep(200);
+      /* One eviction uploads, the other waits for its compression permit */
+      String queued = blocking.uploadingProjects.contains("proj1") ? "proj2" : "proj1";
+      try (LockGuard __ = locks.sharedLockGuard(queued, LockOperation.FETCH)) {
+        assertEquals(1, blocking.uploading.get());
+      }
+    } finally {
+      blocking.release.countDown();
+    }
+    do {
+      waitASecond();
+    } while (swapJob.swaps.get() < 1);
+    assertEquals(0, dbStore.getNumUnswappedProjects());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void uploadCapMustNotExceedTheCompressionCap() {
+    new SwapJobImpl(
+        0,
+        0,
+        30000,
+        Duration.ofHours(1),
+        SwapJob.CompressionMethod.Bzip2,
+        ZstdConfig.DEFAULT,
+        new LruEvictionPolicy(),
+        4,
+        2,
+        3,
+        lock,
+        repoStore,
+        dbStore,
+        swapStore);
+  }
+
+  @Test
+  public void lockedCandidatesDoNotEndTheRun() throws Exception {
+    ProjectLock locks = new ProjectLockImpl(0, 16);
+    swapJob =
+        new SwapJobImpl(
+            0,
+            0,
+            30000,
+            Duration.ofHours(1),
+            SwapJob.CompressionMethod.Bzip2,
+            new LruEvictionPolicy(),
+            locks,
+            repoStore,
+            dbStore,
+            swapStore);
+    swapJob.candidatePoolSize = 1;
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch swapped = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      executor.submit(
+          () -> {
+            try (LockGuard __ = locks.lockGuard("proj2", LockOperation.PUSH)) {
+              locked.countDown();
+              swapped.await();
+            }
+            return null;
+          });
+      locked.await();
+      swapJob.start();
+      do {
+        waitASecond();
+      } while (swapJob.swaps.get() < 1);
+    } finally {
+      swapped.countDown();
+      executor.shutdownNow();
+    }
+    assertEquals(1, dbStore.getNumUnswappedProjects());
+    assertEquals("proj2", dbStore.getOldestUnswappedProject());
+  }
+
   @Test
   public void swapCompressionGzip() throws IOException {
     swapJob =
@@ -144,6 +313,7 @@ public class SwapJobImplTest {
             30000,
             Duration.ofMillis(100),
             SwapJob.CompressionMethod.Gzip,
+            new LruEvictionPolicy(),
             lock,
             repoStore,
             dbStore,
@@ -167,4 +337,85 @@ public class SwapJobImplTest {
     assertEquals(1, dbStore.getNumUnswappedProjects());
     assertEquals("proj2", dbStore.getOldestUnswappedProject());
   }
+
+  @Test
+  public void swapCompressionZstd() throws IOException {
+    swapJob =
+        new SwapJobImpl(
+            1,
+            15000,
+            30000,
+            Duration.ofMillis(100),
+            SwapJob.CompressionMethod.Zstd,
+            new ZstdConfig(3, 2, false),
+            new LruEvictionPolicy(),
+            SwapJobConfig.DEFAULT_EVICTION_WORKERS,
+            SwapJobConfig.DEFAULT_MAX_CONCURRENT_COMPRESSIONS,
+            SwapJobConfig.DEFAULT_MAX_CONCURRENT_UPLOADS,
+            lock,
+            repoStore,
+            dbStore,
+            swapStore);
+    swapJob.lowWatermarkBytes = 16384;
+    swapJob.start();
+    do {
+      waitASecond();
+    } while (swapJob.swaps.get() < 1);
+    assertEquals(1, dbStore.getNumUnswappedProjects());
+    assertEquals("zstd", dbStore.getSwapCompression("proj2"));
+    swapJob.restore("proj2");
+    assertEquals(null, dbStore.getSwapCompression("proj2"));
+    assertEquals(2, dbStore.getNumUnswappedProjects());
+  }
+
+  /* Holds every upload until released, counting how many are waiting. */
+  private static class BlockingSwapStore implements SwapStore {
+
+    private final SwapStore store;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger uploading = new AtomicInteger();
+    private final AtomicInteger maxUploading = new AtomicInteger();
+    private final Set<String> uploadingProjects = ConcurrentHashMap.newKeySet();
+
+    BlockingSwapStore(SwapStore store) {
+      this.store = store;
+    }
+
+    @Override
+    public void upload(String projectName, InputStream uploadStream, long contentLength)
+        throws IOException {
+      store.upload(projectName, uploadStream, contentLength);
+    }
+
+    @Override
+    public void upload(String projectName, ContentWriter content) throws IOException {
+      uploadingProjects.add(projectName);
+      maxUploading.accumulateAndGet(uploading.incrementAndGet(), Math::max);
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      try {
+        store.upload(projectName, content);
+      } finally {
+        uploading.decrementAndGet();
+      }
+    }
+
+    @Override
+    public InputStream openDownloadStream(String projectName) {
+      return store.openDownloadStream(projectName);
+    }
+
+    @Override
+    public void remove(String projectName) {
+      store.remove(projectName);
+    }
+
+    @Override
+    public boolean isSafe() {
+      return false;
+    }
+  }
 }
@@ -0,0 +1,46 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.job;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ZstdConfigTest {
+
+  private static final long MiB = 1L << 20;
+
+  @Test
+  public void levelIsFixedUnlessAdaptive() {
+    ZstdConfig config = new ZstdConfig(7, null, null);
+    assertEquals(7, config.levelFor(MiB));
+    assertEquals(7, config.levelFor(10_000 * MiB));
+  }
+
+  @Test
+  public void adaptiveLevelFallsAsProjectsGrow() {
+    ZstdConfig config = new ZstdConfig(null, null, true);
+    assertEquals(19, config.levelFor(MiB));
+    assertEquals(9, config.levelFor(100 * MiB));
+    assertEquals(ZstdConfig.DEFAULT_LEVEL, config.levelFor(1000 * MiB));
+    assertEquals(1, config.levelFor(10_000 * MiB));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void levelBelowTheRangeIsRejected() {
+    new ZstdConfig(0, null, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void levelAboveTheRangeIsRejected() {
+    new ZstdConfig(20, null, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeWorkersAreRejected() {
+    new ZstdConfig(null, -1, null);
+  }
+
+  @Test
+  public void noWorkersAreAllowed() {
+    assertEquals(0, new ZstdConfig(null, 0, null).getWorkers());
+  }
+}
@@ -53,4 +53,26 @@ public class InMemorySwapStoreTest {
     exception.expect(IllegalArgumentException.class);
     swapStore.openDownloadStream("proj");
   }
+
+  @Test
+  public void canDownloadStreamedUploads() throws IOException {
+    byte[] projContents = "streamed".getBytes();
+    swapStore.upload("proj", out -> out.write(projContents));
+    assertArrayEquals(projContents, IOUtils.toByteArray(swapStore.openDownloadStream("proj")));
+  }
+
+  @Test
+  public void failedStreamedUploadStoresNothing() throws IOException {
+    try {
+      swapStore.upload(
+          "proj",
+          out -> {
+            out.write("partial".getBytes());
+            throw new IOException("failed");
+          });
+    } catch (IOException __) {
+    }
+    exception.expect(IllegalArgumentException.class);
+    swapStore.openDownloadStream("proj");
+  }
 }
@@ -1,6 +1,50 @@
 package uk.ac.ic.wlgitbridge.bridge.swap.store;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 
 /*
  * Created by winston on 21/08/2016.
@@ -15,8 +59,27 @@ public class S3SwapStoreTest {
 
   private S3SwapStore s3;
 
+  private S3Client client;
+  private S3SwapStore store;
+  /* The parts uploaded so far, by part number */
+  private final Map<Integer, byte[]> parts = new TreeMap<>();
+
   @Before
   public void setup() {
+    client = mock(S3Client.class);
+    when(client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+        .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload").build());
+    when(client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+        .thenAnswer(
+            invocation -> {
+              UploadPartRequest request = invocation.getArgument(0);
+              byte[] part = read(invocation.getArgument(1));
+              synchronized (parts) {
+                parts.put(request.partNumber(), part);
+              }
+              return UploadPartResponse.builder().eTag("etag" + request.partNumber()).build();
+            });
+    store = new S3SwapStore(client, bucketName);
     if (accessKey == null || secret == null) {
       s3 = null;
       return;
@@ -24,6 +87,189 @@ public class S3SwapStoreTest {
     s3 = new S3SwapStore(accessKey, secret, bucketName, region, endpoint);
   }
 
+  @After
+  public void teardown() {
+    store.stop();
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static byte[] read(RequestBody body) throws IOException {
+    try (InputStream in = body.contentStreamProvider().newStream()) {
+      return in.readAllBytes();
+    }
+  }
+
+  @Test
+  public void contentThatFitsInOnePartIsPutAsOneObject() throws IOException {
+    byte[] contents = randomBytes(1000);
+    store.upload("proj", out -> out.write(contents));
+    ArgumentCaptor<PutObjectRequest> put = ArgumentCaptor.forClass(PutObjectRequest.class);
+    ArgumentCaptor<RequestBody> body = ArgumentCaptor.forClass(RequestBody.class);
+    verify(client).putObject(put.capture(), body.capture());
+    assertEquals("proj", put.getValue().key());
+    assertEquals(Long.valueOf(contents.length), put.getValue().contentLength());
+    assertArrayEquals(contents, read(body.getValue()));
+    verify(client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+  }
+
+  @Test
+  public void biggerContentIsUploadedInParts() throws IOException {
+    byte[] contents = randomBytes(2 * S3SwapStore.PART_SIZE + 10);
+    store.upload("proj", out -> out.write(contents));
+    verify(client, times(1)).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    ArgumentCaptor<CompleteMultipartUploadRequest> complete =
+        ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+    verify(client).completeMultipartUpload(complete.capture());
+    List<CompletedPart> completed = complete.getValue().multipartUpload().parts();
+    assertEquals(3, completed.size());
+    for (int i = 0; i < completed.size(); i++) {
+      assertEquals(Integer.valueOf(i + 1), completed.get(i).partNumber());
+      assertEquals("etag" + (i + 1), completed.get(i).eTag());
+    }
+    ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+    for (byte[] part : parts.values()) {
+      uploaded.write(part);
+    }
+    assertEquals(S3SwapStore.PART_SIZE, parts.get(1).length);
+    assertEquals(10, parts.get(3).length);
+    assertArrayEquals(contents, uploaded.toByteArray());
+    verify(client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+  }
+
+  @Test
+  public void writerExceptionAbortsTheUpload() {
+    byte[] contents = randomBytes(S3SwapStore.PART_SIZE + 1);
+    try {
+      store.upload(
+          "proj",
+          out -> {
+            out.write(contents);
+            throw new IOException("writer failed");
+          });
+      fail("expected the writer's exception");
+    } catch (IOException e) {
+      assertEquals("writer failed", e.getMessage());
+    }
+    verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    verify(client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+  }
+
+  @Test
+  public void writerExceptionBeforeTheFirstPartStoresNothing() {
+    try {
+      store.upload(
+          "proj",
+          out -> {
+            out.write(1);
+            throw new IOException("writer failed");
+          });
+      fail("expected the writer's exception");
+    } catch (IOException e) {
+      assertEquals("writer failed", e.getMessage());
+    }
+    verify(client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    verify(client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+  }
+
+  @Test
+  public void failedPartAbortsTheUpload() throws IOException {
+    when(client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+        .thenThrow(new IllegalStateException("part failed"));
+    byte[] contents = randomBytes(3 * S3SwapStore.PART_SIZE);
+    try {
+      store.upload("proj", out -> out.write(contents));
+      fail("expected the part's exception");
+    } catch (IllegalStateException e) {
+      assertEquals("part failed", e.getMessage());
+    }
+    verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+  }
+
+  /*
+   * Serves an object of the given size from ranged gets, whose bytes are
+   * made by {@code range}, given the first and last offsets of each one.
+   * @return the ranges requested, in the order they were fetched
+   */
+  private List<String> serveRanges(long size, Function<long[], byte[]> range) {
+    when(client.headObject(any(HeadObjectRequest.class)))
+        .thenReturn(HeadObjectResponse.builder().contentLength(size).eTag("etag").build());
+    List<String> requested = Collections.synchronizedList(new ArrayList<>());
+    when(client.getObjectAsBytes(any(GetObjectRequest.class)))
+        .thenAnswer(
+            invocation -> {
+              GetObjectRequest request = invocation.getArgument(0);
+              assertEquals("etag", request.ifMatch());
+              requested.add(request.range());
+              String[] bounds = request.range().substring("bytes=".length()).split("-");
+              byte[] bytes =
+                  range.apply(new long[] {Long.parseLong(bounds[0]), Long.parseLong(bounds[1])});
+              return ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), bytes);
+            });
+    return requested;
+  }
+
+  @Test
+  public void bigObjectsAreDownloadedInRanges() throws IOException {
+    byte[] contents = randomBytes(2 * S3SwapStore.PART_SIZE + 10);
+    List<String> requested =
+        serveRanges(
+            contents.length,
+            bounds -> Arrays.copyOfRange(contents, (int) bounds[0], (int) bounds[1] + 1));
+    try (InputStream in = store.openDownloadStream("proj")) {
+      assertArrayEquals(contents, in.readAllBytes());
+      assertEquals(-1, in.read());
+      assertEquals(-1, in.read(new byte[1], 0, 1));
+    }
+    int part = S3SwapStore.PART_SIZE;
+    assertEquals(
+        Set.of(
+            "bytes=0-" + (part - 1),
+            "bytes=" + part + "-" + (2 * part - 1),
+            "bytes=" + 2 * part + "-" + (2 * part + 9)),
+        new HashSet<>(requested));
+  }
+
+  @Test
+  public void closingADownloadCancelsTheRangesInFlight() throws Exception {
+    CountDownLatch never = new CountDownLatch(1);
+    AtomicInteger started = new AtomicInteger();
+    AtomicInteger interrupted = new AtomicInteger();
+    List<String> requested =
+        serveRanges(
+            10L * S3SwapStore.PART_SIZE,
+            bounds -> {
+              if (bounds[0] == 0) {
+                return new byte[(int) (bounds[1] + 1)];
+              }
+              started.incrementAndGet();
+              try {
+                never.await();
+              } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+              }
+              return new byte[0];
+            });
+    InputStream in = store.openDownloadStream("proj");
+    assertEquals(0, in.read());
+    while (started.get() < S3SwapStore.MAX_RANGES_IN_FLIGHT) {
+      Thread.sleep(10);
+    }
+    in.close();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (interrupted.get() < S3SwapStore.MAX_RANGES_IN_FLIGHT && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(S3SwapStore.MAX_RANGES_IN_FLIGHT, interrupted.get());
+    assertEquals(S3SwapStore.MAX_RANGES_IN_FLIGHT + 1, requested.size());
+  }
+
   //    @Ignore
   //    @Test
   //    public void testUploadDownloadDelete() throws Exception {
@@ -0,0 +1,73 @@
+package uk.ac.ic.wlgitbridge.data;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.data.filestore.RawTreeDiff;
+import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotAttachment;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotData;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotFile;
+
+public class CandidateSnapshotTest {
+
+  private static final Map<String, String> KNOWN_URLS = Map.of("http://att", "image.png");
+
+  private static CandidateSnapshot candidate(String... changed) {
+    RawTreeDiff diff =
+        new RawTreeDiff(
+            Arrays.asList(
+                new RepositoryFile("main.tex", "pushed".getBytes()),
+                new RepositoryFile("image.png", new byte[] {1, 2, 3})),
+            new HashSet<>(Arrays.asList(changed)),
+            Collections.emptyList());
+    return new CandidateSnapshot("proj", 2, diff);
+  }
+
+  private static SnapshotData version(String mainTex, String attUrl, String... extraSrcs) {
+    List<SnapshotFile> srcs = new ArrayList<>();
+    srcs.add(new SnapshotFile(mainTex, "main.tex"));
+    for (String path : extraSrcs) {
+      srcs.add(new SnapshotFile("", path));
+    }
+    return new SnapshotData(srcs, List.of(new SnapshotAttachment(attUrl, "image.png")));
+  }
+
+  @Test
+  public void versionWithThePushedContentMatches() {
+    assertTrue(candidate("main.tex").isContentOf(version("pushed", "http://att"), KNOWN_URLS::get));
+  }
+
+  @Test
+  public void versionWithOtherContentDoesNotMatch() {
+    assertFalse(
+        candidate("main.tex").isContentOf(version("edited", "http://att"), KNOWN_URLS::get));
+  }
+
+  @Test
+  public void versionWithOtherFilesDoesNotMatch() {
+    assertFalse(
+        candidate("main.tex")
+            .isContentOf(version("pushed", "http://att", "other.tex"), KNOWN_URLS::get));
+  }
+
+  @Test
+  public void versionWithAnAttWeHaveNotSeenDoesNotMatch() {
+    assertFalse(
+        candidate("main.tex").isContentOf(version("pushed", "http://new-att"), KNOWN_URLS::get));
+  }
+
+  @Test
+  public void pushThatChangesAnAttNeverMatches() {
+    assertFalse(
+        candidate("main.tex", "image.png")
+            .isContentOf(version("pushed", "http://att"), KNOWN_URLS::get));
+  }
+}
@@ -0,0 +1,115 @@
+package uk.ac.ic.wlgitbridge.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import io.prometheus.client.CollectorRegistry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockOperation;
+
+public class ProjectLockImplTest {
+
+  private final ProjectLockImpl locks = new ProjectLockImpl(1, 1);
+
+  @Test
+  public void locksAreRemovedOnceReleased() throws CannotAcquireLockException {
+    try (LockGuard __ = locks.lockGuard("a", LockOperation.PUSH)) {
+      try (LockGuard ___ = locks.sharedLockGuard("a", LockOperation.FETCH)) {
+        try (LockGuard ____ = locks.sharedLockGuard("b", LockOperation.FETCH)) {
+          assertEquals(2, locks.getNumLocks());
+        }
+        assertEquals(1, locks.getNumLocks());
+      }
+      assertEquals(1, locks.getNumLocks());
+    }
+    assertEquals(0, locks.getNumLocks());
+  }
+
+  @Test
+  public void sharedLocksAreHeldTogether() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (LockGuard __ = locks.sharedLockGuard("a", LockOperation.FETCH)) {
+      executor
+          .submit(
+              () -> {
+                try (LockGuard ___ = locks.sharedLockGuard("a", LockOperation.FETCH)) {
+                  return null;
+                }
+              })
+          .get();
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(0, locks.getNumLocks());
+  }
+
+  @Test
+  public void failedAttemptsDoNotLeaveLocksBehind() throws Exception {
+    /* Give up at once rather than waiting for the lock */
+    ProjectLockImpl locks = new ProjectLockImpl(0, 1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (LockGuard __ = locks.lockGuard("a", LockOperation.PUSH)) {
+      executor
+          .submit(
+              () -> {
+                try (LockGuard ___ = locks.sharedLockGuard("a", LockOperation.FETCH)) {
+                  fail("expected CannotAcquireLockException");
+                } catch (CannotAcquireLockException e) {
+                  // expected
+                }
+                return null;
+              })
+          .get();
+      assertEquals(1, locks.getNumLocks());
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(0, locks.getNumLocks());
+  }
+
+  @Test
+  public void requestsBeyondTheQueueDepthAreTurnedAwayAtOnce() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try (LockGuard __ = locks.lockGuard("a", LockOperation.PUSH)) {
+      Future<?> queued =
+          executor.submit(
+              () -> {
+                try (LockGuard ___ = locks.lockGuard("a", LockOperation.GC)) {
+                  return null;
+                }
+              });
+      while (queueLength("gc") < 1) {
+        Thread.sleep(1);
+      }
+      executor
+          .submit(
+              () -> {
+                try (LockGuard ___ = locks.sharedLockGuard("a", LockOperation.FETCH)) {
+                  fail("expected CannotAcquireLockException");
+                } catch (CannotAcquireLockException e) {
+                  assertEquals(1, e.getRetryAfterSeconds());
+                }
+                return null;
+              })
+          .get();
+      /* Reentrant requests don't queue */
+      try (LockGuard ___ = locks.sharedLockGuard("a", LockOperation.FETCH)) {
+        assertEquals(1, locks.getNumLocks());
+      }
+      queued.cancel(true);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static double queueLength(String operation) {
+    Double value =
+        CollectorRegistry.defaultRegistry.getSampleValue(
+            "project_lock_queue_length", new String[] {"operation"}, new String[] {operation});
+    return value == null ? 0 : value;
+  }
+}
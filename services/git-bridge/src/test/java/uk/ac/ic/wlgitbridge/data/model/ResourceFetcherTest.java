@@ -63,10 +63,10 @@ public class ResourceFetcherTest {
     repositoryFolder.create();
     String repoStorePath = repositoryFolder.getRoot().getAbsolutePath();
     RepoStore repoStore = new FSGitRepoStore(repoStorePath, Optional.empty());
-    ProjectRepo repo = repoStore.initRepo("repo");
+    ProjectRepo repo = repoStore.initRepo(testProjectName);
     Map<String, RawFile> fileTable = repo.getDirectory().getFileTable();
-    Map<String, byte[]> fetchedUrls = new HashMap<>();
-    resources.get(testProjectName, testUrl, newTestPath, fileTable, fetchedUrls, Optional.empty());
+    Map<String, RawFile> fetchedUrls = new HashMap<>();
+    resources.get(repo, testUrl, newTestPath, fileTable, fetchedUrls, Optional.empty());
 
     // We don't bother caching in this case, at present.
     assertEquals(0, fetchedUrls.size());
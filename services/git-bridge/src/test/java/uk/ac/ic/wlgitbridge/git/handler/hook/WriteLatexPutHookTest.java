@@ -36,7 +36,7 @@ import uk.ac.ic.wlgitbridge.application.GitBridgeApp;
 import uk.ac.ic.wlgitbridge.bridge.Bridge;
 import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
-import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.data.filestore.RawTreeDiff;
 
 public class WriteLatexPutHookTest {
 
@@ -69,7 +69,7 @@ public class WriteLatexPutHookTest {
     logger.addAppender(listAppender);
 
     ProjectRepo projectRepo = mock(ProjectRepo.class);
-    when(projectRepo.getDirectory()).thenReturn(mock(RawDirectory.class));
+    when(projectRepo.getDiff(any())).thenReturn(mock(RawTreeDiff.class));
     when(repoStore.useJGitRepo(any(Repository.class), any(ObjectId.class))).thenReturn(projectRepo);
     hook = new WriteLatexPutHook(repoStore, bridge, "localhost", Optional.empty());
   }
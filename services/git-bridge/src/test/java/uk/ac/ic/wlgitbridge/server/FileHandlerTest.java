@@ -0,0 +1,119 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.GracefulHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.bridge.Bridge;
+import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
+
+public class FileHandlerTest {
+
+  private static final byte[] CONTENTS = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+  private Server server;
+  private HttpClient http;
+  private int port;
+
+  @Before
+  public void setup() throws Exception {
+    Bridge bridge = mock(Bridge.class);
+    when(bridge.getPushedFile("proj", "file"))
+        .thenReturn(Optional.of(new RepositoryFile("file.txt", CONTENTS)));
+    when(bridge.getPushedFile("proj", "missing")).thenReturn(Optional.empty());
+    server = new Server(0);
+    /*
+     * The client can have the whole body before the handler has closed its
+     * response, so stopping waits for the handler rather than cutting it off.
+     */
+    server.setHandler(new GracefulHandler(new FileHandler(bridge)));
+    server.setStopTimeout(5000);
+    server.start();
+    port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    http = HttpClient.newHttpClient();
+  }
+
+  @After
+  public void teardown() throws Exception {
+    http.close();
+    server.stop();
+  }
+
+  private HttpResponse<byte[]> get(String identifier, String range) throws Exception {
+    HttpRequest.Builder request =
+        HttpRequest.newBuilder(
+            URI.create("http://127.0.0.1:" + port + "/proj/" + identifier + "?key=postback"));
+    if (range != null) {
+      request.header("Range", range);
+    }
+    return http.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+  }
+
+  @Test
+  public void servesTheWholeFile() throws Exception {
+    HttpResponse<byte[]> response = get("file", null);
+    assertEquals(200, response.statusCode());
+    assertEquals("10", response.headers().firstValue("Content-Length").get());
+    assertArrayEquals(CONTENTS, response.body());
+  }
+
+  @Test
+  public void servesASingleRange() throws Exception {
+    HttpResponse<byte[]> response = get("file", "bytes=2-4");
+    assertEquals(206, response.statusCode());
+    assertEquals("bytes 2-4/10", response.headers().firstValue("Content-Range").get());
+    assertArrayEquals(Arrays.copyOfRange(CONTENTS, 2, 5), response.body());
+  }
+
+  @Test
+  public void servesASuffixRange() throws Exception {
+    HttpResponse<byte[]> response = get("file", "bytes=-3");
+    assertEquals(206, response.statusCode());
+    assertEquals("bytes 7-9/10", response.headers().firstValue("Content-Range").get());
+    assertArrayEquals(Arrays.copyOfRange(CONTENTS, 7, 10), response.body());
+  }
+
+  @Test
+  public void clampsALastBytePosTooBigForALong() throws Exception {
+    HttpResponse<byte[]> response = get("file", "bytes=5-99999999999999999999");
+    assertEquals(206, response.statusCode());
+    assertEquals("bytes 5-9/10", response.headers().firstValue("Content-Range").get());
+    assertArrayEquals(Arrays.copyOfRange(CONTENTS, 5, 10), response.body());
+  }
+
+  @Test
+  public void servesTheWholeFileForASuffixTooBigForALong() throws Exception {
+    HttpResponse<byte[]> response = get("file", "bytes=-99999999999999999999");
+    assertEquals(206, response.statusCode());
+    assertEquals("bytes 0-9/10", response.headers().firstValue("Content-Range").get());
+    assertArrayEquals(CONTENTS, response.body());
+  }
+
+  @Test
+  public void rangeStartingPastTheEndIsNotSatisfiable() throws Exception {
+    for (String range : new String[] {"bytes=10-", "bytes=99999999999999999999-"}) {
+      HttpResponse<byte[]> response = get("file", range);
+      assertEquals(416, response.statusCode());
+      assertEquals("bytes */10", response.headers().firstValue("Content-Range").get());
+    }
+  }
+
+  @Test
+  public void unknownFileIsNotFound() throws Exception {
+    assertEquals(404, get("missing", null).statusCode());
+  }
+}
@@ -1,10 +1,26 @@
 package uk.ac.ic.wlgitbridge.snapshot.push;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import io.prometheus.client.CollectorRegistry;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import org.junit.Assert;
 import org.junit.Test;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiFacade;
+import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotData;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InternalErrorException;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.PostbackTimeoutException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.UnexpectedPostbackException;
 
@@ -51,4 +67,107 @@ public class PostbackManagerTest {
     postbackManager.waitForVersionIdOrThrow("proj2");
     Assert.assertTrue(postbackManager.postbackContentsTable.isEmpty());
   }
+
+  @Test
+  public void pollingResolvesAPushOnceItsVersionIsConfirmed() throws Exception {
+    SnapshotApiFacade snapshotApi = mock(SnapshotApiFacade.class);
+    GetDocResult doc = mock(GetDocResult.class);
+    when(doc.getVersionID()).thenReturn(3);
+    when(snapshotApi.getDocAsync(any(), anyString()))
+        .thenReturn(CompletableFuture.completedFuture(doc));
+    SnapshotData pushed = new SnapshotData(new ArrayList<>(), new ArrayList<>());
+    when(snapshotApi.getSnapshotDataAsync(any(), eq("proj"), eq(3)))
+        .thenReturn(CompletableFuture.completedFuture(pushed));
+    postbackManager.makeKeyForProject("proj");
+    new PostbackPoller(snapshotApi, 0, 10)
+        .watch(
+            Optional.empty(),
+            "proj",
+            2,
+            postbackManager.getPostbackPromise("proj"),
+            data -> data == pushed);
+    assertEquals(3, postbackManager.waitForVersionIdOrThrow("proj"));
+  }
+
+  @Test
+  public void unrelatedVersionDoesNotResolveAPush() throws Exception {
+    SnapshotApiFacade snapshotApi = mock(SnapshotApiFacade.class);
+    GetDocResult doc = mock(GetDocResult.class);
+    when(doc.getVersionID()).thenReturn(3);
+    when(snapshotApi.getDocAsync(any(), anyString()))
+        .thenReturn(CompletableFuture.completedFuture(doc));
+    when(snapshotApi.getSnapshotDataAsync(any(), eq("proj"), eq(3)))
+        .thenReturn(
+            CompletableFuture.completedFuture(
+                new SnapshotData(new ArrayList<>(), new ArrayList<>())));
+    String key = postbackManager.makeKeyForProject("proj");
+    PostbackPromise promise = postbackManager.getPostbackPromise("proj");
+    CountDownLatch compared = new CountDownLatch(1);
+    new PostbackPoller(snapshotApi, 0, 10)
+        .watch(
+            Optional.empty(),
+            "proj",
+            2,
+            promise,
+            data -> {
+              compared.countDown();
+              return false;
+            });
+    compared.await();
+    Thread.sleep(100);
+    assertFalse(promise.isDone());
+    postbackManager.postVersionIDForProject("proj", 4, key);
+    assertEquals(4, postbackManager.waitForVersionIdOrThrow("proj"));
+  }
+
+  @Test
+  public void pollingStopsOnceAPushGivesUpWaiting() throws Exception {
+    SnapshotApiFacade snapshotApi = mock(SnapshotApiFacade.class);
+    postbackManager.makeKeyForProject("proj");
+    PostbackPromise promise = postbackManager.getPostbackPromise("proj");
+    Thread.currentThread().interrupt();
+    try {
+      postbackManager.waitForVersionIdOrThrow("proj");
+      fail("push should have stopped waiting");
+    } catch (InternalErrorException e) {
+      // expected
+    } finally {
+      Thread.interrupted();
+    }
+    assertTrue(promise.isDone());
+    assertTrue(postbackManager.postbackContentsTable.isEmpty());
+    new PostbackPoller(snapshotApi, 0, 10)
+        .watch(Optional.empty(), "proj", 2, promise, data -> true);
+    Thread.sleep(100);
+    verify(snapshotApi, never()).getDocAsync(any(), anyString());
+  }
+
+  @Test
+  public void pushWithoutAResultTimesOut() throws Exception {
+    double timeoutsBefore = timeouts();
+    int timeoutSeconds = PostbackPromise.TIMEOUT_SECONDS;
+    PostbackPromise.TIMEOUT_SECONDS = 1;
+    try {
+      postbackManager.makeKeyForProject("proj");
+      PostbackPromise promise = postbackManager.getPostbackPromise("proj");
+      try {
+        postbackManager.waitForVersionIdOrThrow("proj");
+        fail("push should have timed out");
+      } catch (PostbackTimeoutException e) {
+        // expected
+      }
+      assertTrue(promise.isDone());
+      assertTrue(postbackManager.postbackContentsTable.isEmpty());
+      assertEquals(timeoutsBefore + 1, timeouts(), 0);
+    } finally {
+      PostbackPromise.TIMEOUT_SECONDS = timeoutSeconds;
+    }
+  }
+
+  private static double timeouts() {
+    Double timeouts =
+        CollectorRegistry.defaultRegistry.getSampleValue(
+            "push_completions_total", new String[] {"via"}, new String[] {"timeout"});
+    return timeouts == null ? 0 : timeouts;
+  }
 }
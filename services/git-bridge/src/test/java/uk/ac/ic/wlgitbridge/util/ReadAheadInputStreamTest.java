@@ -0,0 +1,80 @@
+package uk.ac.ic.wlgitbridge.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class ReadAheadInputStreamTest {
+
+  @Test
+  public void readsTheWholeSource() throws IOException {
+    byte[] contents = new byte[100_000];
+    new Random(0).nextBytes(contents);
+    try (InputStream in =
+        new ReadAheadInputStream(new ByteArrayInputStream(contents), 1024, 4, "test")) {
+      assertArrayEquals(contents, IOUtils.toByteArray(in));
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void readsASourceThatIsAWholeNumberOfChunks() throws IOException {
+    byte[] contents = new byte[4096];
+    new Random(0).nextBytes(contents);
+    try (InputStream in =
+        new ReadAheadInputStream(new ByteArrayInputStream(contents), 1024, 2, "test")) {
+      assertArrayEquals(contents, IOUtils.toByteArray(in));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void failureToReadTheSourceIsThrownToTheReader() throws IOException {
+    InputStream failing =
+        new InputStream() {
+          @Override
+          public int read() throws IOException {
+            throw new IOException("failed");
+          }
+        };
+    try (InputStream in = new ReadAheadInputStream(failing, 1024, 2, "test")) {
+      in.read();
+    }
+  }
+
+  @Test
+  public void closingStopsTheReaderWhichClosesTheSource() throws IOException {
+    AtomicReference<Thread> closedBy = new AtomicReference<>();
+    InputStream blocking =
+        new InputStream() {
+          @Override
+          public int read() throws IOException {
+            try {
+              new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+              throw new InterruptedIOException();
+            }
+            return -1;
+          }
+
+          @Override
+          public void close() {
+            closedBy.set(Thread.currentThread());
+          }
+        };
+    InputStream in = new ReadAheadInputStream(blocking, 1024, 2, "test");
+    in.close();
+    Thread reader = closedBy.get();
+    assertEquals("test", reader.getName());
+    assertFalse(reader.isAlive());
+  }
+}
@@ -2,6 +2,8 @@ package uk.ac.ic.wlgitbridge.util;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -67,4 +69,43 @@ public class TarTest {
   public void tarbz2WorksOnDirectoriesWithAnEmptyFile() throws IOException {
     assertCompDecompEqual(dirWithEmptyFile, tmpDir, Tar.bz2::zip, Tar.bz2::unzip);
   }
+
+  @Test
+  public void tarbz2StreamedToAnOutputStreamUntars() throws IOException {
+    assertCompDecompEqual(
+        testDir,
+        tmpDir,
+        dir -> {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          Tar.bz2.zipTo(dir, out);
+          return new ByteArrayInputStream(out.toByteArray());
+        },
+        Tar.bz2::unzip);
+  }
+
+  @Test
+  public void targzStreamedToAnOutputStreamUntars() throws IOException {
+    assertCompDecompEqual(
+        testDir,
+        tmpDir,
+        dir -> {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          Tar.gzip.zipTo(dir, out);
+          return new ByteArrayInputStream(out.toByteArray());
+        },
+        Tar.gzip::unzip);
+  }
+
+  @Test
+  public void tarzstStreamedToAnOutputStreamUntars() throws IOException {
+    assertCompDecompEqual(
+        testDir,
+        tmpDir,
+        dir -> {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          Tar.zstd.zipTo(dir, out, 3, 2);
+          return new ByteArrayInputStream(out.toByteArray());
+        },
+        (tarzst, dir) -> Tar.untar(Tar.zstd.decompress(tarzst), dir));
+  }
 }